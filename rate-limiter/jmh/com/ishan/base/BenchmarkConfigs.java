@@ -0,0 +1,61 @@
+package com.ishan.base;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the {@link ClientConfig} shapes the benchmarks run with
+ *
+ * @since 18/10/26
+ */
+public class BenchmarkConfigs {
+
+    private static final RateLimitPeriod[] PERIODS = RateLimitPeriod.values();
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+
+    /**
+     * @param clientId  The client id
+     * @param periods   The number of periods, from SECOND up, every limit has
+     * @param endpoints The number of endpoints with limits, see {@link #endpoint(int)}
+     * @param methods   The number of methods with limits, from GET up
+     * @param limit     The limit of every period
+     * @return The config
+     */
+    public static ClientConfig clientConfig(String clientId, int periods, int endpoints, int methods, int limit) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        clientConfig.setRateLimits(rateLimits(periods, limit));
+
+        Map<String, ClientConfig.RateLimits> endpointVsLimits = new HashMap<>();
+        for (int i = 0; i < endpoints; i++) {
+            endpointVsLimits.put(endpoint(i), rateLimits(periods, limit));
+        }
+        clientConfig.setEndpointVsLimits(endpointVsLimits);
+
+        Map<HttpMethod, ClientConfig.RateLimits> methodVsLimits = new EnumMap<>(HttpMethod.class);
+        for (int i = 0; i < Math.min(methods, METHODS.length); i++) {
+            methodVsLimits.put(METHODS[i], rateLimits(periods, limit));
+        }
+        clientConfig.setMethodVsLimits(methodVsLimits);
+        return clientConfig;
+    }
+
+    public static String endpoint(int index) {
+        return "/endpoint/" + index;
+    }
+
+    public static HttpMethod method(int index) {
+        return METHODS[index % METHODS.length];
+    }
+
+    private static ClientConfig.RateLimits rateLimits(int periods, int limit) {
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        for (int i = 0; i < Math.min(periods, PERIODS.length); i++) {
+            periodLimits.put(PERIODS[i], limit);
+        }
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        return rateLimits;
+    }
+}
@@ -0,0 +1,113 @@
+package com.ishan.base;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the slot computation of {@link RateLimitPeriod} against the joda-time implementation it replaced.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitPeriodBenchmark {
+
+    private static final int TIMES = 1024;
+
+    @Param({"SECOND", "HOUR", "WEEK", "MONTH"})
+    private RateLimitPeriod period;
+
+    /**
+     * Request times spread over a day around now, so that the month and offset caches behave as they would in
+     * production while the branches are not trivially predicted
+     */
+    private final long[] times = new long[TIMES];
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < TIMES; i++) {
+            times[i] = now + random.nextInt(DateTimeConstants.MILLIS_PER_DAY);
+        }
+    }
+
+    private long nextTime() {
+        return times[index++ & (TIMES - 1)];
+    }
+
+    @Benchmark
+    public long wrapAndWrapNext() {
+        long time = nextTime();
+        return period.wrap(time) + period.wrapNext(time);
+    }
+
+    @Benchmark
+    public long jodaWrapAndWrapNext() {
+        long time = nextTime();
+        return jodaWrap(period, time) + jodaWrapNext(period, time);
+    }
+
+    private static long jodaWrap(RateLimitPeriod period, long time) {
+        DateTime dateTime = new DateTime(time);
+        switch (period) {
+            case SECOND:
+                return dateTime.withMillisOfSecond(0).getMillis();
+            case MINUTE:
+                return dateTime.withSecondOfMinute(0).withMillisOfSecond(0).getMillis();
+            case HOUR:
+                return dateTime.withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0).getMillis();
+            case DAY:
+                return dateTime.millisOfDay().withMinimumValue().getMillis();
+            case WEEK:
+                return dateTime.dayOfWeek().withMinimumValue().millisOfDay().withMinimumValue().getMillis();
+            case MONTH:
+                return dateTime.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().getMillis();
+            default:
+                throw new IllegalArgumentException("This period is not yet supported");
+        }
+    }
+
+    private static long jodaWrapNext(RateLimitPeriod period, long time) {
+        DateTime dateTime = new DateTime(time);
+        switch (period) {
+            case SECOND:
+                return dateTime.plus(DateTimeConstants.MILLIS_PER_SECOND).withMillisOfSecond(0).getMillis();
+            case MINUTE:
+                return dateTime.plus(DateTimeConstants.MILLIS_PER_MINUTE).withSecondOfMinute(0).withMillisOfSecond(0)
+                        .getMillis();
+            case HOUR:
+                return dateTime.plus(DateTimeConstants.MILLIS_PER_HOUR).withMinuteOfHour(0).withSecondOfMinute(0)
+                        .withMillisOfSecond(0).getMillis();
+            case DAY:
+                return dateTime.plus(DateTimeConstants.MILLIS_PER_DAY).millisOfDay().withMinimumValue().getMillis();
+            case WEEK:
+                return dateTime.plus(DateTimeConstants.MILLIS_PER_WEEK).dayOfWeek().withMinimumValue().millisOfDay()
+                        .withMinimumValue().getMillis();
+            case MONTH:
+                return dateTime.plus(30L * DateTimeConstants.MILLIS_PER_DAY).dayOfMonth().withMinimumValue()
+                        .millisOfDay().withMinimumValue().getMillis();
+            default:
+                throw new IllegalArgumentException("This period is not yet supported");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.ishan.base;
+
+import com.ishan.store.InMemoryCounterStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parts of {@link RateLimitValidator} which run on the node, without redis: building the keys of a request,
+ * looking them up in the {@link LocalBlocklist} and turning the verdict of the script into a response, and the whole
+ * validation against the {@link InMemoryCounterStore}.
+ * <p>
+ * The blocklist is not broadcast here, so nothing connects to redis.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dratelimit.blocklist.broadcast=false")
+public class RateLimitValidatorBenchmark {
+
+    private static final int REQUESTS = 1024;
+
+    @Param({"1", "3", "6"})
+    private int periods;
+
+    @Param({"0", "16"})
+    private int endpoints;
+
+    @Param({"0", "4"})
+    private int methods;
+
+    private ClientConfig clientConfig;
+    private final RateLimitValidator inMemoryValidator = new RateLimitValidator(new InMemoryCounterStore());
+    private final RequestDetails[] requests = new RequestDetails[REQUESTS];
+    private List<RedisKeyDetails> redisKeys;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        clientConfig = BenchmarkConfigs.clientConfig("benchmark", periods, endpoints, methods, Integer.MAX_VALUE);
+        clientConfig.getLimitPlan();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < REQUESTS; i++) {
+            requests[i] = new RequestDetails(now + i, BenchmarkConfigs.method(i),
+                    BenchmarkConfigs.endpoint(i % Math.max(1, endpoints)), clientConfig.getClientId());
+        }
+        redisKeys = RateLimitValidator.constructRedisKeys(clientConfig, requests[0]);
+
+        // A block on another client, so that the lookups are not skipped for an empty blocklist
+        ClientConfig blocked = BenchmarkConfigs.clientConfig("blocked", 1, 0, 0, 1);
+        RequestDetails blockedRequest = new RequestDetails(now, HttpMethod.GET, null, blocked.getClientId());
+        LocalBlocklist.block(blocked.getLimitPlan().getStrategy(),
+                RateLimitValidator.constructRedisKeys(blocked, blockedRequest),
+                RateLimitResponse.withRateLimitReached(RateLimitPeriod.SECOND, RateLimitViolationCause.CLIENT), now,
+                false);
+    }
+
+    private RequestDetails nextRequest() {
+        return requests[index++ & (REQUESTS - 1)];
+    }
+
+    @Benchmark
+    public List<RedisKeyDetails> constructRedisKeys() {
+        return RateLimitValidator.constructRedisKeys(clientConfig, nextRequest());
+    }
+
+    @Benchmark
+    public RedisKeyDetails findBlocked() {
+        return LocalBlocklist.findBlocked(redisKeys, requests[0].getRequestTime());
+    }
+
+    @Benchmark
+    public RateLimitResponse toResponseAllowed() {
+        return RateLimitValidator.toResponse(0, redisKeys);
+    }
+
+    @Benchmark
+    public RateLimitResponse toResponseReached() {
+        return RateLimitValidator.toResponse(redisKeys.size(), redisKeys);
+    }
+
+    @Benchmark
+    public RateLimitResponse validateInMemory() {
+        return inMemoryValidator.validateRateLimited(clientConfig, nextRequest());
+    }
+}
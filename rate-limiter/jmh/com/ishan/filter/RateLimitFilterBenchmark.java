@@ -0,0 +1,169 @@
+package com.ishan.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ishan.base.BenchmarkConfigs;
+import com.ishan.base.ClientConfig;
+import com.ishan.base.ClientConfigProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RateLimitFilter#doFilter} end to end, against an embedded redis server started on a free port for the run.
+ * The shape of the client config is set with the params, and the requests go round its endpoints and methods.
+ * <p>
+ * It reports the throughput and, in sample time mode, the latency percentiles, with 8 threads by default so that
+ * the pool and the caches are contended. Run it with -prof gc for the allocation rate, and -t to change the threads.
+ * With a small limit most requests are rejected, which measures the blocklist path.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RateLimitFilterBenchmark {
+
+    private static final int REQUESTS = 1024;
+
+    @Param({"1", "3", "6"})
+    private int periods;
+
+    @Param({"0", "16"})
+    private int endpoints;
+
+    @Param({"0", "4"})
+    private int methods;
+
+    @Param({"2147483647", "100"})
+    private int limit;
+
+    private RedisServer redisServer;
+    private RateLimitFilter filter;
+    private HttpServletRequest[] requests;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        // Read when RedisService is loaded, which is only on the first request
+        System.setProperty("redis.host", "127.0.0.1");
+        System.setProperty("redis.port", Integer.toString(port));
+        redisServer = RedisServer.builder().port(port).setting("save \"\"").build();
+        redisServer.start();
+
+        String clientId = "benchmark_" + periods + "_" + endpoints + "_" + methods + "_" + limit;
+        ClientConfig clientConfig = BenchmarkConfigs.clientConfig(clientId, periods, endpoints, methods, limit);
+        try (Jedis jedis = new Jedis("127.0.0.1", port)) {
+            jedis.set(ClientConfigProvider.getConfigKey(clientId), new ObjectMapper().writeValueAsString(clientConfig));
+        }
+
+        filter = new RateLimitFilter();
+        filter.init(proxy(FilterConfig.class, (name, args) -> null));
+        requests = new HttpServletRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            String uri = BenchmarkConfigs.endpoint(i % Math.max(1, endpoints));
+            String method = BenchmarkConfigs.method(i).name();
+            requests[i] = proxy(HttpServletRequest.class, (name, args) -> {
+                switch (name) {
+                    case "getHeader":
+                        return clientId;
+                    case "getMethod":
+                        return method;
+                    case "getRequestURI":
+                        return uri;
+                    case "getDispatcherType":
+                        return DispatcherType.REQUEST;
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redisServer.stop();
+    }
+
+    /**
+     * The request index and the status of the last response of a thread
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+
+        private int index;
+        private int status;
+        private HttpServletResponse response;
+        private FilterChain chain;
+
+        @Setup
+        public void setUp() {
+            response = proxy(HttpServletResponse.class, (name, args) -> {
+                if (name.equals("sendError")) {
+                    status = (Integer) args[0];
+                }
+                return null;
+            });
+            chain = (ServletRequest request, ServletResponse servletResponse) -> status = 200;
+        }
+    }
+
+    @Benchmark
+    public int doFilter(Exchange exchange) throws Exception {
+        filter.doFilter(requests[exchange.index++ & (REQUESTS - 1)], exchange.response, exchange.chain);
+        return exchange.status;
+    }
+
+    private interface Handler {
+        Object invoke(String name, Object[] args);
+    }
+
+    /**
+     * Just enough of the servlet API for the filter. The methods not handled return null, or false and 0 for the
+     * primitives.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object value = handler.invoke(method.getName(), args);
+            if (value == null && method.getReturnType() == boolean.class) {
+                return false;
+            }
+            if (value == null && method.getReturnType() == int.class) {
+                return 0;
+            }
+            return value;
+        });
+    }
+}
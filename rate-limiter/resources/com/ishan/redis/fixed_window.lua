@@ -0,0 +1,20 @@
+-- Checks all the counters of a request against their limits and increments them only if none would be broken.
+-- KEYS: the counter keys of the request
+-- ARGV: the limit, the ttl in milliseconds and the increment of every key, in the order of KEYS
+-- Returns 0 if the request is allowed, else the (1 based) index of the first key whose limit would be broken.
+for i = 1, #KEYS do
+    local base = (i - 1) * 3
+    local current = tonumber(redis.call('GET', KEYS[i]) or '0')
+    if current + tonumber(ARGV[base + 3]) > tonumber(ARGV[base + 1]) then
+        return i
+    end
+end
+for i = 1, #KEYS do
+    local base = (i - 1) * 3
+    local increment = tonumber(ARGV[base + 3])
+    -- The key has just been created, it is the only time the expiry needs to be set
+    if redis.call('INCRBY', KEYS[i], increment) == increment then
+        redis.call('PEXPIRE', KEYS[i], ARGV[base + 2])
+    end
+end
+return 0
@@ -0,0 +1,28 @@
+-- Checks all the limits of a request with the generic cell rate algorithm and records the request only if none would
+-- be broken. Each key holds the theoretical arrival time (tat) of its limit in microseconds. A request of cost n moves
+-- the tat by n emission intervals (period / limit), and is allowed while the tat stays within one period of now, so a
+-- burst of up to the limit is let through.
+-- KEYS: the key of every limit
+-- ARGV: the limit, the length of the period in milliseconds, the increment and the current time in milliseconds,
+--       for every limit
+-- Returns 0 if the request is allowed, else the (1 based) index of the first limit which would be broken.
+local tats = {}
+for i = 1, #KEYS do
+    local base = (i - 1) * 4
+    local limit = tonumber(ARGV[base + 1])
+    local period = tonumber(ARGV[base + 2]) * 1000
+    local now = tonumber(ARGV[base + 4]) * 1000
+    local tat = math.max(tonumber(redis.call('GET', KEYS[i]) or '0'), now)
+    -- Rounded to the microsecond as by GcraStrategy, so that n permits at once cost the same as n requests of one
+    local newTat = tat + math.floor(tonumber(ARGV[base + 3]) * period / limit + 0.5)
+    if newTat - period > now then
+        return i
+    end
+    tats[i] = newTat
+end
+for i = 1, #KEYS do
+    local now = tonumber(ARGV[(i - 1) * 4 + 4]) * 1000
+    local ttl = math.max(1, math.ceil((tats[i] - now) / 1000))
+    redis.call('SET', KEYS[i], string.format('%.0f', tats[i]), 'PX', ttl)
+end
+return 0
@@ -0,0 +1,27 @@
+-- Checks all the limits of a request with sliding window counters and increments the current counters only if none
+-- would be broken. A limit is broken if the count of the previous slot, weighted by the part of it still within one
+-- period, plus the count of the current slot would go above the limit.
+-- KEYS: the current and the previous counter key of every limit
+-- ARGV: the limit, the ttl of the current counter in milliseconds, the increment, the millis elapsed in the current
+--       slot and the length of the previous slot, for every limit
+-- Returns 0 if the request is allowed, else the (1 based) index of the first limit which would be broken.
+local count = #KEYS / 2
+for i = 1, count do
+    local base = (i - 1) * 5
+    local current = tonumber(redis.call('GET', KEYS[2 * i - 1]) or '0')
+    local previous = tonumber(redis.call('GET', KEYS[2 * i]) or '0')
+    local length = tonumber(ARGV[base + 5])
+    local elapsed = math.min(tonumber(ARGV[base + 4]), length)
+    local estimate = previous * (length - elapsed) / length + current
+    if estimate + tonumber(ARGV[base + 3]) > tonumber(ARGV[base + 1]) then
+        return i
+    end
+end
+for i = 1, count do
+    local base = (i - 1) * 5
+    local increment = tonumber(ARGV[base + 3])
+    if redis.call('INCRBY', KEYS[2 * i - 1], increment) == increment then
+        redis.call('PEXPIRE', KEYS[2 * i - 1], ARGV[base + 2])
+    end
+end
+return 0
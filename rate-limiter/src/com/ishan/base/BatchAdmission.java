@@ -0,0 +1,20 @@
+package com.ishan.base;
+
+/**
+ * How the requests of a batch are admitted by {@link RateLimitValidator#validateRateLimited(java.util.List,
+ * BatchAdmission)}
+ *
+ * @since 18/10/26
+ */
+public enum BatchAdmission {
+    /**
+     * Every request is admitted or none is. The permits taken for a batch which is then rejected are given back. This
+     * is only atomic within the requests of a client in the same slot, the permits taken for the other clients count
+     * until they are given back.
+     */
+    ALL_OR_NOTHING,
+    /**
+     * Each request is admitted if it is within its limits, counting the permits of the ones admitted before it
+     */
+    BEST_EFFORT
+}
@@ -1,5 +1,7 @@
 package com.ishan.base;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.Map;
 
 /**
@@ -30,6 +32,39 @@ public class ClientConfig {
      */
     private Map<String, RateLimits> endpointVsLimits;
 
+    /**
+     * The permits a request on the endpoint costs, for the endpoints which cost more or less than 1. It is taken
+     * from every limit of the request, so the limits are in the units of the cost rather than in requests.
+     */
+    private Map<String, Integer> endpointVsCost;
+
+    /**
+     * The permits a request of the method costs, for the requests whose endpoint has no cost of its own
+     */
+    private Map<HttpMethod, Integer> methodVsCost;
+
+    /**
+     * The algorithm the limits are enforced with, {@link RateLimitAlgorithm#FIXED_WINDOW} if not set
+     */
+    private RateLimitAlgorithm algorithm;
+
+    /**
+     * Percentage of each period limit a node may lease locally and admit in-process before going back to the store.
+     * Null or zero keeps every request going to the store. Leases are only used with the fixed window algorithm.
+     */
+    private Integer leasePercent;
+
+    /**
+     * What is done with the requests while redis is unavailable, ratelimit.degradedMode if not set
+     */
+    private DegradedModePolicy degradedMode;
+
+    /**
+     * The limits compiled for validation, see {@link ClientLimitPlan}
+     */
+    @JsonIgnore
+    private volatile ClientLimitPlan limitPlan;
+
     public String getClientId() {
         return clientId;
     }
@@ -62,6 +97,61 @@ public class ClientConfig {
         this.endpointVsLimits = endpointVsLimits;
     }
 
+    public Map<String, Integer> getEndpointVsCost() {
+        return endpointVsCost;
+    }
+
+    public void setEndpointVsCost(Map<String, Integer> endpointVsCost) {
+        this.endpointVsCost = endpointVsCost;
+    }
+
+    public Map<HttpMethod, Integer> getMethodVsCost() {
+        return methodVsCost;
+    }
+
+    public void setMethodVsCost(Map<HttpMethod, Integer> methodVsCost) {
+        this.methodVsCost = methodVsCost;
+    }
+
+    public RateLimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(RateLimitAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public Integer getLeasePercent() {
+        return leasePercent;
+    }
+
+    public void setLeasePercent(Integer leasePercent) {
+        this.leasePercent = leasePercent;
+    }
+
+    public DegradedModePolicy getDegradedMode() {
+        return degradedMode;
+    }
+
+    public void setDegradedMode(DegradedModePolicy degradedMode) {
+        this.degradedMode = degradedMode;
+    }
+
+    /**
+     * The config is not changed once loaded, so the plan is compiled only once, by {@link ClientConfigProvider} when
+     * it loads the config or here for configs built elsewhere. Racing threads compile the same plan, so it does not
+     * matter which one wins.
+     */
+    @JsonIgnore
+    public ClientLimitPlan getLimitPlan() {
+        ClientLimitPlan plan = limitPlan;
+        if (plan == null) {
+            plan = ClientLimitPlan.compile(this);
+            limitPlan = plan;
+        }
+        return plan;
+    }
+
     /**
      * This holds the number of requests a client can make within certain time frames.
      * <b>Note</b> that the parameters are optional. So there might not exist a monthly limit.
@@ -86,6 +176,11 @@ public class ClientConfig {
         sb.append(", rateLimits=").append(rateLimits);
         sb.append(", methodVsLimits=").append(methodVsLimits);
         sb.append(", endpointVsLimits=").append(endpointVsLimits);
+        sb.append(", endpointVsCost=").append(endpointVsCost);
+        sb.append(", methodVsCost=").append(methodVsCost);
+        sb.append(", algorithm=").append(algorithm);
+        sb.append(", leasePercent=").append(leasePercent);
+        sb.append(", degradedMode=").append(degradedMode);
         sb.append('}');
         return sb.toString();
     }
@@ -2,59 +2,295 @@ package com.ishan.base;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.util.concurrent.Striped;
-import com.ishan.redis.RedisService;
+import com.ishan.bus.MessageBus;
+import com.ishan.bus.MessageBuses;
+import com.ishan.metrics.RateLimiterMetrics;
+import com.ishan.store.ConfigStore;
+import com.ishan.store.ConfigStores;
+import org.apache.commons.lang3.StringUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 
 /**
- * Provides the config for a client
+ * Provides the config for a client.
+ * <p>
+ * The configs are cached, up to config.cache.maxSize clients, the least recently used being evicted first. A config
+ * older than config.cache.refreshSeconds is reloaded in the background on its next lookup, while the old one is
+ * served until the new one is loaded, or for as long as redis cannot be reached. A client which has no config is
+ * cached in a smaller cache of its own, up to config.cache.negative.maxSize clients for
+ * config.cache.negative.ttlSeconds, so that junk client ids neither go to redis on every request nor evict the
+ * configs of the real clients.
+ * <p>
+ * Loads are single flight: there is at most one load of a client at a time, in a {@link CompletableFuture} which
+ * every lookup of that client shares until it completes. The loads run on loader threads, so no lock is held and a
+ * lookup of one client never waits for the load of another. A change to the config of a client while it is being
+ * loaded marks the load stale, and the load reads the config again before it completes, since it may have read the
+ * old one. The configs can also be loaded in bulk at startup, see
+ * {@link #warmUpAsync()}.
+ * <p>
+ * The config of a client is kept in the {@link ConfigStore} of the node, in the key named after the client id with
+ * the config.keyPrefix before it, see {@link #getConfigKey(String)}. Until the configs are moved there, a client
+ * which has none in that key is also looked up in the key named after its id alone, unless
+ * config.legacyKeys.enabled is off. A change to a config is pushed to every node
+ * over the {@link MessageBus} with {@link #publishConfigChange(String)}, upon which the nodes which have the client
+ * cached reload it right away.
  *
  * @author ishanjain
  * @since 21/03/18
  */
 public class ClientConfigProvider {
 
-    private static final Striped<Lock> striped = Striped.lock(50);
-    private static final Cache<String, ClientConfig> clientIdVsClientConfig = CacheBuilder.newBuilder().build();
+    private static final byte[] CHANNEL = "ratelimit:config".getBytes(StandardCharsets.UTF_8);
+    private static final int LOADER_THREADS = 4;
+    private static final int WARM_UP_BATCH_SIZE = 500;
 
+    private static final String KEY_PREFIX = RateLimiterProperties.getString("config.keyPrefix",
+            "ratelimit:config:");
     /**
-     * This might be an overkill method, it depends on how costly the loading of client config from the store is.
-     * It takes a lock on the client id and uses striped lock so that other client request can proceed.
-     * The thread which successfully took the lock, puts it in the map, so that the threads which were waiting do not
-     * need to load from database. This is a common pattern and should be abstracted out.
+     * Whether a client whose key with the prefix has no config is also looked up in the key named after its id alone,
+     * where the configs were kept before config.keyPrefix
+     */
+    private static final boolean LEGACY_KEYS = !KEY_PREFIX.isEmpty()
+            && RateLimiterProperties.getBoolean("config.legacyKeys.enabled", true);
+
+    private static final long MAX_SIZE = RateLimiterProperties.getLong("config.cache.maxSize", 10000);
+    private static final long REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(
+            RateLimiterProperties.getLong("config.cache.refreshSeconds", 60));
+    private static final long NEGATIVE_MAX_SIZE = RateLimiterProperties.getLong("config.cache.negative.maxSize", 1000);
+    private static final long NEGATIVE_TTL_SECONDS = RateLimiterProperties.getLong("config.cache.negative.ttlSeconds",
+            10);
+
+    /**
+     * Virtual threads where the JVM has them, see {@link VirtualThreads}
+     */
+    private static final ExecutorService LOADER_EXECUTOR = VirtualThreads.newExecutor("config-loader-",
+            LOADER_THREADS);
+
+    private static final ConfigStore CONFIG_STORE = ConfigStores.getDefault();
+    private static final MessageBus MESSAGE_BUS = MessageBuses.getDefault();
+
+    private static final Cache<String, CachedConfig> clientIdVsClientConfig = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    /**
+     * The clients which have no config
+     */
+    private static final Cache<String, Boolean> clientIdsWithoutConfig = CacheBuilder.newBuilder()
+            .maximumSize(NEGATIVE_MAX_SIZE)
+            .expireAfterWrite(NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * The loads in flight, removed once they complete
+     */
+    private static final ConcurrentMap<String, Load> clientIdVsLoad = new ConcurrentHashMap<>();
+
+    static {
+        if (RateLimiterProperties.getBoolean("config.cache.invalidation.enabled", true)) {
+            MESSAGE_BUS.subscribe(CHANNEL, ClientConfigProvider::onConfigChange);
+        }
+    }
+
+    /**
+     * Only the first lookup of a client, or one after it was evicted, waits for redis, and then only for the single
+     * load of that client.
      *
      * @param clientId The client id for which the config is needed.
-     * @return The {@link ClientConfig} config of client
+     * @return The {@link ClientConfig} config of client, null if the client has none
      */
     public static ClientConfig getClientConfig(String clientId) {
-        ClientConfig clientConfig = clientIdVsClientConfig.getIfPresent(clientId);
-        if (clientConfig == null) {
-            Lock lock = striped.get(clientId);
-            boolean acquired = tryLockNoException(lock);
-            try {
-                //Checking if the thread that got the lock released it and put it in the cache
-                clientConfig = clientIdVsClientConfig.getIfPresent(clientId);
-                if (clientConfig == null) {
-                    clientConfig = RedisService.get(clientId, ClientConfig.class);
-                    clientIdVsClientConfig.put(clientId, clientConfig);
-                    return clientConfig;
-                }
-            } finally {
-                if (acquired) {
-                    lock.unlock();
-                }
+        try {
+            return getClientConfigAsync(clientId).join();
+        } catch (CompletionException e) {
+            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e.getCause());
+        }
+    }
+
+    /**
+     * The non blocking version of {@link #getClientConfig(String)}. The returned future is already complete unless
+     * the client has to be loaded.
+     *
+     * @param clientId The client id for which the config is needed.
+     * @return The future of the {@link ClientConfig} config of client, which completes with null if it has none
+     */
+    public static CompletableFuture<ClientConfig> getClientConfigAsync(String clientId) {
+        RateLimiterMetrics.recordConfigLookup();
+        CachedConfig cached = clientIdVsClientConfig.getIfPresent(clientId);
+        if (cached != null) {
+            if (System.currentTimeMillis() - cached.loadedAt >= REFRESH_MILLIS) {
+                load(clientId);
             }
+            return CompletableFuture.completedFuture(cached.clientConfig);
         }
-        return clientConfig;
+        if (clientIdsWithoutConfig.getIfPresent(clientId) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        RateLimiterMetrics.recordConfigCacheMiss();
+        return load(clientId).thenApply(clientConfig -> clientConfig.orElse(null));
+    }
+
+    /**
+     * Loads the configs of all the clients, as many as the cache holds, by scanning the keys matching
+     * config.warmup.match, all the keys with config.keyPrefix if it is empty. The configs still in the keys named
+     * after the client ids alone are not scanned, they are loaded on their first lookup. The lookups made meanwhile
+     * load their clients as usual.
+     *
+     * @return The future which completes with the number of configs loaded
+     */
+    public static CompletableFuture<Integer> warmUpAsync() {
+        String match = StringUtils.defaultIfEmpty(RateLimiterProperties.getString("config.warmup.match", ""),
+                KEY_PREFIX + "*");
+        return CompletableFuture.supplyAsync(() -> CONFIG_STORE.scan(match, WARM_UP_BATCH_SIZE,
+                (int) Math.min(MAX_SIZE, Integer.MAX_VALUE), (key, clientConfig) -> {
+                    if (!key.startsWith(KEY_PREFIX)) {
+                        return;
+                    }
+                    clientConfig.getLimitPlan();
+                    clientIdVsClientConfig.asMap().putIfAbsent(key.substring(KEY_PREFIX.length()),
+                            new CachedConfig(clientConfig));
+                }), LOADER_EXECUTOR);
+    }
+
+    /**
+     * @return The key in which the config of the client is stored
+     */
+    public static String getConfigKey(String clientId) {
+        return KEY_PREFIX + clientId;
+    }
+
+    /**
+     * Tells every node that the config of the client has changed in the store
+     *
+     * @param clientId The client whose config has changed
+     */
+    public static void publishConfigChange(String clientId) {
+        MESSAGE_BUS.publishAsync(CHANNEL, clientId.getBytes(StandardCharsets.UTF_8));
     }
 
-    private static boolean tryLockNoException(Lock lock) {
+    /**
+     * Starts a load of the client, unless one is in flight already.
+     *
+     * @return The load in flight
+     */
+    private static CompletableFuture<Optional<ClientConfig>> load(String clientId) {
+        return load(clientId, false);
+    }
+
+    /**
+     * Starts a load of the client, unless one is in flight already, which is marked stale instead if the config
+     * has changed
+     *
+     * @param changed Whether the config has changed since the load in flight started
+     * @return The load in flight
+     */
+    private static CompletableFuture<Optional<ClientConfig>> load(String clientId, boolean changed) {
+        Load[] started = new Load[1];
+        Load load = clientIdVsLoad.compute(clientId, (id, inFlight) -> {
+            if (inFlight != null) {
+                inFlight.stale |= changed;
+                return inFlight;
+            }
+            started[0] = new Load();
+            return started[0];
+        });
+        if (started[0] != null) {
+            LOADER_EXECUTOR.execute(() -> read(clientId, load));
+        }
+        return load.future;
+    }
+
+    /**
+     * Reads the config of the client for the load, again if the load was marked stale meanwhile. The cache is updated
+     * before the load is removed from the loads in flight, so a lookup always finds one or the other. A failed load
+     * leaves the cache as it was.
+     */
+    private static void read(String clientId, Load load) {
+        final ClientConfig clientConfig;
         try {
-            return lock.tryLock(60, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            return false;
+            clientConfig = readConfig(clientId);
+        } catch (RuntimeException e) {
+            clientIdVsLoad.remove(clientId, load);
+            load.future.completeExceptionally(e);
+            return;
+        }
+        boolean[] stale = new boolean[1];
+        clientIdVsLoad.computeIfPresent(clientId, (id, inFlight) -> {
+            if (inFlight.stale) {
+                inFlight.stale = false;
+                stale[0] = true;
+                return inFlight;
+            }
+            if (clientConfig != null) {
+                clientIdVsClientConfig.put(clientId, new CachedConfig(clientConfig));
+                clientIdsWithoutConfig.invalidate(clientId);
+            } else {
+                clientIdVsClientConfig.invalidate(clientId);
+                clientIdsWithoutConfig.put(clientId, Boolean.TRUE);
+            }
+            return null;
+        });
+        if (stale[0]) {
+            LOADER_EXECUTOR.execute(() -> read(clientId, load));
+        } else {
+            load.future.complete(Optional.ofNullable(clientConfig));
+        }
+    }
+
+    /**
+     * @return The config of the client in the store, with its limit plan built, null if it has none
+     */
+    private static ClientConfig readConfig(String clientId) {
+        ClientConfig clientConfig = CONFIG_STORE.get(getConfigKey(clientId));
+        if (clientConfig == null && LEGACY_KEYS) {
+            clientConfig = CONFIG_STORE.get(clientId);
+        }
+        if (clientConfig != null) {
+            clientConfig.getLimitPlan();
+        }
+        return clientConfig;
+    }
+
+    /**
+     * Only the clients cached or being loaded on this node are reloaded, the others are loaded when they are first
+     * seen. A client cached without a config is dropped, to be loaded on its next lookup.
+     */
+    private static void onConfigChange(byte[] message) {
+        String clientId = new String(message, StandardCharsets.UTF_8);
+        clientIdsWithoutConfig.invalidate(clientId);
+        if (clientIdVsClientConfig.getIfPresent(clientId) != null || clientIdVsLoad.containsKey(clientId)) {
+            load(clientId, true);
+        }
+    }
+
+    /**
+     * A load in flight. Whether it is stale is only read and written within the compute of its client id in
+     * {@link #clientIdVsLoad}.
+     */
+    private static class Load {
+
+        private final CompletableFuture<Optional<ClientConfig>> future = new CompletableFuture<>();
+        private boolean stale;
+    }
+
+    /**
+     * The config of a client and when it was loaded
+     */
+    private static class CachedConfig {
+
+        private final ClientConfig clientConfig;
+        private final long loadedAt;
+
+        private CachedConfig(ClientConfig clientConfig) {
+            this.clientConfig = clientConfig;
+            this.loadedAt = System.currentTimeMillis();
         }
     }
-}
\ No newline at end of file
+}
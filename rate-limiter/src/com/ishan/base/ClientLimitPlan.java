@@ -0,0 +1,502 @@
+package com.ishan.base;
+
+import com.ishan.strategy.RateLimitStrategy;
+import org.apache.commons.collections4.MapUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The limits of a {@link ClientConfig} compiled into arrays, so that finding the limits of a request is an array
+ * index for the method, a perfect hash lookup for the endpoint and a loop over primitive arrays for the periods.
+ * The costs of the requests, see {@link #getCost(String, HttpMethod)}, are compiled along with them.
+ * <p>
+ * An endpoint of the config may also be a template, as /price/{id} or /catalog/**, see {@link RouteTrie}. A path
+ * which is not an endpoint of its own is matched against the templates, and takes the limits and the cost of the
+ * template it matches, whose keys are named after the template, so all its paths share one set of counters.
+ * It is immutable and built once when the config is loaded, see {@link ClientConfigProvider}.
+ *
+ * @since 18/10/26
+ */
+public class ClientLimitPlan {
+
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+
+    private final RateLimitStrategy strategy;
+
+    private final Limits clientLimits;
+
+    /**
+     * Indexed by {@link HttpMethod#ordinal()}, null for the methods without limits
+     */
+    private final Limits[] methodLimits;
+
+    /**
+     * The endpoints which are not templates
+     */
+    private final EndpointTable endpoints;
+
+    /**
+     * The endpoints which are templates, null if there are none
+     */
+    private final RouteTrie<Route> templates;
+
+    /**
+     * Indexed by {@link HttpMethod#ordinal()}, 0 for the methods without a cost
+     */
+    private final long[] methodCosts;
+
+    private ClientLimitPlan(RateLimitStrategy strategy, Limits clientLimits, Limits[] methodLimits,
+                            EndpointTable endpoints, RouteTrie<Route> templates, long[] methodCosts) {
+        this.strategy = strategy;
+        this.clientLimits = clientLimits;
+        this.methodLimits = methodLimits;
+        this.endpoints = endpoints;
+        this.templates = templates;
+        this.methodCosts = methodCosts;
+    }
+
+    public static ClientLimitPlan compile(ClientConfig clientConfig) {
+        String clientId = clientConfig.getClientId();
+        Limits clientLimits = Limits.of(clientId, null, null, clientConfig.getRateLimits());
+
+        Limits[] methodLimits = new Limits[METHODS.length];
+        if (MapUtils.isNotEmpty(clientConfig.getMethodVsLimits())) {
+            for (Map.Entry<HttpMethod, ClientConfig.RateLimits> entry : clientConfig.getMethodVsLimits().entrySet()) {
+                methodLimits[entry.getKey().ordinal()] = Limits.of(clientId, null, entry.getKey(), entry.getValue());
+            }
+        }
+
+        long[] methodCosts = new long[METHODS.length];
+        if (MapUtils.isNotEmpty(clientConfig.getMethodVsCost())) {
+            for (Map.Entry<HttpMethod, Integer> entry : clientConfig.getMethodVsCost().entrySet()) {
+                if (entry.getValue() != null && entry.getValue() > 0) {
+                    methodCosts[entry.getKey().ordinal()] = entry.getValue();
+                }
+            }
+        }
+
+        Map<String, Route> routes = new LinkedHashMap<>();
+        if (MapUtils.isNotEmpty(clientConfig.getEndpointVsLimits())) {
+            for (Map.Entry<String, ClientConfig.RateLimits> entry : clientConfig.getEndpointVsLimits().entrySet()) {
+                Limits limits = Limits.of(clientId, entry.getKey(), null, entry.getValue());
+                if (limits != null) {
+                    routes.computeIfAbsent(entry.getKey(), Route::new).limits = limits;
+                }
+            }
+        }
+        if (MapUtils.isNotEmpty(clientConfig.getEndpointVsCost())) {
+            for (Map.Entry<String, Integer> entry : clientConfig.getEndpointVsCost().entrySet()) {
+                if (entry.getValue() != null && entry.getValue() > 0) {
+                    routes.computeIfAbsent(entry.getKey(), Route::new).cost = entry.getValue();
+                }
+            }
+        }
+
+        List<String> endpoints = new ArrayList<>();
+        List<Route> endpointRoutes = new ArrayList<>();
+        Map<String, Route> templates = new LinkedHashMap<>();
+        for (Map.Entry<String, Route> entry : routes.entrySet()) {
+            if (RouteTrie.isTemplate(entry.getKey())) {
+                templates.put(entry.getKey(), entry.getValue());
+            } else {
+                endpoints.add(entry.getKey());
+                endpointRoutes.add(entry.getValue());
+            }
+        }
+        RateLimitAlgorithm algorithm = clientConfig.getAlgorithm() == null ? RateLimitAlgorithm.FIXED_WINDOW
+                : clientConfig.getAlgorithm();
+        return new ClientLimitPlan(algorithm.getStrategy(), clientLimits, methodLimits,
+                EndpointTable.compile(endpoints, endpointRoutes),
+                templates.isEmpty() ? null : RouteTrie.compile(templates), methodCosts);
+    }
+
+    /**
+     * @return The {@link RateLimitStrategy} of the client's {@link RateLimitAlgorithm}
+     */
+    public RateLimitStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return The client's own limits, null if it has none
+     */
+    public Limits getClientLimits() {
+        return clientLimits;
+    }
+
+    /**
+     * @return The limits of the method, null if it has none
+     */
+    public Limits getMethodLimits(HttpMethod method) {
+        return method == null ? null : methodLimits[method.ordinal()];
+    }
+
+    /**
+     * @param endpoint The path of the request
+     * @return The limits of the endpoint, or of the template it matches, null if it has none
+     */
+    public Limits getEndpointLimits(String endpoint) {
+        Route route = findRoute(endpoint);
+        return route == null ? null : route.limits;
+    }
+
+    /**
+     * @param endpoint The path of the request
+     * @return The endpoint, or the template it matches, as written in the config, null if it is neither
+     */
+    public String getRoute(String endpoint) {
+        Route route = findRoute(endpoint);
+        return route == null ? null : route.path;
+    }
+
+    /**
+     * @return The permits a request costs: the cost of its endpoint, or of the template it matches, else of its
+     * method, else 1
+     */
+    public long getCost(String endpoint, HttpMethod method) {
+        Route route = findRoute(endpoint);
+        if (route != null && route.cost > 0) {
+            return route.cost;
+        }
+        if (method != null && methodCosts[method.ordinal()] > 0) {
+            return methodCosts[method.ordinal()];
+        }
+        return 1;
+    }
+
+    /**
+     * The endpoint itself first, then the templates
+     */
+    private Route findRoute(String endpoint) {
+        if (endpoint == null) {
+            return null;
+        }
+        Route route = endpoints.get(endpoint);
+        if (route != null) {
+            return route;
+        }
+        return templates == null ? null : templates.match(endpoint);
+    }
+
+    /**
+     * The limits and the cost of an endpoint or a template, either may be missing
+     */
+    private static class Route {
+
+        private final String path;
+
+        private Limits limits;
+
+        /**
+         * 0 if it has no cost of its own
+         */
+        private long cost;
+
+        private Route(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * The endpoints in a perfect hash table, built by compress, hash and displace (CHD). The endpoints are split into
+     * buckets by their hash, and the buckets, largest first, are each given the first displacement which puts all of
+     * their endpoints in free slots. A lookup is then one hash of the endpoint, one read of the displacement of its
+     * bucket and one comparison.
+     * <p>
+     * The hash is a 64 bit FNV-1a of the chars, and not {@link String#hashCode()}, on which endpoints as Aa and BB
+     * collide whatever they are mixed with. The table is at most {@link #MAX_SIZE} slots. Endpoints which do not fit
+     * in it, or whose hashes collide, are kept in a {@link HashMap} instead.
+     */
+    private static class EndpointTable {
+
+        private static final int MAX_SIZE = 1 << 16;
+
+        /**
+         * The most displacements tried for a bucket before the table is doubled
+         */
+        private static final int MAX_DISPLACEMENTS = 1 << 12;
+
+        private final String[] keys;
+        private final Route[] routes;
+        private final int[] displacements;
+        private final int mask;
+
+        /**
+         * Set in place of the table when the endpoints could not be placed in it
+         */
+        private final Map<String, Route> fallback;
+
+        private EndpointTable(String[] keys, Route[] routes, int[] displacements, Map<String, Route> fallback) {
+            this.keys = keys;
+            this.routes = routes;
+            this.displacements = displacements;
+            this.mask = keys.length - 1;
+            this.fallback = fallback;
+        }
+
+        private static EndpointTable compile(List<String> endpoints, List<Route> endpointRoutes) {
+            int count = endpoints.size();
+            long[] hashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = hash(endpoints.get(i));
+            }
+            long[] sorted = hashes.clone();
+            Arrays.sort(sorted);
+            boolean collided = false;
+            for (int i = 1; i < count && !collided; i++) {
+                collided = sorted[i] == sorted[i - 1];
+            }
+            int size = Integer.highestOneBit(Math.max(1, count * 2 - 1)) << 1;
+            for (; !collided && size <= MAX_SIZE; size <<= 1) {
+                EndpointTable table = place(endpoints, endpointRoutes, hashes, size);
+                if (table != null) {
+                    return table;
+                }
+            }
+            Map<String, Route> fallback = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                fallback.put(endpoints.get(i), endpointRoutes.get(i));
+            }
+            return new EndpointTable(new String[1], new Route[1], new int[1], fallback);
+        }
+
+        /**
+         * @return The table of the size, null if a bucket found no displacement
+         */
+        private static EndpointTable place(List<String> endpoints, List<Route> endpointRoutes, long[] hashes,
+                                           int size) {
+            int bucketCount = Integer.highestOneBit(Math.max(1, hashes.length / 2));
+            List<List<Integer>> buckets = new ArrayList<>(bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                buckets.add(new ArrayList<>());
+            }
+            for (int i = 0; i < hashes.length; i++) {
+                buckets.get(bucket(hashes[i], bucketCount - 1)).add(i);
+            }
+            List<Integer> order = new ArrayList<>(bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                order.add(i);
+            }
+            order.sort((a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+            String[] keys = new String[size];
+            Route[] routes = new Route[size];
+            int[] displacements = new int[bucketCount];
+            int[] slots = new int[hashes.length];
+            for (int bucket : order) {
+                List<Integer> members = buckets.get(bucket);
+                int displacement = 0;
+                while (!fits(members, hashes, displacement, keys, slots)) {
+                    if (++displacement == MAX_DISPLACEMENTS) {
+                        return null;
+                    }
+                }
+                displacements[bucket] = displacement;
+                for (int i = 0; i < members.size(); i++) {
+                    int member = members.get(i);
+                    keys[slots[i]] = endpoints.get(member);
+                    routes[slots[i]] = endpointRoutes.get(member);
+                }
+            }
+            return new EndpointTable(keys, routes, displacements, null);
+        }
+
+        /**
+         * @param slots Filled with the slots of the members, in their order
+         * @return Whether the members fall in distinct free slots with the displacement
+         */
+        private static boolean fits(List<Integer> members, long[] hashes, int displacement, String[] keys,
+                                    int[] slots) {
+            for (int i = 0; i < members.size(); i++) {
+                int slot = slot(hashes[members.get(i)], displacement, keys.length - 1);
+                if (keys[slot] != null) {
+                    return false;
+                }
+                for (int j = 0; j < i; j++) {
+                    if (slots[j] == slot) {
+                        return false;
+                    }
+                }
+                slots[i] = slot;
+            }
+            return true;
+        }
+
+        private Route get(String endpoint) {
+            if (fallback != null) {
+                return fallback.get(endpoint);
+            }
+            long hash = hash(endpoint);
+            int index = slot(hash, displacements[bucket(hash, displacements.length - 1)], mask);
+            String candidate = keys[index];
+            return candidate != null && candidate.equals(endpoint) ? routes[index] : null;
+        }
+
+        private static int bucket(long hash, int bucketMask) {
+            return (int) (hash >>> 32) & bucketMask;
+        }
+
+        private static int slot(long hash, int displacement, int mask) {
+            return (int) mix(hash + displacement * 0x9E3779B97F4A7C15L) & mask;
+        }
+
+        private static long hash(String endpoint) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < endpoint.length(); i++) {
+                hash = (hash ^ endpoint.charAt(i)) * 0x100000001B3L;
+            }
+            return mix(hash);
+        }
+
+        /**
+         * The finalizer of murmur3, so that every bit of the hash depends on every bit of the input
+         */
+        private static long mix(long hash) {
+            hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+            hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return hash ^ (hash >>> 33);
+        }
+    }
+
+    /**
+     * The limits of one of client, endpoint or method. The arrays are parallel and hold only the periods which have
+     * a limit, in the order of {@link RateLimitPeriod}.
+     */
+    public static class Limits {
+
+        private final String endpoint;
+        private final HttpMethod method;
+        private final RateLimitViolationCause cause;
+        private final RateLimitPeriod[] periods;
+        private final long[] limits;
+
+        /**
+         * The redis key prefix of each period, see {@link RedisKeyCodec}
+         */
+        private final byte[][] keyPrefixes;
+
+        /**
+         * The key of each period for the slot it was last asked for. The elements are written without a lock, a
+         * request which misses the key another has just made only makes one of its own.
+         */
+        private final SlotKey[] slotKeys;
+
+        private Limits(String endpoint, HttpMethod method, RateLimitViolationCause cause, RateLimitPeriod[] periods,
+                       long[] limits, byte[][] keyPrefixes) {
+            this.endpoint = endpoint;
+            this.method = method;
+            this.cause = cause;
+            this.periods = periods;
+            this.limits = limits;
+            this.keyPrefixes = keyPrefixes;
+            this.slotKeys = new SlotKey[periods.length];
+        }
+
+        private static Limits of(String clientId, String endpoint, HttpMethod method,
+                                 ClientConfig.RateLimits rateLimits) {
+            if (rateLimits == null || MapUtils.isEmpty(rateLimits.getPeriodLimits())) {
+                return null;
+            }
+            Map<RateLimitPeriod, Integer> periodLimits = rateLimits.getPeriodLimits();
+            RateLimitPeriod[] periods = new RateLimitPeriod[periodLimits.size()];
+            long[] limits = new long[periods.length];
+            byte[][] keyPrefixes = new byte[periods.length][];
+
+            // The client id is the hash tag of the keys, so all the keys of a client are in one slot of a cluster
+            String scope = "{" + clientId + "}";
+            RateLimitViolationCause cause = RateLimitViolationCause.CLIENT;
+            if (endpoint != null) {
+                scope = scope + "_" + endpoint;
+                cause = RateLimitViolationCause.ENDPOINT;
+            } else if (method != null) {
+                scope = scope + "_" + method;
+                cause = RateLimitViolationCause.METHOD;
+            }
+            byte[] scopeBytes = (scope + "_").getBytes(StandardCharsets.UTF_8);
+
+            int index = 0;
+            for (RateLimitPeriod period : RateLimitPeriod.values()) {
+                Integer limit = periodLimits.get(period);
+                if (limit == null) {
+                    continue;
+                }
+                periods[index] = period;
+                limits[index] = limit;
+                byte[] prefix = new byte[scopeBytes.length + 1];
+                System.arraycopy(scopeBytes, 0, prefix, 0, scopeBytes.length);
+                prefix[scopeBytes.length] = (byte) period.ordinal();
+                keyPrefixes[index] = prefix;
+                index++;
+            }
+            if (index == 0) {
+                return null;
+            }
+            return new Limits(endpoint, method, cause, Arrays.copyOf(periods, index), Arrays.copyOf(limits, index),
+                    Arrays.copyOf(keyPrefixes, index));
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        public RateLimitViolationCause getCause() {
+            return cause;
+        }
+
+        public int size() {
+            return periods.length;
+        }
+
+        public RateLimitPeriod getPeriod(int index) {
+            return periods[index];
+        }
+
+        public long getLimit(int index) {
+            return limits[index];
+        }
+
+        public byte[] getKeyPrefix(int index) {
+            return keyPrefixes[index];
+        }
+
+        /**
+         * The key is encoded once per slot and then shared by all the requests of the slot, so it must not be
+         * changed.
+         *
+         * @param slotStart The start of the slot, as given by {@link RateLimitPeriod#wrap(long)}
+         * @return The redis key of the period for the slot, see {@link RedisKeyCodec#encodeKey(byte[], long)}
+         */
+        public byte[] getKey(int index, long slotStart) {
+            SlotKey slotKey = slotKeys[index];
+            if (slotKey == null || slotKey.slotStart != slotStart) {
+                slotKey = new SlotKey(slotStart, RedisKeyCodec.encodeKey(keyPrefixes[index], slotStart));
+                slotKeys[index] = slotKey;
+            }
+            return slotKey.key;
+        }
+    }
+
+    /**
+     * The key of a period for a slot. Its fields are final, so it can be shared without a lock.
+     */
+    private static class SlotKey {
+
+        private final long slotStart;
+        private final byte[] key;
+
+        private SlotKey(long slotStart, byte[] key) {
+            this.slotStart = slotStart;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.ishan.base;
+
+import com.ishan.metrics.RateLimiterMetrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the requests in flight per client and per endpoint, by limits which adapt to the latency of the requests, so
+ * that a burst within the rate limits still cannot queue more requests on a slow backend than it can serve.
+ * <p>
+ * The place of a request is taken before its rate limits are checked, so the latency of a request includes its rate
+ * check, and a request the rate limits refuse gives its place back with {@link Permit#cancel()}.
+ * <p>
+ * Each limit follows a gradient, as in TCP Vegas. The latency of every request is compared to the lowest latency seen,
+ * that of the backend when nothing is queued. While the requests are no slower than ratelimit.concurrency.tolerance
+ * times that, the gradient is 1 and the limit grows by its square root, the queue a backend is let to build. As they
+ * get slower the gradient falls, down to 1/2, and the limit shrinks with it. A request which failed, with an exception
+ * or a 5xx, counts as the slowest and its latency is not sampled. The limit only grows while at least half of it is
+ * in use, so an idle limit does not grow without bound, and it is smoothed by ratelimit.concurrency.smoothing. It
+ * stays between ratelimit.concurrency.minLimit and ratelimit.concurrency.maxLimit.
+ * <p>
+ * Every ratelimit.concurrency.probeInterval samples the lowest latency is measured again, as the backend may have
+ * become slower for good. The limit is cut to its square root for that, so that the queue drains and the latency
+ * falls back to that of the backend alone, from which the limit grows again.
+ * <p>
+ * The limit of an endpoint is that of the endpoint or template of the client's config which the path matches, see
+ * {@link ClientLimitPlan#getRoute(String)}, so all the paths of a template share one limit, and a path which is in
+ * neither has only the limit of its client. A limit with nothing in flight which was not used for
+ * ratelimit.concurrency.idleSeconds is dropped. At most ratelimit.concurrency.maxKeys clients and as many endpoints
+ * have a limit at once. The requests of the others are limited only by their rates until some limit is dropped, as
+ * sharing a limit would let one of them refuse the requests of all. A request whose limit is updated by another at
+ * the same time is not sampled, so the limits are never waited on.
+ *
+ * @since 18/10/26
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The least time between two looks for idle limits, when a limit is missing and there are maxKeys
+     */
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean perClient = RateLimiterProperties.getBoolean("ratelimit.concurrency.perClient", true);
+    private final boolean perEndpoint = RateLimiterProperties.getBoolean("ratelimit.concurrency.perEndpoint", true);
+    private final int initialLimit = RateLimiterProperties.getInt("ratelimit.concurrency.initialLimit", 20);
+    private final int minLimit = RateLimiterProperties.getInt("ratelimit.concurrency.minLimit", 2);
+    private final int maxLimit = RateLimiterProperties.getInt("ratelimit.concurrency.maxLimit", 1000);
+    private final double tolerance = Double.parseDouble(
+            RateLimiterProperties.getString("ratelimit.concurrency.tolerance", "2.0"));
+    private final double smoothing = Double.parseDouble(
+            RateLimiterProperties.getString("ratelimit.concurrency.smoothing", "0.2"));
+    private final int probeInterval = RateLimiterProperties.getInt("ratelimit.concurrency.probeInterval", 5000);
+    private final int maxKeys = RateLimiterProperties.getInt("ratelimit.concurrency.maxKeys", 1000);
+    private final long idleNanos = TimeUnit.SECONDS.toNanos(
+            RateLimiterProperties.getLong("ratelimit.concurrency.idleSeconds", 300));
+
+    private final ConcurrentMap<String, Limit> clientLimits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Limit> endpointLimits = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private volatile long nextSweepNanos = System.nanoTime();
+
+    /**
+     * Takes a place in the limits of the client and of the endpoint
+     *
+     * @param route The endpoint or template which the path of the request matches, null if it matches none
+     * @return The {@link Permit} to release once the request is done, null if either limit is reached
+     */
+    public Permit tryAcquire(String clientId, String route) {
+        long now = System.nanoTime();
+        Limit clientLimit = perClient ? getLimit(clientLimits, clientId, now) : null;
+        if (clientLimit != null && !clientLimit.tryAcquire()) {
+            RateLimiterMetrics.recordConcurrencyRejection();
+            return null;
+        }
+        Limit endpointLimit = perEndpoint ? getLimit(endpointLimits, route, now) : null;
+        if (endpointLimit != null && !endpointLimit.tryAcquire()) {
+            if (clientLimit != null) {
+                clientLimit.inFlight.decrementAndGet();
+            }
+            RateLimiterMetrics.recordConcurrencyRejection();
+            return null;
+        }
+        return new Permit(clientLimit, endpointLimit, now);
+    }
+
+    /**
+     * @return The limit of the key, null if there is no key, or no place for its limit
+     */
+    private Limit getLimit(ConcurrentMap<String, Limit> limits, String key, long now) {
+        if (key == null) {
+            return null;
+        }
+        Limit limit = limits.get(key);
+        if (limit == null) {
+            if (limits.size() >= maxKeys && !sweep(limits, now)) {
+                return null;
+            }
+            limit = limits.computeIfAbsent(key, k -> new Limit());
+        }
+        limit.lastUsedNanos = now;
+        return limit;
+    }
+
+    /**
+     * Drops the idle limits, at most once every {@link #SWEEP_INTERVAL_NANOS}. A request which got a limit just
+     * before it is dropped still releases its place in it, it is only not counted against the next limit of its key.
+     *
+     * @return Whether there is a place for another limit of the map
+     */
+    private boolean sweep(ConcurrentMap<String, Limit> limits, long now) {
+        if (now - nextSweepNanos >= 0 && sweepLock.tryLock()) {
+            try {
+                nextSweepNanos = now + SWEEP_INTERVAL_NANOS;
+                removeIdle(clientLimits, now);
+                removeIdle(endpointLimits, now);
+            } finally {
+                sweepLock.unlock();
+            }
+        }
+        return limits.size() < maxKeys;
+    }
+
+    private void removeIdle(ConcurrentMap<String, Limit> limits, long now) {
+        for (Map.Entry<String, Limit> entry : limits.entrySet()) {
+            Limit limit = entry.getValue();
+            if (limit.inFlight.get() == 0 && now - limit.lastUsedNanos >= idleNanos) {
+                limits.remove(entry.getKey(), limit);
+            }
+        }
+    }
+
+    /**
+     * A place taken in the limits of a request, given back once with {@link #release(boolean)}, or with
+     * {@link #cancel()} if the request was not served
+     */
+    public static class Permit {
+
+        private final Limit clientLimit;
+        private final Limit endpointLimit;
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Limit clientLimit, Limit endpointLimit, long startNanos) {
+            this.clientLimit = clientLimit;
+            this.endpointLimit = endpointLimit;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Gives back the places and adapts the limits to the latency of the request. Only the first call counts.
+         *
+         * @param failed Whether the request failed, as a sign that the backend is overloaded
+         */
+        public void release(boolean failed) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            long latency = System.nanoTime() - startNanos;
+            if (clientLimit != null) {
+                clientLimit.release(latency, failed);
+            }
+            if (endpointLimit != null) {
+                endpointLimit.release(latency, failed);
+            }
+        }
+
+        /**
+         * Gives back the places of a request which was refused before it was served, e.g. by its rate limits, so the
+         * limits are not adapted. Only the first call of this or {@link #release(boolean)} counts.
+         */
+        public void cancel() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (clientLimit != null) {
+                clientLimit.inFlight.decrementAndGet();
+            }
+            if (endpointLimit != null) {
+                endpointLimit.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private class Limit {
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsedNanos;
+
+        /**
+         * Read without the lock by {@link #tryAcquire()}, written under it
+         */
+        private volatile double limit = initialLimit;
+
+        /**
+         * The lowest latency in nanos since the last probe, 0 until the first sample after it
+         */
+        private long noLoadLatency;
+        private int samplesToProbe = probeInterval;
+
+        /**
+         * Set by a probe until the requests queued before it are done, whose latencies are not sampled
+         */
+        private boolean draining;
+
+        private boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= (int) limit) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release(long latency, boolean failed) {
+            int current = inFlight.getAndDecrement();
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                double gradient;
+                if (failed) {
+                    gradient = 0.5;
+                } else {
+                    long sample = Math.max(1, latency);
+                    if (--samplesToProbe == 0) {
+                        samplesToProbe = probeInterval;
+                        noLoadLatency = 0;
+                        limit = Math.max(minLimit, Math.sqrt(limit));
+                        draining = true;
+                        return;
+                    }
+                    if (draining) {
+                        if (current > limit) {
+                            return;
+                        }
+                        draining = false;
+                    }
+                    noLoadLatency = noLoadLatency == 0 ? sample : Math.min(noLoadLatency, sample);
+                    gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadLatency / sample));
+                    if (gradient == 1.0 && current < limit / 2) {
+                        return;
+                    }
+                }
+                double newLimit = limit * gradient + Math.sqrt(limit);
+                newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+                limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ishan.base;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Estimates how often each of any number of keys was added, in a fixed amount of memory. A key adds one to a counter
+ * in each of depth rows of width counters, picked by its hash, and its count is estimated as the least of them.
+ * <p>
+ * The estimate is never below the true count. With N adds in all it is over it by at most 2N/width with a probability
+ * of at least 1 - 2^-depth, as a key other than its own falls in one of its counters with a probability of 1/width.
+ * That holds as the counter of each row is picked by a murmur3 hash of the key with a seed of its own, so the rows
+ * are independent. The counters are atomic, so an add is depth hashes and atomic increments, and takes no lock.
+ *
+ * @since 18/10/26
+ */
+class CountMinSketch {
+
+    private static final int SEED = 0x9E3779B9;
+
+    private final int depth;
+    private final int mask;
+
+    /**
+     * The hash of each row
+     */
+    private final HashFunction[] hashes;
+
+    /**
+     * The rows one after the other
+     */
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param depth The number of rows
+     * @param width The number of counters of a row, rounded up to a power of 2
+     */
+    CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        int rowSize = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+        this.mask = rowSize - 1;
+        this.counters = new AtomicIntegerArray(depth * rowSize);
+        this.hashes = new HashFunction[depth];
+        for (int row = 0; row < depth; row++) {
+            hashes[row] = Hashing.murmur3_32(SEED * (row + 1));
+        }
+    }
+
+    /**
+     * Adds the key once
+     *
+     * @return The estimated count of the key, this add included
+     */
+    int add(String key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(row, key)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @return The estimated count of the key
+     */
+    int estimate(String key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, key)));
+        }
+        return estimate;
+    }
+
+    private int index(int row, String key) {
+        return row * (mask + 1) + (hashes[row].hashUnencodedChars(key).asInt() & mask);
+    }
+}
@@ -0,0 +1,22 @@
+package com.ishan.base;
+
+/**
+ * What is done with the requests of a client while redis is unavailable, see {@link ClientConfig#getDegradedMode()}
+ *
+ * @since 18/10/26
+ */
+public enum DegradedModePolicy {
+    /**
+     * Every request is allowed
+     */
+    FAIL_OPEN,
+    /**
+     * Every request is rejected, as breaking the first of its limits
+     */
+    FAIL_CLOSED,
+    /**
+     * The requests are counted on the node against each limit divided by the number of live nodes, see
+     * {@link LocalApproximateLimiter}
+     */
+    LOCAL_APPROXIMATE
+}
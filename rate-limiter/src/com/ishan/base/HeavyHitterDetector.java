@@ -0,0 +1,309 @@
+package com.ishan.base;
+
+import com.ishan.bus.MessageBus;
+import com.ishan.bus.MessageBuses;
+import com.ishan.metrics.RateLimiterMetrics;
+import com.ishan.redis.NodeRegistry;
+import com.ishan.store.CounterStore;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds the heavy hitters among keys which have no config of their own, such as the address of the caller or its API
+ * key, and limits only those exactly, so that a source sending too many requests is caught without a counter in
+ * redis for every key ever seen.
+ * <p>
+ * Every request counts against its key in a {@link CountMinSketch} of the current window, which is
+ * ratelimit.heavyHitters.windowMillis long. The rate of a key is its count in the current window plus the share of
+ * its count in the previous window which a sliding window would still cover, as in the sliding window algorithm. The
+ * memory is that of two sketches, however many keys there are.
+ * <p>
+ * A key whose rate reaches this node's share of ratelimit.heavyHitters.escalateAt is escalated. The share is split
+ * evenly between the live nodes, as by {@link LocalApproximateLimiter}. For ratelimit.heavyHitters.escalationSeconds
+ * after it was last seen that heavy, the requests of an escalated key are validated by the {@link RateLimitValidator}
+ * against ratelimit.heavyHitters.limits. They are counted in the {@link CounterStore} as those of a client named after
+ * the key, prefixed with {@link #CLIENT_ID_PREFIX}. At most ratelimit.heavyHitters.maxKeys keys are escalated at once.
+ * As in the Space-Saving top-k, a new heavy hitter takes the place of the lightest escalated key when it is heavier.
+ * <p>
+ * The escalations are published to the other nodes over the {@link MessageBus}, so that the top-k of the nodes are
+ * merged. A key spread over the nodes is then limited on all of them as soon as one of them finds it. The message is
+ * the rate as 8 bytes followed by the key. It is turned on with ratelimit.heavyHitters.broadcast.
+ *
+ * @since 18/10/26
+ */
+public class HeavyHitterDetector {
+
+    public static final String CLIENT_ID_PREFIX = "hh:";
+
+    private static final boolean BROADCAST = RateLimiterProperties.getBoolean("ratelimit.heavyHitters.broadcast",
+            true);
+    private static final byte[] CHANNEL = "ratelimit:heavyhitters".getBytes(StandardCharsets.UTF_8);
+
+    private final RateLimitValidator rateLimitValidator;
+    private final MessageBus messageBus;
+    private final long windowMillis = RateLimiterProperties.getLong("ratelimit.heavyHitters.windowMillis", 1000);
+    private final long escalateAt = RateLimiterProperties.getLong("ratelimit.heavyHitters.escalateAt", 50);
+    private final long escalationMillis = RateLimiterProperties.getLong("ratelimit.heavyHitters.escalationSeconds",
+            60) * 1000;
+    private final int maxKeys = RateLimiterProperties.getInt("ratelimit.heavyHitters.maxKeys", 1024);
+    private final int sketchDepth = RateLimiterProperties.getInt("ratelimit.heavyHitters.sketchDepth", 4);
+    private final int sketchWidth = RateLimiterProperties.getInt("ratelimit.heavyHitters.sketchWidth", 8192);
+    private final ClientConfig.RateLimits limits = parseLimits(
+            RateLimiterProperties.getString("ratelimit.heavyHitters.limits", "SECOND=100,MINUTE=3000"));
+    private final RateLimitAlgorithm algorithm = RateLimitAlgorithm.valueOf(RateLimiterProperties.getString(
+            "ratelimit.heavyHitters.algorithm", RateLimitAlgorithm.FIXED_WINDOW.name()));
+
+    private volatile Window current;
+    private volatile Window previous;
+    private final ReentrantLock windowLock = new ReentrantLock();
+
+    /**
+     * The escalated keys, at most maxKeys of them. They are only added and removed under the escalation lock.
+     */
+    private final Map<String, Escalation> escalations = new ConcurrentHashMap<>();
+    private final ReentrantLock escalationLock = new ReentrantLock();
+
+    /**
+     * Set when the escalations are full, the rate a key needs to take the place of one of them, and the time when one
+     * of them ends and frees its place, so that the lighter keys do not scan them with every request
+     */
+    private volatile long minRateToEscalate;
+    private volatile long nextExpiry = Long.MAX_VALUE;
+
+    /**
+     * Publishing the escalations over the {@link MessageBus} configured for the node, see {@link MessageBuses}
+     */
+    public HeavyHitterDetector(RateLimitValidator rateLimitValidator) {
+        this(rateLimitValidator, MessageBuses.getDefault());
+    }
+
+    public HeavyHitterDetector(RateLimitValidator rateLimitValidator, MessageBus messageBus) {
+        this.rateLimitValidator = rateLimitValidator;
+        this.messageBus = messageBus;
+        long now = System.currentTimeMillis();
+        this.current = new Window(now - now % windowMillis, new CountMinSketch(sketchDepth, sketchWidth));
+        this.previous = new Window(current.start - windowMillis, new CountMinSketch(sketchDepth, sketchWidth));
+        if (BROADCAST) {
+            messageBus.subscribe(CHANNEL, this::onMessage);
+        }
+    }
+
+    /**
+     * Counts the request against the key, and validates it exactly if the key is escalated
+     *
+     * @param key         The key of the source of the request, as ip:10.0.0.1
+     * @param requestTime The time of the request
+     * @return The {@link RateLimitResponse} of the request, null if the key is not a heavy hitter
+     */
+    public RateLimitResponse validateRateLimited(String key, long requestTime) {
+        long rate = count(key, requestTime);
+        Escalation escalation = escalations.get(key);
+        if (rate >= getNodeThreshold()) {
+            if (escalation != null && escalation.expiresAt > requestTime) {
+                extend(escalation, rate, requestTime);
+            } else {
+                escalation = escalate(key, rate, requestTime, true);
+            }
+        } else if (escalation != null && escalation.expiresAt <= requestTime) {
+            escalation = null;
+        }
+        if (escalation == null) {
+            return null;
+        }
+        ClientConfig clientConfig = escalation.clientConfig;
+        return rateLimitValidator.validateRateLimited(clientConfig,
+                new RequestDetails(requestTime, null, null, clientConfig.getClientId()));
+    }
+
+    /**
+     * @return The estimated rate of the key over the last window, this request included
+     */
+    private long count(String key, long requestTime) {
+        Window window = current;
+        if (requestTime >= window.start + windowMillis) {
+            window = rotate(requestTime);
+        }
+        long count = window.sketch.add(key);
+        Window last = previous;
+        if (last.start + windowMillis == window.start && requestTime >= window.start) {
+            long elapsed = requestTime - window.start;
+            count += last.sketch.estimate(key) * (windowMillis - elapsed) / windowMillis;
+        }
+        return count;
+    }
+
+    private Window rotate(long requestTime) {
+        windowLock.lock();
+        try {
+            Window window = current;
+            if (requestTime >= window.start + windowMillis) {
+                long start = requestTime - requestTime % windowMillis;
+                previous = start - window.start == windowMillis ? window
+                        : new Window(start - windowMillis, new CountMinSketch(sketchDepth, sketchWidth));
+                window = new Window(start, new CountMinSketch(sketchDepth, sketchWidth));
+                current = window;
+            }
+            return window;
+        } finally {
+            windowLock.unlock();
+        }
+    }
+
+    /**
+     * The limit of the rate is split evenly between the live nodes
+     */
+    private long getNodeThreshold() {
+        return Math.max(1, escalateAt / NodeRegistry.getLiveNodes());
+    }
+
+    /**
+     * Keeps an escalated key escalated. It is published again once half its escalation has gone by since it was last,
+     * so that it stays escalated on the nodes which see too few of its requests to find it themselves.
+     */
+    private void extend(Escalation escalation, long rate, long now) {
+        escalation.rate = rate;
+        escalation.expiresAt = now + escalationMillis;
+        if (BROADCAST && now - escalation.publishedAt >= escalationMillis / 2) {
+            escalation.publishedAt = now;
+            publish(escalation.key, rate);
+        }
+    }
+
+    /**
+     * @param broadcast Whether the other nodes should escalate the key too
+     * @return The escalation of the key, null if there are maxKeys heavier ones
+     */
+    private Escalation escalate(String key, long rate, long now, boolean broadcast) {
+        if (rate <= minRateToEscalate && now < nextExpiry) {
+            return null;
+        }
+        Escalation escalation;
+        escalationLock.lock();
+        try {
+            escalation = escalations.get(key);
+            if (escalation == null) {
+                if (escalations.size() >= maxKeys && !evict(rate, now)) {
+                    return null;
+                }
+                escalation = new Escalation(key, newClientConfig(key));
+                escalations.put(key, escalation);
+                minRateToEscalate = 0;
+                nextExpiry = Long.MAX_VALUE;
+                RateLimiterMetrics.recordHeavyHitterEscalation();
+            }
+            escalation.rate = Math.max(escalation.rate, rate);
+            escalation.expiresAt = Math.max(escalation.expiresAt, now + escalationMillis);
+        } finally {
+            escalationLock.unlock();
+        }
+        if (broadcast && BROADCAST) {
+            escalation.publishedAt = now;
+            publish(key, rate);
+        }
+        return escalation;
+    }
+
+    /**
+     * Drops an escalation which has ended, else the lightest if it is lighter than the rate
+     *
+     * @return Whether a place was freed
+     */
+    private boolean evict(long rate, long now) {
+        Escalation lightest = null;
+        long nextEnd = Long.MAX_VALUE;
+        for (Escalation escalation : escalations.values()) {
+            if (escalation.expiresAt <= now) {
+                escalations.remove(escalation.key);
+                return true;
+            }
+            nextEnd = Math.min(nextEnd, escalation.expiresAt);
+            if (lightest == null || escalation.rate < lightest.rate) {
+                lightest = escalation;
+            }
+        }
+        if (lightest == null || lightest.rate >= rate) {
+            minRateToEscalate = lightest == null ? 0 : lightest.rate;
+            nextExpiry = nextEnd;
+            return false;
+        }
+        escalations.remove(lightest.key);
+        return true;
+    }
+
+    private ClientConfig newClientConfig(String key) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(CLIENT_ID_PREFIX + key);
+        clientConfig.setRateLimits(limits);
+        clientConfig.setAlgorithm(algorithm);
+        return clientConfig;
+    }
+
+    private void publish(String key, long rate) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        messageBus.publishAsync(CHANNEL, ByteBuffer.allocate(Long.BYTES + keyBytes.length).putLong(rate)
+                .put(keyBytes).array());
+    }
+
+    private void onMessage(byte[] message) {
+        if (message.length <= Long.BYTES) {
+            return;
+        }
+        long rate = ByteBuffer.wrap(message).getLong();
+        String key = new String(message, Long.BYTES, message.length - Long.BYTES, StandardCharsets.UTF_8);
+        escalate(key, rate, System.currentTimeMillis(), false);
+    }
+
+    /**
+     * @param limits The limits as SECOND=100,MINUTE=3000
+     */
+    private static ClientConfig.RateLimits parseLimits(String limits) {
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        for (String limit : limits.split(",")) {
+            String[] periodAndLimit = limit.split("=");
+            if (periodAndLimit.length == 2) {
+                periodLimits.put(RateLimitPeriod.valueOf(periodAndLimit[0].trim()),
+                        Integer.parseInt(periodAndLimit[1].trim()));
+            }
+        }
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        return rateLimits;
+    }
+
+    /**
+     * The counts of the requests started in a window
+     */
+    private static class Window {
+
+        private final long start;
+        private final CountMinSketch sketch;
+
+        private Window(long start, CountMinSketch sketch) {
+            this.start = start;
+            this.sketch = sketch;
+        }
+    }
+
+    private static class Escalation {
+
+        private final String key;
+        private final ClientConfig clientConfig;
+
+        /**
+         * The rate of the key when it was last seen over the threshold, by which the lightest is evicted
+         */
+        private volatile long rate;
+        private volatile long expiresAt;
+        private volatile long publishedAt;
+
+        private Escalation(String key, ClientConfig clientConfig) {
+            this.key = key;
+            this.clientConfig = clientConfig;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ishan.base;
+
+import com.ishan.redis.NodeRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Counts the requests on the node while redis is unavailable, for the clients with the
+ * {@link DegradedModePolicy#LOCAL_APPROXIMATE} policy. Each limit is split evenly between the live nodes, see
+ * {@link NodeRegistry}, so that together they allow about as many requests as redis would have.
+ * <p>
+ * Every key is counted as a fixed window, whatever the {@link RateLimitAlgorithm} of the client, since the keys
+ * already contain their slot. A request counts as its cost, not as the increment of its keys, which in the hybrid mode
+ * is the size of the lease. The counts are not carried over to redis once it is back. The counts of a slot are dropped
+ * together once it has ended, by a {@link SlotExpiryWheel}.
+ *
+ * @since 18/10/26
+ */
+class LocalApproximateLimiter {
+
+    private static final Function<ByteBuffer, AtomicLong> NEW_COUNTER = key -> new AtomicLong();
+
+    /**
+     * Redis key (which contains the slot) vs its count on this node, by the generation of its slot
+     */
+    private static final SlotExpiryWheel<ConcurrentMap<ByteBuffer, AtomicLong>> keyVsCounter =
+            new SlotExpiryWheel<>(ConcurrentHashMap::new);
+
+    /**
+     * Counts the request against all its keys, unless one of them is over its share of the limit, in which case
+     * none is counted.
+     *
+     * @param redisKeys   The keys of the request, at least one
+     * @param cost        The permits the request takes from each key
+     * @param requestTime The time of the request
+     * @return The {@link RateLimitResponse} response for rate limits
+     */
+    static RateLimitResponse validateRateLimited(List<RedisKeyDetails> redisKeys, long cost, long requestTime) {
+        int liveNodes = NodeRegistry.getLiveNodes();
+        AtomicLong[] counters = new AtomicLong[redisKeys.size()];
+        for (int i = 0; i < redisKeys.size(); i++) {
+            RedisKeyDetails redisKey = redisKeys.get(i);
+            counters[i] = getCounter(redisKey, requestTime);
+            long limit = Math.max(1, redisKey.getLimit() / liveNodes);
+            if (counters[i].addAndGet(cost) > limit) {
+                refund(counters, i, cost);
+                return RateLimitResponse.withRateLimitReached(redisKey.getPeriod(), redisKey.getViolationCause());
+            }
+        }
+        return RateLimitResponse.withRateLimitNotReached();
+    }
+
+    /**
+     * The count is kept until the end of the fixed window slot of the key, whatever its ttl in redis
+     */
+    private static AtomicLong getCounter(RedisKeyDetails redisKey, long requestTime) {
+        RateLimitPeriod period = redisKey.getPeriod();
+        return keyVsCounter.getGeneration(period, period.wrapNext(requestTime), requestTime)
+                .computeIfAbsent(ByteBuffer.wrap(redisKey.getKey()), NEW_COUNTER);
+    }
+
+    /**
+     * Takes back the counts up to and including the given index
+     */
+    private static void refund(AtomicLong[] counters, int lastIndex, long cost) {
+        for (int i = 0; i <= lastIndex; i++) {
+            counters[i].addAndGet(-cost);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.ishan.base;
+
+import com.ishan.bus.MessageBus;
+import com.ishan.bus.MessageBuses;
+import com.ishan.strategy.RateLimitStrategy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The keys whose limits are known to be broken until some time, so that the requests on them are rejected without
+ * asking redis. A key is the client, endpoint or method, the period and the slot (see {@link RedisKeyCodec}), and it
+ * is blocked until the time its {@link RateLimitStrategy} gives, which for the fixed window is the end of the slot,
+ * {@link RateLimitPeriod#wrapNext(long)}.
+ * <p>
+ * A node which finds a limit broken publishes the block over the {@link MessageBus}, redis pub/sub by default, so
+ * that every other node rejects the client locally too. The message is the blocked until time as 8 bytes followed by
+ * the key. Nodes whose clocks are off may block a little more or less than the slot, after which redis decides again.
+ * <p>
+ * The blocks are kept in a {@link SlotExpiryWheel} by the period of their key, so the blocks of a slot are dropped
+ * together once it has ended.
+ * <p>
+ * It is turned on with ratelimit.blocklist.enabled and the broadcast with ratelimit.blocklist.broadcast.
+ *
+ * @since 18/10/26
+ */
+class LocalBlocklist {
+
+    private static final boolean ENABLED = RateLimiterProperties.getBoolean("ratelimit.blocklist.enabled", true);
+    private static final boolean BROADCAST = ENABLED
+            && RateLimiterProperties.getBoolean("ratelimit.blocklist.broadcast", true);
+    private static final byte[] CHANNEL = "ratelimit:blocklist".getBytes(StandardCharsets.UTF_8);
+    private static final MessageBus MESSAGE_BUS = MessageBuses.getDefault();
+
+    /**
+     * Redis key (which contains the slot) vs the time until which it is blocked, by the generation it ends in
+     */
+    private static final SlotExpiryWheel<ConcurrentMap<ByteBuffer, Long>> keyVsBlockedUntil =
+            new SlotExpiryWheel<>(ConcurrentHashMap::new);
+
+    static {
+        if (BROADCAST) {
+            MESSAGE_BUS.subscribe(CHANNEL, LocalBlocklist::onMessage);
+        }
+    }
+
+    /**
+     * @param redisKeys   The keys of the request
+     * @param requestTime The time of the request
+     * @return The first key of the request which is blocked, null if none is
+     */
+    static RedisKeyDetails findBlocked(List<RedisKeyDetails> redisKeys, long requestTime) {
+        if (!ENABLED || keyVsBlockedUntil.isEmpty()) {
+            return null;
+        }
+        for (RedisKeyDetails redisKey : redisKeys) {
+            ByteBuffer key = ByteBuffer.wrap(redisKey.getKey());
+            Long blockedUntil = keyVsBlockedUntil.find(redisKey.getPeriod(), requestTime, blocks -> {
+                Long until = blocks.get(key);
+                return until != null && until > requestTime ? until : null;
+            });
+            if (blockedUntil != null) {
+                return redisKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Blocks the key whose limit the response says was broken, if the strategy can tell until when it stays broken.
+     *
+     * @param strategy    The {@link RateLimitStrategy} the request was evaluated with
+     * @param redisKeys   The keys of the request
+     * @param response    The {@link RateLimitResponse} of the request
+     * @param requestTime The time of the request
+     * @param broadcast   Whether the other nodes should block the key too
+     */
+    static void block(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, RateLimitResponse response,
+                      long requestTime, boolean broadcast) {
+        if (!ENABLED || !response.getRateLimitReached()) {
+            return;
+        }
+        for (RedisKeyDetails redisKey : redisKeys) {
+            if (redisKey.getPeriod() == response.getRateLimitPeriod()
+                    && redisKey.getViolationCause() == response.getRateLimitViolationCause()) {
+                long blockedUntil = strategy.blockedUntil(redisKey, requestTime);
+                if (blockedUntil > requestTime) {
+                    keyVsBlockedUntil.getGeneration(redisKey.getPeriod(), blockedUntil, requestTime)
+                            .put(ByteBuffer.wrap(redisKey.getKey()), blockedUntil);
+                    if (broadcast && BROADCAST) {
+                        MESSAGE_BUS.publishAsync(CHANNEL, encode(redisKey.getKey(), blockedUntil));
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private static byte[] encode(byte[] key, long blockedUntil) {
+        return ByteBuffer.allocate(Long.BYTES + key.length).putLong(blockedUntil).put(key).array();
+    }
+
+    private static void onMessage(byte[] message) {
+        if (message.length <= Long.BYTES) {
+            return;
+        }
+        long blockedUntil = ByteBuffer.wrap(message).getLong();
+        long now = System.currentTimeMillis();
+        byte[] key = Arrays.copyOfRange(message, Long.BYTES, message.length);
+        RateLimitPeriod period = RedisKeyCodec.decodePeriod(key);
+        if (blockedUntil > now && period != null) {
+            keyVsBlockedUntil.getGeneration(period, blockedUntil, now).merge(ByteBuffer.wrap(key), blockedUntil,
+                    Math::max);
+        }
+    }
+}
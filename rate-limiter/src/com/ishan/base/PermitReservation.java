@@ -0,0 +1,82 @@
+package com.ishan.base;
+
+import com.ishan.strategy.RateLimitStrategy;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Permits taken ahead from the limits of a client by {@link RateLimitValidator#reserve(ClientConfig, RequestDetails)},
+ * as many as the cost of the request. The ones left unused can be given back with
+ * {@link RateLimitValidator#refund(PermitReservation, long)}, so that the limits count the work actually done.
+ *
+ * @since 18/10/26
+ */
+public class PermitReservation {
+
+    private final RateLimitResponse response;
+    private final long permits;
+    /**
+     * The permits which can still be given back, 0 if the reservation was not taken from the counters
+     */
+    private final AtomicLong refundable;
+
+    private final List<RedisKeyDetails> redisKeys;
+    private final RateLimitStrategy strategy;
+    private final boolean leased;
+
+    PermitReservation(RateLimitResponse response, long permits, List<RedisKeyDetails> redisKeys,
+                      RateLimitStrategy strategy, boolean leased) {
+        this.response = response;
+        this.permits = permits;
+        this.refundable = new AtomicLong(redisKeys != null && !response.getRateLimitReached() ? permits : 0);
+        this.redisKeys = redisKeys;
+        this.strategy = strategy;
+        this.leased = leased;
+    }
+
+    public RateLimitResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * @return true if the permits were reserved, i.e. the request is within its limits
+     */
+    public boolean isGranted() {
+        return !response.getRateLimitReached();
+    }
+
+    public long getPermits() {
+        return permits;
+    }
+
+    /**
+     * Takes permits out of the ones which can be given back, so that none is given back twice
+     *
+     * @return The permits to give back, at most the ones left
+     */
+    long takeRefund(long unusedPermits) {
+        while (true) {
+            long current = refundable.get();
+            long taken = Math.min(current, unusedPermits);
+            if (taken <= 0 || refundable.compareAndSet(current, current - taken)) {
+                return Math.max(0, taken);
+            }
+        }
+    }
+
+    List<RedisKeyDetails> getRedisKeys() {
+        return redisKeys;
+    }
+
+    RateLimitStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return true if the permits were taken from the leases of the node, see {@link QuotaLeaseValidator}
+     */
+    boolean isLeased() {
+        return leased;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ishan.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chunk of a key's limit that has been reserved in the store for this node. Requests take permits from it
+ * without going to the store until it runs dry or its slot ends.
+ *
+ * @since 18/10/26
+ */
+class QuotaLease {
+
+    private final AtomicLong available = new AtomicLong();
+
+    /**
+     * The counter of the key in the store as of the last refill, the permits of the slot handed out to all the nodes
+     */
+    private final AtomicLong handedOut = new AtomicLong();
+
+    /**
+     * Takes permits from the lease if there are enough left
+     *
+     * @param permits The number of permits to take
+     * @return true if the permits were taken
+     */
+    boolean tryAcquire(long permits) {
+        while (true) {
+            long current = available.get();
+            if (current < permits) {
+                return false;
+            }
+            if (available.compareAndSet(current, current - permits)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds permits to the lease, either freshly granted by the store or given back by a rejected request
+     *
+     * @param permits The number of permits to add
+     */
+    void grant(long permits) {
+        if (permits > 0) {
+            available.addAndGet(permits);
+        }
+    }
+
+    /**
+     * @return The permits of the slot handed out to all the nodes as of the last refill
+     */
+    long getHandedOut() {
+        return handedOut.get();
+    }
+
+    /**
+     * Records the counter of the key in the store, read when the lease was refilled
+     *
+     * @param counter The counter after the refill
+     */
+    void setHandedOut(long counter) {
+        handedOut.accumulateAndGet(counter, Math::max);
+    }
+}
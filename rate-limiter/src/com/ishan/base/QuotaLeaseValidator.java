@@ -0,0 +1,229 @@
+package com.ishan.base;
+
+import com.ishan.store.CounterStore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The hybrid mode of rate limiting. Instead of incrementing the counters in redis for every request, a node leases
+ * a part of each period limit ({@link ClientConfig#getLeasePercent()}) by incrementing the counter with the size of
+ * the lease. The requests are then admitted from the local lease and redis is only asked again once it runs out.
+ * <p>
+ * The counters in redis now hold the permits handed out to the nodes rather than the requests served, so the sum of
+ * all the leases of a slot never goes above the limit. Permits left in a lease when the slot ends are lost, so a
+ * client might be throttled a little before its limit is actually reached. The leases of a slot are dropped together
+ * once it has ended, by a {@link SlotExpiryWheel}.
+ * <p>
+ * A lease is no larger than what was left of the limit when the lease was last refilled, so the counters do not run
+ * far past the limits. The permits are never given back to the store, only to the leases, so a request whose key had
+ * nothing left then is rejected without asking the store.
+ *
+ * @since 18/10/26
+ */
+class QuotaLeaseValidator {
+
+    /**
+     * Redis key (which contains the slot) vs the lease of that key held by this node, by the generation of its slot
+     */
+    private static final SlotExpiryWheel<ConcurrentMap<ByteBuffer, QuotaLease>> keyVsLease =
+            new SlotExpiryWheel<>(ConcurrentHashMap::new);
+
+    static boolean isLeasingEnabled(ClientConfig clientConfig) {
+        Integer leasePercent = clientConfig.getLeasePercent();
+        return leasePercent != null && leasePercent > 0
+                && (clientConfig.getAlgorithm() == null || clientConfig.getAlgorithm() == RateLimitAlgorithm.FIXED_WINDOW);
+    }
+
+    /**
+     * Admits the request from the local leases if every key has the permits of its cost left, refilling the
+     * exhausted ones from redis in one pipeline otherwise.
+     *
+     * @param counterStore The {@link CounterStore} the leases are taken from
+     * @param clientConfig The {@link ClientConfig} config of the client
+     * @param redisKeys    The keys of the request
+     * @param cost         The permits the request takes from each key
+     * @param requestTime  The time of the request
+     * @return The {@link RateLimitResponse} response for rate limits
+     */
+    static RateLimitResponse validateRateLimited(CounterStore counterStore, ClientConfig clientConfig,
+                                                 List<RedisKeyDetails> redisKeys, long cost, long requestTime) {
+        Admission admission = Admission.acquire(clientConfig, redisKeys, cost, requestTime);
+        if (admission.violated != null) {
+            return admission.rejected();
+        }
+        if (admission.toRefill == null) {
+            return RateLimitResponse.withRateLimitNotReached();
+        }
+        List<Long> counters;
+        try {
+            counters = counterStore.increment(admission.toRefill);
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+        return admission.refilled(counters);
+    }
+
+    /**
+     * Same as {@link #validateRateLimited(CounterStore, ClientConfig, List, long, long)}, but the refill, if needed,
+     * does not block the calling thread.
+     */
+    static CompletableFuture<RateLimitResponse> validateRateLimitedAsync(CounterStore counterStore,
+                                                                         ClientConfig clientConfig,
+                                                                         List<RedisKeyDetails> redisKeys,
+                                                                         long cost, long requestTime) {
+        Admission admission = Admission.acquire(clientConfig, redisKeys, cost, requestTime);
+        if (admission.violated != null) {
+            return CompletableFuture.completedFuture(admission.rejected());
+        }
+        if (admission.toRefill == null) {
+            return CompletableFuture.completedFuture(RateLimitResponse.withRateLimitNotReached());
+        }
+        return counterStore.incrementAsync(admission.toRefill)
+                .whenComplete((counters, throwable) -> {
+                    if (throwable != null) {
+                        admission.release();
+                    }
+                })
+                .thenApply(admission::refilled);
+    }
+
+    /**
+     * Gives permits reserved from the leases back to them, if their slot has not ended
+     *
+     * @param redisKeys  The keys the permits were reserved on
+     * @param permits    The permits given back to each key
+     * @param refundTime The current time
+     */
+    static void refund(List<RedisKeyDetails> redisKeys, long permits, long refundTime) {
+        for (RedisKeyDetails redisKey : redisKeys) {
+            ByteBuffer key = ByteBuffer.wrap(redisKey.getKey());
+            QuotaLease lease = keyVsLease.find(redisKey.getPeriod(), refundTime, leases -> leases.get(key));
+            if (lease != null) {
+                lease.grant(permits);
+            }
+        }
+    }
+
+    /**
+     * The permits a request took from the local leases, and the keys whose leases were exhausted and have to be
+     * refilled from redis before the request can be decided. The keys to refill are copies of those of the request,
+     * incremented by the size of their lease.
+     */
+    private static class Admission {
+
+        private final long cost;
+        private final List<QuotaLease> acquired;
+        private List<QuotaLease> exhausted;
+        private List<RedisKeyDetails> toRefill;
+
+        /**
+         * The key of the request which had nothing left of its limit at its last refill, null if there is none
+         */
+        private RedisKeyDetails violated;
+
+        private Admission(long cost, int size) {
+            this.cost = cost;
+            this.acquired = new ArrayList<>(size);
+        }
+
+        private static Admission acquire(ClientConfig clientConfig, List<RedisKeyDetails> redisKeys, long cost,
+                                         long requestTime) {
+            Admission admission = new Admission(cost, redisKeys.size());
+            for (RedisKeyDetails redisKey : redisKeys) {
+                QuotaLease lease = getLease(redisKey, requestTime);
+                if (lease.tryAcquire(cost)) {
+                    admission.acquired.add(lease);
+                } else {
+                    long left = redisKey.getLimit() - lease.getHandedOut();
+                    if (left < cost) {
+                        admission.release();
+                        admission.violated = redisKey;
+                        return admission;
+                    }
+                    if (admission.toRefill == null) {
+                        admission.toRefill = new ArrayList<>();
+                        admission.exhausted = new ArrayList<>();
+                    }
+                    long size = Math.max(cost, Math.min(left,
+                            leaseSize(redisKey.getLimit(), clientConfig.getLeasePercent())));
+                    admission.toRefill.add(redisKey.forKey(redisKey.getKey(), redisKey.getTtl(), size));
+                    admission.exhausted.add(lease);
+                }
+            }
+            return admission;
+        }
+
+        /**
+         * The granted permits are added to the leases, and the cost of the request is then taken from them, along
+         * with what was left in them, which alone was not enough.
+         *
+         * @param counters The counters of {@link #toRefill} after they were incremented by the lease size
+         * @return The {@link RateLimitResponse} response for rate limits
+         */
+        private RateLimitResponse refilled(List<Long> counters) {
+            for (int i = 0; i < toRefill.size(); i++) {
+                RedisKeyDetails redisKey = toRefill.get(i);
+                long alreadyLeased = counters.get(i) - redisKey.getIncrement();
+                exhausted.get(i).setHandedOut(counters.get(i));
+                exhausted.get(i).grant(Math.min(redisKey.getIncrement(), redisKey.getLimit() - alreadyLeased));
+            }
+            for (int i = 0; i < exhausted.size(); i++) {
+                if (!exhausted.get(i).tryAcquire(cost)) {
+                    // The request is rejected, so nothing it took is used up
+                    for (int j = 0; j < i; j++) {
+                        exhausted.get(j).grant(cost);
+                    }
+                    release();
+                    RedisKeyDetails violated = toRefill.get(i);
+                    return RateLimitResponse.withRateLimitReached(violated.getPeriod(), violated.getViolationCause());
+                }
+            }
+            return RateLimitResponse.withRateLimitNotReached();
+        }
+
+        /**
+         * @return The rejection of a request whose key had nothing left of its limit at its last refill
+         */
+        private RateLimitResponse rejected() {
+            return RateLimitResponse.withRateLimitReached(violated.getPeriod(), violated.getViolationCause());
+        }
+
+        /**
+         * Gives the permits taken from the leases which were not exhausted back to them, when the request is
+         * rejected or its refill failed
+         */
+        private void release() {
+            for (QuotaLease lease : acquired) {
+                lease.grant(cost);
+            }
+        }
+    }
+
+    /**
+     * The lease expires with the fixed window slot of its key, so it is always in the generation of that slot
+     */
+    private static QuotaLease getLease(RedisKeyDetails redisKey, long requestTime) {
+        ConcurrentMap<ByteBuffer, QuotaLease> leases = keyVsLease.getGeneration(redisKey.getPeriod(),
+                requestTime + redisKey.getTtl(), requestTime);
+        ByteBuffer key = ByteBuffer.wrap(redisKey.getKey());
+        QuotaLease lease = leases.get(key);
+        if (lease == null) {
+            QuotaLease newLease = new QuotaLease();
+            lease = leases.putIfAbsent(key, newLease);
+            if (lease == null) {
+                lease = newLease;
+            }
+        }
+        return lease;
+    }
+
+    static long leaseSize(long limit, int leasePercent) {
+        return Math.max(1, limit * Math.min(leasePercent, 100) / 100);
+    }
+}
@@ -0,0 +1,38 @@
+package com.ishan.base;
+
+import com.ishan.strategy.FixedWindowStrategy;
+import com.ishan.strategy.GcraStrategy;
+import com.ishan.strategy.RateLimitStrategy;
+import com.ishan.strategy.SlidingWindowStrategy;
+
+/**
+ * The algorithms a client's limits can be enforced with, see {@link ClientConfig#getAlgorithm()}
+ *
+ * @since 18/10/26
+ */
+public enum RateLimitAlgorithm {
+    /**
+     * A counter per slot. Up to twice the limit can get through around the boundary of two slots.
+     */
+    FIXED_WINDOW(new FixedWindowStrategy()),
+    /**
+     * The count of the previous slot, weighted by how much of it still falls in the last period, plus the count of
+     * the current slot. This smooths out the bursts at the slot boundaries.
+     */
+    SLIDING_WINDOW(new SlidingWindowStrategy()),
+    /**
+     * The generic cell rate algorithm, a token bucket refilled continuously at limit per period which holds up to the
+     * limit. It only stores one timestamp per limit.
+     */
+    GCRA(new GcraStrategy());
+
+    private final RateLimitStrategy strategy;
+
+    RateLimitAlgorithm(RateLimitStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public RateLimitStrategy getStrategy() {
+        return strategy;
+    }
+}
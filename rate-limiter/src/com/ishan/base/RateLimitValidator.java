@@ -1,13 +1,21 @@
 package com.ishan.base;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import com.ishan.redis.RedisService;
-import org.apache.commons.collections4.MapUtils;
+import com.ishan.metrics.RateLimiterMetrics;
+import com.ishan.redis.RedisUnavailableException;
+import com.ishan.store.CounterStore;
+import com.ishan.store.CounterStores;
+import com.ishan.store.Evaluation;
+import com.ishan.strategy.RateLimitStrategy;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * The main class which contains the logic of rate limiting. The basic idea is:
@@ -15,78 +23,542 @@ import java.util.Set;
  * There's a circular buffer for each type of limits. So there will be 60 such slots for seconds limit, 60 for
  * minutes and 12 for months.
  * <p>
- * Using redis pipeline to save RTT, we increment the usage of that slot by 1 and get back the result. We also do a
- * expire command to that key, with the time remaining for that slot.
+ * The counters are kept in a {@link CounterStore}, redis by default, given to the validator when it is created.
  * <p>
- * If the limits have exceeded, then we say that limits have exceeded.
+ * A lua script checks the usage of all the slots of a request against their limits in one round trip. Only if none
+ * of them is exceeded are they incremented by the cost of the request, 1 unless the client configures a cost for the
+ * endpoint or method (see {@link ClientLimitPlan#getCost(String, HttpMethod)}) or the caller sets one in the
+ * {@link RequestDetails}, so rejected requests do not eat into the limits. The expiry of a
+ * slot, the time remaining for it, is set when its key is created. This is the fixed window
+ * {@link RateLimitAlgorithm}, a client can instead be configured with a sliding window or GCRA, each of which is a
+ * script of its own, see {@link RateLimitStrategy}.
+ * <p>
+ * If the limits have exceeded, then the script tells which key broke them first. That key is then blocked on every
+ * node until its limit can be met again, see {@link LocalBlocklist}, and the requests on it are rejected without
+ * asking redis.
+ * <p>
+ * While redis is unavailable, see {@link RedisUnavailableException}, the requests are decided by the
+ * {@link DegradedModePolicy} of the client, ratelimit.degradedMode if it has none.
+ * <p>
+ * A caller which only knows afterwards how much work a request did can {@link #reserve} its cost ahead, as for the
+ * largest batch, and {@link #refund} the permits it did not use.
+ * <p>
+ * A gateway which fans a call out into many requests validates them together with
+ * {@link #validateRateLimited(List, BatchAdmission)}, in one round trip.
  *
  * @author ishanjain
  * @since 21/03/18
  */
 public class RateLimitValidator {
 
+    /**
+     * Enough for the keys of all the periods of the client, one endpoint and one method
+     */
+    private static final int MAX_KEYS_PER_REQUEST = 3 * RateLimitPeriod.values().length;
+
+    private static final DegradedModePolicy DEFAULT_DEGRADED_MODE = DegradedModePolicy.valueOf(
+            RateLimiterProperties.getString("ratelimit.degradedMode", DegradedModePolicy.FAIL_OPEN.name()));
+
+    private final CounterStore counterStore;
+
+    /**
+     * With the {@link CounterStore} configured for the node, see {@link CounterStores}
+     */
+    public RateLimitValidator() {
+        this(CounterStores.getDefault());
+    }
+
+    public RateLimitValidator(CounterStore counterStore) {
+        this.counterStore = counterStore;
+    }
+
+    /**
+     * @return The {@link DegradedModePolicy} of the clients which have none, ratelimit.degradedMode
+     */
+    public static DegradedModePolicy getDefaultDegradedMode() {
+        return DEFAULT_DEGRADED_MODE;
+    }
 
     /**
      * This validates whether the client is within rate limits or not
      *
      * @return The {@link RateLimitResponse} containing the status of rate limit
      */
-    public static RateLimitResponse validateRateLimited(ClientConfig clientConfig, RequestDetails requestDetails) {
+    public RateLimitResponse validateRateLimited(ClientConfig clientConfig, RequestDetails requestDetails) {
+        List<RedisKeyDetails> redisKeys = constructRedisKeys(clientConfig, requestDetails);
+        try {
+            return decide(clientConfig, requestDetails, redisKeys);
+        } catch (RedisUnavailableException e) {
+            return decideDegraded(clientConfig, requestDetails, redisKeys);
+        }
+    }
+
+    /**
+     * Same as {@link #validateRateLimited(ClientConfig, RequestDetails)}, keeping what is needed to give back the
+     * permits of the request, its cost, which it did not use.
+     *
+     * @return The {@link PermitReservation} holding the status of rate limit
+     */
+    public PermitReservation reserve(ClientConfig clientConfig, RequestDetails requestDetails) {
+        List<RedisKeyDetails> redisKeys = constructRedisKeys(clientConfig, requestDetails);
+        long cost = getCost(clientConfig, requestDetails);
+        try {
+            RateLimitResponse response = decide(clientConfig, requestDetails, redisKeys);
+            return new PermitReservation(response, cost, redisKeys, clientConfig.getLimitPlan().getStrategy(),
+                    QuotaLeaseValidator.isLeasingEnabled(clientConfig));
+        } catch (RedisUnavailableException e) {
+            // The counters were not touched, there is nothing to give back
+            return new PermitReservation(decideDegraded(clientConfig, requestDetails, redisKeys), cost, null, null,
+                    false);
+        }
+    }
+
+    /**
+     * Gives back permits of a reservation which were not used. Only the limits whose permits still count are given
+     * them back, e.g. not the fixed window slots which have ended, and nothing is given back for a reservation which
+     * was rejected or decided while redis was unavailable. A refund which cannot reach redis is dropped, which errs on
+     * the side of the limits.
+     *
+     * @param reservation   The reservation made by {@link #reserve(ClientConfig, RequestDetails)}
+     * @param unusedPermits The permits not used, at most the reserved ones less the ones already given back
+     */
+    public void refund(PermitReservation reservation, long unusedPermits) {
+        long permits = reservation.takeRefund(unusedPermits);
+        if (permits <= 0) {
+            return;
+        }
+        long refundTime = System.currentTimeMillis();
+        if (reservation.isLeased()) {
+            QuotaLeaseValidator.refund(reservation.getRedisKeys(), permits, refundTime);
+            return;
+        }
+        List<RedisKeyDetails> refundKeys = reservation.getStrategy().getRefundKeys(reservation.getRedisKeys(),
+                permits, refundTime);
+        if (refundKeys.isEmpty()) {
+            return;
+        }
+        try {
+            counterStore.increment(refundKeys);
+        } catch (RedisUnavailableException e) {
+            // The permits stay taken
+        }
+    }
+
+    /**
+     * @throws RedisUnavailableException If the request has to be decided by redis, which is unavailable
+     */
+    private RateLimitResponse decide(ClientConfig clientConfig, RequestDetails requestDetails,
+                                     List<RedisKeyDetails> redisKeys) {
+        long requestTime = requestDetails.getRequestTime();
+        RateLimitResponse localResponse = decideLocally(redisKeys, requestTime);
+        if (localResponse != null) {
+            return localResponse;
+        }
+        RateLimitStrategy strategy = clientConfig.getLimitPlan().getStrategy();
+        long cost = getCost(clientConfig, requestDetails);
+        if (QuotaLeaseValidator.isLeasingEnabled(clientConfig)) {
+            RateLimitResponse leased = QuotaLeaseValidator.validateRateLimited(counterStore, clientConfig,
+                    redisKeys, cost, requestTime);
+            return decided(leased, strategy, redisKeys, cost, requestTime, false);
+        }
+        int violatedIndex = counterStore.evaluate(strategy, redisKeys, requestTime);
+        return decided(toResponse(violatedIndex, redisKeys), strategy, redisKeys, cost, requestTime, true);
+    }
+
+    /**
+     * The non blocking version of {@link #validateRateLimited(ClientConfig, RequestDetails)}. The call to redis, if
+     * any, is made on the redis I/O threads and the returned stage completes on one of them.
+     *
+     * @return The {@link CompletionStage} which completes with the status of rate limit
+     */
+    public CompletionStage<RateLimitResponse> validateRateLimitedAsync(ClientConfig clientConfig,
+                                                                       RequestDetails requestDetails) {
         List<RedisKeyDetails> redisKeys = constructRedisKeys(clientConfig, requestDetails);
-        List<Object> pipeline = RedisService.pipeline(redisKeys);
-        return validateRateLimited(pipeline, clientConfig, redisKeys);
+        long requestTime = requestDetails.getRequestTime();
+        RateLimitResponse localResponse = decideLocally(redisKeys, requestTime);
+        if (localResponse != null) {
+            return CompletableFuture.completedFuture(localResponse);
+        }
+        RateLimitStrategy strategy = clientConfig.getLimitPlan().getStrategy();
+        long cost = getCost(clientConfig, requestDetails);
+        CompletableFuture<RateLimitResponse> response;
+        if (QuotaLeaseValidator.isLeasingEnabled(clientConfig)) {
+            response = QuotaLeaseValidator.validateRateLimitedAsync(counterStore, clientConfig, redisKeys, cost,
+                    requestTime)
+                    .thenApply(leased -> decided(leased, strategy, redisKeys, cost, requestTime, false));
+        } else {
+            response = counterStore.evaluateAsync(strategy, redisKeys, requestTime)
+                    .thenApply(violatedIndex -> decided(toResponse(violatedIndex, redisKeys), strategy, redisKeys,
+                            cost, requestTime, true));
+        }
+        return response.exceptionally(failure -> {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+            if (cause instanceof RedisUnavailableException) {
+                return decideDegraded(clientConfig, requestDetails, redisKeys);
+            }
+            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(cause);
+        });
+    }
+
+    /**
+     * {@link BatchAdmission#BEST_EFFORT} validation of a batch, see {@link #validateRateLimited(List, BatchAdmission)}
+     */
+    public List<RateLimitResponse> validateRateLimited(List<RequestDetails> requests) {
+        return validateRateLimited(requests, BatchAdmission.BEST_EFFORT);
     }
 
     /**
-     * This actually checks if the corresponding values received from redis.
+     * Validates a batch of requests, of any clients, as a gateway which fans a call out into many does, with one call
+     * to the {@link CounterStore} for all of them, see {@link CounterStore#evaluateAll(List)}.
      * <p>
-     * This firstly checks if the limit is exceeded for a client.
-     * It then checks for endpoint.
-     * It then checks for method.
+     * The requests of a client made in the same slot of its shortest period, and so in the same slots of all its
+     * periods, are evaluated together, at the time of the first of them: the keys they share are sent once, with the
+     * sum of their costs, so they all fit in the limits or none of them is recorded. If they do not fit, they are all
+     * rejected with {@link BatchAdmission#ALL_OR_NOTHING}, along with the rest of the batch. With
+     * {@link BatchAdmission#BEST_EFFORT} they are evaluated again one by one, in a second call, so that as many are
+     * admitted as fit. The requests of the clients in the hybrid mode are taken from the leases one by one. While
+     * redis is unavailable, each request is decided by the {@link DegradedModePolicy} of its client.
+     * <p>
+     * The groups are evaluated one after the other, each atomically on its own, since the keys of different clients
+     * may be on different nodes of a cluster. So {@link BatchAdmission#ALL_OR_NOTHING} is not atomic across clients:
+     * the permits taken by the groups which fit stay taken until the batch is found rejected and they are given back,
+     * meanwhile other requests of those clients may be rejected on them, and a give back which cannot reach redis is
+     * dropped.
      *
-     * @param pipeline     The response from Redis pipeline
-     * @param clientConfig The {@link ClientConfig} config for the client
-     * @return The {@link RateLimitResponse} response for rate limits
+     * @param requests  The requests, whose client configs are loaded with {@link ClientConfigProvider}
+     * @param admission How the requests are admitted
+     * @return The {@link RateLimitResponse} of each request in the same order, null for a request whose client is
+     * unknown, which takes no part in the admission
      */
-    private static RateLimitResponse validateRateLimited(List<Object> pipeline, ClientConfig clientConfig,
-                                                         List<RedisKeyDetails> redisKeyWithTTLs) {
-        int index = 0;
-        for (Object currentLimitObj : pipeline) {
-            long currentLimit = (long) currentLimitObj;
-            RedisKeyDetails redisKeyDetails = redisKeyWithTTLs.get(index++);
-            RateLimitPeriod period = redisKeyDetails.getPeriod();
-            if (redisKeyDetails.getEndpoint() == null && redisKeyDetails.getHttpMethod() == null) {
-                //This is client specific limits
-                ClientConfig.RateLimits rateLimits = clientConfig.getRateLimits();
-                Map<RateLimitPeriod, Integer> periodLimits = rateLimits.getPeriodLimits();
-                Integer limit = periodLimits.get(period);
-                if (currentLimit > limit) {
-                    return RateLimitResponse.withRateLimitReached(period, RateLimitViolationCause.CLIENT);
+    public List<RateLimitResponse> validateRateLimited(List<RequestDetails> requests, BatchAdmission admission) {
+        List<CompletableFuture<ClientConfig>> clientConfigs = new ArrayList<>(requests.size());
+        for (RequestDetails requestDetails : requests) {
+            clientConfigs.add(ClientConfigProvider.getClientConfigAsync(requestDetails.getClientId()));
+        }
+        List<BatchItem> items = new ArrayList<>(requests.size());
+        Map<String, List<BatchItem>> groups = new LinkedHashMap<>();
+        List<BatchItem> leased = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            ClientConfig clientConfig;
+            try {
+                clientConfig = clientConfigs.get(i).join();
+            } catch (CompletionException e) {
+                throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e.getCause());
+            }
+            if (clientConfig == null) {
+                items.add(null);
+                continue;
+            }
+            BatchItem item = new BatchItem(clientConfig, requests.get(i));
+            items.add(item);
+            item.response = localResponse(item.redisKeys, item.requestDetails.getRequestTime());
+            if (item.response != null) {
+                continue;
+            }
+            if (QuotaLeaseValidator.isLeasingEnabled(clientConfig)) {
+                leased.add(item);
+            } else {
+                groups.computeIfAbsent(getGroup(item), group -> new ArrayList<>()).add(item);
+            }
+        }
+
+        boolean allOrNothing = admission == BatchAdmission.ALL_OR_NOTHING;
+        if (!allOrNothing || findRejection(items) == null) {
+            List<BatchItem> retried = evaluateGroups(new ArrayList<>(groups.values()), allOrNothing);
+            if (!retried.isEmpty()) {
+                List<List<BatchItem>> singles = new ArrayList<>(retried.size());
+                for (BatchItem item : retried) {
+                    singles.add(Collections.singletonList(item));
                 }
-            } else if (redisKeyDetails.getHttpMethod() != null) {
-                //This is http method specific stuff
-                ClientConfig.RateLimits rateLimits = clientConfig.getMethodVsLimits()
-                        .get(HttpMethod.valueOf(redisKeyDetails.getHttpMethod()));
-                Integer limit = rateLimits.getPeriodLimits().get(period);
-                if (currentLimit > limit) {
-                    return RateLimitResponse.withRateLimitReached(period, RateLimitViolationCause.METHOD);
+                evaluateGroups(singles, allOrNothing);
+            }
+        }
+        if (!allOrNothing || findRejection(items) == null) {
+            for (BatchItem item : leased) {
+                takeFromLease(item);
+            }
+        }
+        RateLimitResponse rejection = allOrNothing ? findRejection(items) : null;
+        if (rejection != null) {
+            giveBack(items);
+        }
+
+        List<RateLimitResponse> responses = new ArrayList<>(items.size());
+        for (BatchItem item : items) {
+            if (item == null) {
+                responses.add(null);
+                continue;
+            }
+            if (rejection != null) {
+                item.response = rejection;
+            }
+            RateLimiterMetrics.recordResponse(item.response);
+            responses.add(item.response);
+        }
+        return responses;
+    }
+
+    /**
+     * Evaluates each group of requests with the keys of its requests merged, in one call to the store
+     *
+     * @return The requests of the groups of more than one request which did not fit, to be evaluated one by one, none
+     * if all or nothing is admitted
+     */
+    private List<BatchItem> evaluateGroups(List<List<BatchItem>> groups, boolean allOrNothing) {
+        List<BatchItem> retried = new ArrayList<>();
+        if (groups.isEmpty()) {
+            return retried;
+        }
+        List<Evaluation> evaluations = new ArrayList<>(groups.size());
+        for (List<BatchItem> group : groups) {
+            BatchItem first = group.get(0);
+            List<RedisKeyDetails> redisKeys;
+            if (group.size() == 1) {
+                redisKeys = first.redisKeys;
+            } else {
+                List<RedisKeyDetails> groupKeys = new ArrayList<>();
+                for (BatchItem item : group) {
+                    groupKeys.addAll(item.redisKeys);
+                }
+                redisKeys = mergeKeys(groupKeys);
+            }
+            evaluations.add(new Evaluation(first.clientConfig.getLimitPlan().getStrategy(), redisKeys,
+                    first.requestDetails.getRequestTime()));
+        }
+        int[] verdicts;
+        try {
+            verdicts = counterStore.evaluateAll(evaluations);
+        } catch (RedisUnavailableException e) {
+            for (List<BatchItem> group : groups) {
+                for (BatchItem item : group) {
+                    item.response = degradedResponse(item.clientConfig, item.requestDetails, item.redisKeys);
                 }
-            } else if (redisKeyDetails.getEndpoint() != null) {
-                //This is endpoint specific stuff
-                ClientConfig.RateLimits rateLimits = clientConfig.getEndpointVsLimits()
-                        .get(redisKeyDetails.getEndpoint());
-                Integer limit = rateLimits.getPeriodLimits().get(period);
-                if (currentLimit > limit) {
-                    return RateLimitResponse.withRateLimitReached(period, RateLimitViolationCause.ENDPOINT);
+            }
+            return retried;
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            List<BatchItem> group = groups.get(i);
+            if (verdicts[i] == 0) {
+                for (BatchItem item : group) {
+                    item.response = RateLimitResponse.withRateLimitNotReached();
+                    item.taken = true;
+                }
+            } else if (group.size() == 1) {
+                BatchItem item = group.get(0);
+                item.response = toResponse(verdicts[i], item.redisKeys);
+                block(item.response, evaluations.get(i).getStrategy(), item.redisKeys, item.cost,
+                        item.requestDetails.getRequestTime(), true);
+            } else if (allOrNothing) {
+                RateLimitResponse response = toResponse(verdicts[i], evaluations.get(i).getRedisKeys());
+                for (BatchItem item : group) {
+                    item.response = response;
                 }
+            } else {
+                retried.addAll(group);
             }
         }
-        return RateLimitResponse.withRateLimitNotReached();
+        return retried;
     }
 
     /**
-     * This constructs the redis keys for this request. If the client is configured to have the endpoint requests,
-     * it adds the keys for that endpoint as well. Similary for HTTPMethod.
+     * @return The group of the request in a batch, its client and the slot of the shortest period of its keys. The
+     * slots of the longer periods start and end on those of the shorter ones, so the requests of a group are in the
+     * same slots of every period.
+     */
+    private static String getGroup(BatchItem item) {
+        RateLimitPeriod shortest = null;
+        for (RedisKeyDetails redisKey : item.redisKeys) {
+            if (shortest == null || redisKey.getPeriod().compareTo(shortest) < 0) {
+                shortest = redisKey.getPeriod();
+            }
+        }
+        return item.clientConfig.getClientId() + "_" + shortest.wrap(item.requestDetails.getRequestTime());
+    }
+
+    private void takeFromLease(BatchItem item) {
+        RateLimitStrategy strategy = item.clientConfig.getLimitPlan().getStrategy();
+        long requestTime = item.requestDetails.getRequestTime();
+        try {
+            item.response = QuotaLeaseValidator.validateRateLimited(counterStore, item.clientConfig, item.redisKeys,
+                    item.cost, requestTime);
+        } catch (RedisUnavailableException e) {
+            item.response = degradedResponse(item.clientConfig, item.requestDetails, item.redisKeys);
+            return;
+        }
+        block(item.response, strategy, item.redisKeys, item.cost, requestTime, false);
+        item.taken = !item.response.getRateLimitReached();
+    }
+
+    /**
+     * Gives back the permits taken by the requests of a batch which is rejected, in one increment per client and
+     * request time on the store
+     */
+    private void giveBack(List<BatchItem> items) {
+        long refundTime = System.currentTimeMillis();
+        Map<String, List<RedisKeyDetails>> refundKeys = new LinkedHashMap<>();
+        for (BatchItem item : items) {
+            if (item == null || !item.taken) {
+                continue;
+            }
+            if (QuotaLeaseValidator.isLeasingEnabled(item.clientConfig)) {
+                QuotaLeaseValidator.refund(item.redisKeys, item.cost, refundTime);
+                continue;
+            }
+            refundKeys.computeIfAbsent(item.clientConfig.getClientId(), clientId -> new ArrayList<>())
+                    .addAll(item.clientConfig.getLimitPlan().getStrategy().getRefundKeys(item.redisKeys, item.cost,
+                            refundTime));
+        }
+        for (List<RedisKeyDetails> keys : refundKeys.values()) {
+            if (keys.isEmpty()) {
+                continue;
+            }
+            try {
+                counterStore.increment(mergeKeys(keys));
+            } catch (RedisUnavailableException e) {
+                // The permits stay taken
+            }
+        }
+    }
+
+    /**
+     * @return The first rejection among the requests decided so far, null if there is none
+     */
+    private static RateLimitResponse findRejection(List<BatchItem> items) {
+        for (BatchItem item : items) {
+            if (item != null && item.response != null && item.response.getRateLimitReached()) {
+                return item.response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The keys with each key once, in the order they first appear, incremented by the sum of its increments
+     */
+    private static List<RedisKeyDetails> mergeKeys(List<RedisKeyDetails> redisKeys) {
+        Map<ByteBuffer, RedisKeyDetails> merged = new LinkedHashMap<>();
+        for (RedisKeyDetails redisKey : redisKeys) {
+            merged.merge(ByteBuffer.wrap(redisKey.getKey()), redisKey, (existing, added) -> existing.forKey(
+                    existing.getKey(), existing.getTtl(), existing.getIncrement() + added.getIncrement()));
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * @return The response if the request can be decided without redis, i.e. it has no limits or one of its keys is
+     * in the {@link LocalBlocklist}, else null
+     */
+    private static RateLimitResponse decideLocally(List<RedisKeyDetails> redisKeys, long requestTime) {
+        RateLimitResponse response = localResponse(redisKeys, requestTime);
+        if (response != null) {
+            RateLimiterMetrics.recordResponse(response);
+        }
+        return response;
+    }
+
+    /**
+     * {@link #decideLocally(List, long)} without recording the response
+     */
+    private static RateLimitResponse localResponse(List<RedisKeyDetails> redisKeys, long requestTime) {
+        RateLimiterMetrics.recordKeysPerRequest(redisKeys.size());
+        if (redisKeys.isEmpty()) {
+            return RateLimitResponse.withRateLimitNotReached();
+        }
+        RedisKeyDetails blocked = LocalBlocklist.findBlocked(redisKeys, requestTime);
+        if (blocked != null) {
+            RateLimiterMetrics.recordBlocklistRejection();
+            return RateLimitResponse.withRateLimitReached(blocked.getPeriod(), blocked.getViolationCause());
+        }
+        return null;
+    }
+
+    /**
+     * Adds the broken limit, if any, to the {@link LocalBlocklist}. A rejection in the hybrid mode only means that
+     * this node cannot lease more, the other nodes may still have permits left, so it is not broadcast. A request
+     * which costs more than 1 may break a limit which cheaper ones still fit in, so it blocks nothing.
+     *
+     * @return The response as is
+     */
+    private static RateLimitResponse decided(RateLimitResponse response, RateLimitStrategy strategy,
+                                             List<RedisKeyDetails> redisKeys, long cost, long requestTime,
+                                             boolean broadcast) {
+        block(response, strategy, redisKeys, cost, requestTime, broadcast);
+        RateLimiterMetrics.recordResponse(response);
+        return response;
+    }
+
+    /**
+     * {@link #decided} without recording the response
+     */
+    private static void block(RateLimitResponse response, RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys,
+                              long cost, long requestTime, boolean broadcast) {
+        if (cost == 1) {
+            LocalBlocklist.block(strategy, redisKeys, response, requestTime, broadcast);
+        }
+    }
+
+    /**
+     * Decides the request by the {@link DegradedModePolicy} of the client as redis is unavailable. Nothing is added
+     * to the {@link LocalBlocklist}, the limits are not known to be broken.
+     *
+     * @return The {@link RateLimitResponse} response for rate limits
+     */
+    private static RateLimitResponse decideDegraded(ClientConfig clientConfig, RequestDetails requestDetails,
+                                                    List<RedisKeyDetails> redisKeys) {
+        RateLimitResponse response = degradedResponse(clientConfig, requestDetails, redisKeys);
+        RateLimiterMetrics.recordResponse(response);
+        return response;
+    }
+
+    /**
+     * {@link #decideDegraded} without recording the response
+     */
+    private static RateLimitResponse degradedResponse(ClientConfig clientConfig, RequestDetails requestDetails,
+                                                      List<RedisKeyDetails> redisKeys) {
+        DegradedModePolicy policy = clientConfig.getDegradedMode() != null
+                ? clientConfig.getDegradedMode() : DEFAULT_DEGRADED_MODE;
+        RateLimitResponse response;
+        switch (policy) {
+            case FAIL_CLOSED:
+                RedisKeyDetails first = redisKeys.get(0);
+                response = RateLimitResponse.withRateLimitReached(first.getPeriod(), first.getViolationCause());
+                break;
+            case LOCAL_APPROXIMATE:
+                response = LocalApproximateLimiter.validateRateLimited(redisKeys,
+                        getCost(clientConfig, requestDetails), requestDetails.getRequestTime());
+                break;
+            default:
+                response = RateLimitResponse.withRateLimitNotReached();
+        }
+        RateLimiterMetrics.recordDegraded();
+        return response;
+    }
+
+    /**
+     * @param violatedIndex The verdict of the script, 0 or the 1 based index of the first key whose limit is broken
+     * @param redisKeys     The keys which were evaluated
+     * @return The {@link RateLimitResponse} response for rate limits
+     */
+    static RateLimitResponse toResponse(int violatedIndex, List<RedisKeyDetails> redisKeys) {
+        if (violatedIndex == 0) {
+            return RateLimitResponse.withRateLimitNotReached();
+        }
+        RedisKeyDetails violated = redisKeys.get(violatedIndex - 1);
+        return RateLimitResponse.withRateLimitReached(violated.getPeriod(), violated.getViolationCause());
+    }
+
+    /**
+     * @return The cost set in the {@link RequestDetails}, else the one configured for its endpoint or method
+     */
+    static long getCost(ClientConfig clientConfig, RequestDetails requestDetails) {
+        return requestDetails.getCost() > 0 ? requestDetails.getCost()
+                : clientConfig.getLimitPlan().getCost(requestDetails.getEndpoint(), requestDetails.getHttpMethod());
+    }
+
+    /**
+     * This constructs the redis keys for this request from the client's {@link ClientLimitPlan}. If the client is
+     * configured to have the endpoint requests, it adds the keys for that endpoint as well. Similary for HTTPMethod.
      * Example:
      * keys would be (not exactly)
      * ecom_1sec
@@ -96,53 +568,63 @@ public class RateLimitValidator {
      *
      * @param clientConfig   The {@link ClientConfig} config of the client
      * @param requestDetails The {@link RequestDetails} containing details of the request
-     * @return A set of constructed keys for redis
+     * @return A list of constructed keys for redis
      */
-    private static List<RedisKeyDetails> constructRedisKeys(ClientConfig clientConfig, RequestDetails requestDetails) {
-        List<RedisKeyDetails> keys = Lists.newArrayList();
-        if (clientConfig.getRateLimits() != null) {
-            //This means that this client has been configured with these limits
-            ClientConfig.RateLimits rateLimits = clientConfig.getRateLimits();
-            keys.addAll(constructRedisKeys(null, null, rateLimits, clientConfig, requestDetails));
-        }
-        if (MapUtils.isNotEmpty(clientConfig.getEndpointVsLimits())) {
-            String endpoint = requestDetails.getEndpoint();
-            ClientConfig.RateLimits endpointLimits = clientConfig.getEndpointVsLimits().get(endpoint);
-            if (endpointLimits != null) {
-                // There is a limit for these endpoints
-                keys.addAll(constructRedisKeys(endpoint, null, endpointLimits, clientConfig, requestDetails));
-            }
-        }
-        if (MapUtils.isNotEmpty(clientConfig.getMethodVsLimits())) {
-            HttpMethod httpMethod = requestDetails.getHttpMethod();
-            ClientConfig.RateLimits rateLimits = clientConfig.getMethodVsLimits().get(httpMethod);
-            if (rateLimits != null) {
-                // There is a limit for these endpoints
-                keys.addAll(constructRedisKeys(null, httpMethod, rateLimits, clientConfig, requestDetails));
-            }
-        }
+    static List<RedisKeyDetails> constructRedisKeys(ClientConfig clientConfig, RequestDetails requestDetails) {
+        List<RedisKeyDetails> keys = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+        ClientLimitPlan plan = clientConfig.getLimitPlan();
+        constructRedisKeys(keys, plan.getClientLimits(), clientConfig, requestDetails);
+        constructRedisKeys(keys, plan.getEndpointLimits(requestDetails.getEndpoint()), clientConfig, requestDetails);
+        constructRedisKeys(keys, plan.getMethodLimits(requestDetails.getHttpMethod()), clientConfig, requestDetails);
         return keys;
     }
 
-    private static Set<RedisKeyDetails> constructRedisKeys(String endpoint, HttpMethod method,
-                                                           ClientConfig.RateLimits rateLimits,
-                                                           ClientConfig clientConfig, RequestDetails requestDetails) {
-        Set<RedisKeyDetails> rv = Sets.newHashSet();
-        for (RateLimitPeriod rateLimitPeriod : rateLimits.getPeriodLimits().keySet()) {
-            long nextSlot = rateLimitPeriod.wrapNext(requestDetails.getRequestTime());
-            long ttl = nextSlot - requestDetails.getRequestTime();
+    private static void constructRedisKeys(List<RedisKeyDetails> keys, ClientLimitPlan.Limits limits,
+                                           ClientConfig clientConfig, RequestDetails requestDetails) {
+        if (limits == null) {
+            return;
+        }
+        long requestTime = requestDetails.getRequestTime();
+        long cost = getCost(clientConfig, requestDetails);
+        for (int i = 0; i < limits.size(); i++) {
+            RateLimitPeriod rateLimitPeriod = limits.getPeriod(i);
+            long slotStart = rateLimitPeriod.wrap(requestTime);
+            long ttl = rateLimitPeriod.wrapNext(requestTime) - requestTime;
             RedisKeyDetails redisKeyWithTTL = new RedisKeyDetails(ttl);
-            if (endpoint != null) {
-                redisKeyWithTTL.setEndpoint(endpoint);
-            }
-            if (method != null) {
-                redisKeyWithTTL.setHttpMethod(method.name());
+            redisKeyWithTTL.setEndpoint(limits.getEndpoint());
+            if (limits.getMethod() != null) {
+                redisKeyWithTTL.setHttpMethod(limits.getMethod().name());
             }
             redisKeyWithTTL.setClientId(clientConfig.getClientId());
             redisKeyWithTTL.setPeriod(rateLimitPeriod);
-            redisKeyWithTTL.generateRedisKey(rateLimitPeriod.wrap(requestDetails.getRequestTime()));
-            rv.add(redisKeyWithTTL);
+            redisKeyWithTTL.setLimit(limits.getLimit(i));
+            redisKeyWithTTL.setIncrement(cost);
+            redisKeyWithTTL.setRedisKey(limits.getKeyPrefix(i), slotStart, limits.getKey(i, slotStart));
+            keys.add(redisKeyWithTTL);
+        }
+    }
+
+    /**
+     * A request of a batch, with its keys and, once decided, its response
+     */
+    private static class BatchItem {
+
+        private final ClientConfig clientConfig;
+        private final RequestDetails requestDetails;
+        private final List<RedisKeyDetails> redisKeys;
+        private final long cost;
+        private RateLimitResponse response;
+
+        /**
+         * Whether the permits of the request were taken from the store or a lease, and so can be given back
+         */
+        private boolean taken;
+
+        private BatchItem(ClientConfig clientConfig, RequestDetails requestDetails) {
+            this.clientConfig = clientConfig;
+            this.requestDetails = requestDetails;
+            this.redisKeys = constructRedisKeys(clientConfig, requestDetails);
+            this.cost = getCost(clientConfig, requestDetails);
         }
-        return rv;
     }
-}
\ No newline at end of file
+}
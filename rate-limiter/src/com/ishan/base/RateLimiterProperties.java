@@ -0,0 +1,52 @@
+package com.ishan.base;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The node level settings of the rate limiter. They are read from rate-limiter.properties in the classpath, if
+ * present, and can be overridden by system properties of the same name.
+ *
+ * @since 18/10/26
+ */
+public class RateLimiterProperties {
+
+    private static final String PROPERTIES_FILE = "rate-limiter.properties";
+    private static final Properties PROPERTIES = load();
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = PROPERTIES.getProperty(name);
+        }
+        return value == null ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        try (InputStream in = RateLimiterProperties.class.getClassLoader().getResourceAsStream(PROPERTIES_FILE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ishan.base;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the redis keys and the numeric arguments of the scripts straight into byte arrays, so no
+ * {@link StringBuilder} or {@link String} is created on the way to redis.
+ * <p>
+ * A key is the prefix of its limit and period ({@link ClientLimitPlan}), which starts with the client id in braces as
+ * the hash tag, followed by the slot number, which is the start of the slot in seconds, as an unsigned varint. That
+ * is 5 bytes for the current epoch seconds instead of the 13 digits of the millis.
+ *
+ * @since 18/10/26
+ */
+public class RedisKeyCodec {
+
+    /**
+     * @param prefix    The prefix of the limit and period
+     * @param slotStart The start of the slot in millis, as given by {@link RateLimitPeriod#wrap(long)}
+     * @return The key
+     */
+    public static byte[] encodeKey(byte[] prefix, long slotStart) {
+        long slot = slotStart / 1000;
+        byte[] key = new byte[prefix.length + varintLength(slot)];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        int index = prefix.length;
+        while ((slot & ~0x7FL) != 0) {
+            key[index++] = (byte) ((slot & 0x7F) | 0x80);
+            slot >>>= 7;
+        }
+        key[index] = (byte) slot;
+        return key;
+    }
+
+    /**
+     * The prefix ends with the ordinal of the period, just before the slot, whose varint bytes but the last have the
+     * high bit set.
+     *
+     * @param key A key made by {@link #encodeKey(byte[], long)}
+     * @return The period of the key, null if it is not such a key
+     */
+    public static RateLimitPeriod decodePeriod(byte[] key) {
+        int index = key.length - 2;
+        while (index >= 0 && (key[index] & 0x80) != 0) {
+            index--;
+        }
+        RateLimitPeriod[] periods = RateLimitPeriod.values();
+        return index >= 0 && key[index] < periods.length ? periods[key[index]] : null;
+    }
+
+    /**
+     * @return The decimal digits of the value in ASCII, as redis expects numbers in commands
+     */
+    public static byte[] encodeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+        }
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int length = negative ? 2 : 1;
+        for (long v = remaining; v >= 10; v /= 10) {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= (negative ? 1 : 0); i--) {
+            bytes[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+}
@@ -8,7 +8,20 @@ package com.ishan.base;
  */
 public class RedisKeyDetails {
 
-    private String key;
+    /**
+     * May be shared with the other requests of the slot, so it is never changed
+     */
+    private byte[] key;
+
+    /**
+     * The key without the slot, see {@link ClientLimitPlan.Limits#getKeyPrefix(int)}
+     */
+    private byte[] keyPrefix;
+
+    /**
+     * The start of the slot the key belongs to
+     */
+    private long slotStart;
 
     private final long ttl;
 
@@ -20,6 +33,16 @@ public class RedisKeyDetails {
 
     private RateLimitPeriod period;
 
+    /**
+     * The configured limit for this key's period
+     */
+    private long limit;
+
+    /**
+     * The amount by which the key is incremented in the store
+     */
+    private long increment = 1;
+
     public RedisKeyDetails(long ttl) {
         this.ttl = ttl;
     }
@@ -48,7 +71,7 @@ public class RedisKeyDetails {
         this.clientId = clientId;
     }
 
-    public String getKey() {
+    public byte[] getKey() {
         return key;
     }
 
@@ -64,17 +87,80 @@ public class RedisKeyDetails {
         this.period = period;
     }
 
-    public void generateRedisKey(long requestTime) {
-        StringBuilder keybuilder = new StringBuilder(clientId);
-        if (endpoint != null) {
-            keybuilder.append("_").append(endpoint);
-        }
+    public long getLimit() {
+        return limit;
+    }
+
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    public long getIncrement() {
+        return increment;
+    }
+
+    public void setIncrement(long increment) {
+        this.increment = increment;
+    }
+
+    /**
+     * @return The {@link RateLimitViolationCause} to report if this key's limit is broken
+     */
+    public RateLimitViolationCause getViolationCause() {
         if (httpMethod != null) {
-            keybuilder.append("_").append(httpMethod);
+            return RateLimitViolationCause.METHOD;
+        }
+        if (endpoint != null) {
+            return RateLimitViolationCause.ENDPOINT;
         }
-        keybuilder.append("_").append(period);
-        keybuilder.append("_").append(requestTime);
-        this.key = keybuilder.toString();
+        return RateLimitViolationCause.CLIENT;
+    }
+
+    /**
+     * @param prefix    The prefix of the key's limit and period, see {@link ClientLimitPlan.Limits#getKeyPrefix(int)}
+     * @param slotStart The start of the slot the request falls in
+     */
+    public void generateRedisKey(byte[] prefix, long slotStart) {
+        setRedisKey(prefix, slotStart, RedisKeyCodec.encodeKey(prefix, slotStart));
+    }
+
+    /**
+     * @param prefix    The prefix of the key's limit and period
+     * @param slotStart The start of the slot the request falls in
+     * @param key       The key already encoded for the slot, see {@link ClientLimitPlan.Limits#getKey(int, long)}
+     */
+    public void setRedisKey(byte[] prefix, long slotStart, byte[] key) {
+        this.keyPrefix = prefix;
+        this.slotStart = slotStart;
+        this.key = key;
+    }
+
+    /**
+     * @param key       A key of the same limit and slot
+     * @param ttl       The ttl of the key
+     * @param increment The amount by which the key is incremented
+     * @return The details of the key, with the limit and slot of these
+     */
+    public RedisKeyDetails forKey(byte[] key, long ttl, long increment) {
+        RedisKeyDetails details = new RedisKeyDetails(ttl);
+        details.key = key;
+        details.keyPrefix = keyPrefix;
+        details.slotStart = slotStart;
+        details.endpoint = endpoint;
+        details.httpMethod = httpMethod;
+        details.clientId = clientId;
+        details.period = period;
+        details.limit = limit;
+        details.increment = increment;
+        return details;
+    }
+
+    public byte[] getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public long getSlotStart() {
+        return slotStart;
     }
 
     @Override
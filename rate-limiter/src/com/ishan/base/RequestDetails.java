@@ -16,6 +16,12 @@ public class RequestDetails {
 
     private String clientId;
 
+    /**
+     * The permits the request takes from each of its limits, 0 for the cost configured for its endpoint or method,
+     * see {@link ClientLimitPlan#getCost(String, HttpMethod)}
+     */
+    private long cost;
+
     public RequestDetails(long requestTime, HttpMethod httpMethod, String endpoint, String clientId) {
         this.requestTime = requestTime;
         this.httpMethod = httpMethod;
@@ -55,6 +61,14 @@ public class RequestDetails {
         this.clientId = clientId;
     }
 
+    public long getCost() {
+        return cost;
+    }
+
+    public void setCost(long cost) {
+        this.cost = cost;
+    }
+
     public RequestDetails requestTime(final long requestTime) {
         this.requestTime = requestTime;
         return this;
@@ -74,4 +88,9 @@ public class RequestDetails {
         this.clientId = clientId;
         return this;
     }
+
+    public RequestDetails cost(final long cost) {
+        this.cost = cost;
+        return this;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.ishan.base;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Matches request paths against endpoint templates, compiled into a trie with a node per path segment.
+ * <p>
+ * A segment of a template is either a literal, a parameter which matches any one segment, written {name} or *, or **
+ * which matches all the remaining segments, none included, and ends the template. Empty segments are ignored, so a
+ * leading, trailing or doubled slash does not matter. When several templates match a path, the one with a literal
+ * where the others have a parameter wins, and a parameter wins over **, segment by segment from the start.
+ * <p>
+ * A path is matched in place by the indexes of its segments, nothing is allocated. The literal children of a node are
+ * kept in an open addressing table keyed by the hash of the segment, computed as {@link String#hashCode()} over the
+ * range of the path. It is immutable once built.
+ *
+ * @param <V> The value of a template
+ * @since 18/10/26
+ */
+class RouteTrie<V> {
+
+    private static final String DOUBLE_WILDCARD = "**";
+
+    private final Node<V> root;
+
+    private RouteTrie(Node<V> root) {
+        this.root = root;
+    }
+
+    /**
+     * @return true if the endpoint is a template rather than a plain path
+     */
+    static boolean isTemplate(String endpoint) {
+        return endpoint.indexOf('{') >= 0 || endpoint.indexOf('*') >= 0;
+    }
+
+    /**
+     * @param templates The values by their template, of templates which match the same paths the first one is kept
+     */
+    static <V> RouteTrie<V> compile(Map<String, V> templates) {
+        Builder<V> root = new Builder<>();
+        for (Map.Entry<String, V> entry : templates.entrySet()) {
+            Builder<V> node = root;
+            String template = entry.getKey();
+            boolean tail = false;
+            for (int from = skipSlashes(template, 0); from < template.length() && !tail; ) {
+                int end = segmentEnd(template, from);
+                String segment = template.substring(from, end);
+                if (segment.equals(DOUBLE_WILDCARD)) {
+                    tail = true;
+                } else if (segment.equals("*") || segment.startsWith("{") && segment.endsWith("}")) {
+                    if (node.parameter == null) {
+                        node.parameter = new Builder<>();
+                    }
+                    node = node.parameter;
+                } else {
+                    node = node.literals.computeIfAbsent(segment, s -> new Builder<>());
+                }
+                from = skipSlashes(template, end);
+            }
+            if (tail) {
+                if (node.tailValue == null) {
+                    node.tailValue = entry.getValue();
+                }
+            } else if (node.value == null) {
+                node.value = entry.getValue();
+            }
+        }
+        return new RouteTrie<>(root.build());
+    }
+
+    /**
+     * @param path The path of the request, without the query
+     * @return The value of the template matching the path, null if none does
+     */
+    V match(String path) {
+        return match(root, path, skipSlashes(path, 0));
+    }
+
+    private static <V> V match(Node<V> node, String path, int from) {
+        if (from == path.length()) {
+            return node.value != null ? node.value : node.tailValue;
+        }
+        int end = segmentEnd(path, from);
+        int next = skipSlashes(path, end);
+        Node<V> literal = node.findLiteral(path, from, end);
+        if (literal != null) {
+            V value = match(literal, path, next);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (node.parameter != null) {
+            V value = match(node.parameter, path, next);
+            if (value != null) {
+                return value;
+            }
+        }
+        return node.tailValue;
+    }
+
+    private static int segmentEnd(String path, int from) {
+        int end = path.indexOf('/', from);
+        return end < 0 ? path.length() : end;
+    }
+
+    private static int skipSlashes(String path, int from) {
+        while (from < path.length() && path.charAt(from) == '/') {
+            from++;
+        }
+        return from;
+    }
+
+    private static class Node<V> {
+
+        /**
+         * Open addressing table of the literal segments and their children, a power of 2 in size
+         */
+        private final String[] literals;
+        private final Node<V>[] children;
+        private final Node<V> parameter;
+        private final V value;
+
+        /**
+         * The value of the template ending with ** here
+         */
+        private final V tailValue;
+
+        private Node(String[] literals, Node<V>[] children, Node<V> parameter, V value, V tailValue) {
+            this.literals = literals;
+            this.children = children;
+            this.parameter = parameter;
+            this.value = value;
+            this.tailValue = tailValue;
+        }
+
+        private Node<V> findLiteral(String path, int from, int end) {
+            if (literals.length == 0) {
+                return null;
+            }
+            int hash = 0;
+            for (int i = from; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int mask = literals.length - 1;
+            int length = end - from;
+            for (int index = mix(hash) & mask; literals[index] != null; index = (index + 1) & mask) {
+                String literal = literals[index];
+                if (literal.length() == length && literal.regionMatches(0, path, from, length)) {
+                    return children[index];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static class Builder<V> {
+
+        private final Map<String, Builder<V>> literals = new LinkedHashMap<>();
+        private Builder<V> parameter;
+        private V value;
+        private V tailValue;
+
+        @SuppressWarnings("unchecked")
+        private Node<V> build() {
+            int size = literals.isEmpty() ? 0 : Integer.highestOneBit(literals.size() * 2 - 1) << 1;
+            String[] table = new String[size];
+            Node<V>[] children = new Node[size];
+            for (Map.Entry<String, Builder<V>> entry : literals.entrySet()) {
+                int index = mix(entry.getKey().hashCode()) & (size - 1);
+                while (table[index] != null) {
+                    index = (index + 1) & (size - 1);
+                }
+                table[index] = entry.getKey();
+                children[index] = entry.getValue().build();
+            }
+            return new Node<>(table, children, parameter == null ? null : parameter.build(), value, tailValue);
+        }
+    }
+}
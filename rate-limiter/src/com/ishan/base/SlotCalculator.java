@@ -0,0 +1,176 @@
+package com.ishan.base;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Computes the start and the end of the slot of a {@link RateLimitPeriod} with long arithmetic on the epoch millis.
+ * <p>
+ * The offset of the zone is cached along with the instants between which it holds (the previous and the next
+ * transition), so SECOND to WEEK are a floor on the local millis. A slot which crosses an offset transition, which
+ * only happens around daylight saving changes, is computed exactly with java.time instead. The bounds of the current
+ * month are cached too and only recomputed once a time falls outside them.
+ * <p>
+ * The zone is set with ratelimit.timezone and defaults to UTC, so that all nodes agree on the slots whatever their
+ * own default zone is.
+ *
+ * @since 18/10/26
+ */
+public class SlotCalculator {
+
+    static final SlotCalculator DEFAULT = new SlotCalculator(
+            ZoneId.of(RateLimiterProperties.getString("ratelimit.timezone", "UTC")));
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+    private static final long MILLIS_PER_WEEK = 7 * MILLIS_PER_DAY;
+
+    /**
+     * 1970-01-01 was a Thursday, this many days after the Monday starting its week
+     */
+    private static final long EPOCH_DAY_OF_WEEK = 3;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+
+    private volatile Window offsetWindow = new Window(0, 0, 0);
+    private volatile Window monthWindow = new Window(0, 0, 0);
+
+    public SlotCalculator(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @return The start of the slot of the period that the time falls in
+     */
+    public long slotStart(RateLimitPeriod period, long time) {
+        switch (period) {
+            case SECOND:
+                return floor(time, MILLIS_PER_SECOND, offsetAt(time));
+            case MINUTE:
+                return floor(time, MILLIS_PER_MINUTE, offsetAt(time));
+            case HOUR:
+                return floor(time, MILLIS_PER_HOUR, offsetAt(time));
+            case DAY:
+                return exactIfCrossing(period, time, floor(time, MILLIS_PER_DAY, offsetAt(time)), MILLIS_PER_DAY,
+                        true);
+            case WEEK:
+                return exactIfCrossing(period, time, weekStart(time, offsetAt(time)), MILLIS_PER_WEEK, true);
+            case MONTH:
+                return month(time).start;
+            default:
+                throw new IllegalArgumentException("This period is not yet supported");
+        }
+    }
+
+    /**
+     * @return The start of the slot of the period after the one that the time falls in
+     */
+    public long slotEnd(RateLimitPeriod period, long time) {
+        switch (period) {
+            case SECOND:
+                return floor(time, MILLIS_PER_SECOND, offsetAt(time)) + MILLIS_PER_SECOND;
+            case MINUTE:
+                return floor(time, MILLIS_PER_MINUTE, offsetAt(time)) + MILLIS_PER_MINUTE;
+            case HOUR:
+                return floor(time, MILLIS_PER_HOUR, offsetAt(time)) + MILLIS_PER_HOUR;
+            case DAY:
+                return exactIfCrossing(period, time, floor(time, MILLIS_PER_DAY, offsetAt(time)), MILLIS_PER_DAY,
+                        false);
+            case WEEK:
+                return exactIfCrossing(period, time, weekStart(time, offsetAt(time)), MILLIS_PER_WEEK, false);
+            case MONTH:
+                return month(time).end;
+            default:
+                throw new IllegalArgumentException("This period is not yet supported");
+        }
+    }
+
+    private static long floor(long time, long unit, long offset) {
+        return time - Math.floorMod(time + offset, unit);
+    }
+
+    private static long weekStart(long time, long offset) {
+        long localDay = Math.floorDiv(time + offset, MILLIS_PER_DAY);
+        long dayOfWeek = Math.floorMod(localDay + EPOCH_DAY_OF_WEEK, 7);
+        return (localDay - dayOfWeek) * MILLIS_PER_DAY - offset;
+    }
+
+    /**
+     * Days and weeks are the only fixed length slots an offset transition can fall in. The arithmetic bounds are used
+     * when the whole slot lies within the cached offset window, else the slot is computed exactly.
+     */
+    private long exactIfCrossing(RateLimitPeriod period, long time, long start, long length, boolean wantStart) {
+        Window window = offsetWindow;
+        if (start >= window.start && start + length <= window.end) {
+            return wantStart ? start : start + length;
+        }
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(zone).truncatedTo(ChronoUnit.DAYS);
+        if (period == RateLimitPeriod.WEEK) {
+            dateTime = dateTime.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+        ZonedDateTime slot = wantStart ? dateTime : dateTime.plus(1, period == RateLimitPeriod.WEEK
+                ? ChronoUnit.WEEKS : ChronoUnit.DAYS);
+        return slot.toInstant().toEpochMilli();
+    }
+
+    private long offsetAt(long time) {
+        Window window = offsetWindow;
+        if (time >= window.start && time < window.end) {
+            return window.value;
+        }
+        Instant instant = Instant.ofEpochMilli(time);
+        ZoneOffset offset = rules.getOffset(instant);
+        // The transition at exactly this instant, if any, is the one that started the current offset
+        ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        window = new Window(previous == null ? Long.MIN_VALUE : previous.toEpochSecond() * MILLIS_PER_SECOND,
+                next == null ? Long.MAX_VALUE : next.toEpochSecond() * MILLIS_PER_SECOND,
+                offset.getTotalSeconds() * MILLIS_PER_SECOND);
+        offsetWindow = window;
+        return window.value;
+    }
+
+    private Window month(long time) {
+        Window window = monthWindow;
+        if (time >= window.start && time < window.end) {
+            return window;
+        }
+        ZonedDateTime monthStart = Instant.ofEpochMilli(time).atZone(zone).withDayOfMonth(1)
+                .truncatedTo(ChronoUnit.DAYS);
+        window = new Window(monthStart.toInstant().toEpochMilli(),
+                monthStart.plusMonths(1).toInstant().toEpochMilli(), 0);
+        monthWindow = window;
+        return window;
+    }
+
+    /**
+     * An immutable [start, end) range of millis with a value, published as a whole through a volatile field
+     */
+    private static class Window {
+
+        private final long start;
+        private final long end;
+        private final long value;
+
+        private Window(long start, long end, long value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.ishan.base;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Expires node local state by the slots of the {@link RateLimitPeriod}s, with no timer or queue entry per key.
+ * <p>
+ * The wheel has a level per period, and a level holds the generations of that period which have not ended yet, each a
+ * container of the caller's choice (a map, a table). A generation spans a slot, from its start (excluded) to its end,
+ * {@link RateLimitPeriod#wrapNext(long)}, and holds the entries expiring within it. As the keys contain their slot,
+ * the entries of a fixed window slot all expire together and all land in one generation. Once its end has passed, a
+ * generation is dropped whole, in O(1) whatever the number of its entries, and is left to the garbage collector.
+ * <p>
+ * An entry may be dropped up to a slot after its own expiry, for the sliding window and GCRA ttls which do not end
+ * on a boundary, so the callers which care compare it to the time still. Only a few generations of a period are
+ * alive at once, so a lookup of a key of a period tries those few containers.
+ * <p>
+ * It is advanced by the calls made on it, no thread is needed. Lookups do not lock, a generation is created or
+ * dropped under a {@link ReentrantLock}, which happens once per slot of each period in use.
+ *
+ * @param <T> The container of the entries of a generation
+ * @since 18/10/26
+ */
+public class SlotExpiryWheel<T> {
+
+    private static final RateLimitPeriod[] PERIODS = RateLimitPeriod.values();
+
+    private final Supplier<T> newGeneration;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The generations of each period by ordinal, by their end ascending, copied on write
+     */
+    private volatile Generation<T>[][] levels;
+
+    /**
+     * The earliest end of all the generations, {@link Long#MAX_VALUE} if there is none
+     */
+    private volatile long nextEnd = Long.MAX_VALUE;
+
+    /**
+     * @param newGeneration Creates the empty container of a new generation
+     */
+    @SuppressWarnings("unchecked")
+    public SlotExpiryWheel(Supplier<T> newGeneration) {
+        this.newGeneration = newGeneration;
+        Generation<T>[][] empty = new Generation[PERIODS.length][];
+        for (int i = 0; i < empty.length; i++) {
+            empty[i] = new Generation[0];
+        }
+        this.levels = empty;
+    }
+
+    /**
+     * @param period    The period of the entry
+     * @param expiresAt The time the entry expires
+     * @param now       The current time
+     * @return The container of the generation of the period the entry expires in, created if needed
+     */
+    public T getGeneration(RateLimitPeriod period, long expiresAt, long now) {
+        advance(now);
+        Generation<T> generation = findGeneration(levels[period.ordinal()], expiresAt);
+        if (generation != null) {
+            return generation.value;
+        }
+        lock.lock();
+        try {
+            Generation<T>[] generations = levels[period.ordinal()];
+            generation = findGeneration(generations, expiresAt);
+            if (generation == null) {
+                generation = new Generation<>(period.wrap(expiresAt - 1), period.wrapNext(expiresAt - 1),
+                        newGeneration.get());
+                int index = 0;
+                while (index < generations.length && generations[index].end < generation.end) {
+                    index++;
+                }
+                Generation<T>[] updated = Arrays.copyOf(generations, generations.length + 1);
+                System.arraycopy(generations, index, updated, index + 1, generations.length - index);
+                updated[index] = generation;
+                Generation<T>[][] updatedLevels = levels.clone();
+                updatedLevels[period.ordinal()] = updated;
+                levels = updatedLevels;
+                nextEnd = Math.min(nextEnd, generation.end);
+            }
+            return generation.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks up a key of the period in the generations which have not ended, the latest first
+     *
+     * @param period The period of the key
+     * @param now    The current time
+     * @param lookup Looks up the key in the container of a generation, null if it is not there
+     * @return The first value the lookup finds, null if none does
+     */
+    public <V> V find(RateLimitPeriod period, long now, Function<? super T, ? extends V> lookup) {
+        advance(now);
+        Generation<T>[] generations = levels[period.ordinal()];
+        for (int i = generations.length - 1; i >= 0 && generations[i].end > now; i--) {
+            V value = lookup.apply(generations[i].value);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if there is no generation at all
+     */
+    public boolean isEmpty() {
+        return nextEnd == Long.MAX_VALUE;
+    }
+
+    /**
+     * Drops the generations which have ended
+     */
+    public void advance(long now) {
+        if (now < nextEnd) {
+            return;
+        }
+        lock.lock();
+        try {
+            long earliest = Long.MAX_VALUE;
+            Generation<T>[][] updatedLevels = levels.clone();
+            for (int i = 0; i < updatedLevels.length; i++) {
+                Generation<T>[] generations = updatedLevels[i];
+                int ended = 0;
+                while (ended < generations.length && generations[ended].end <= now) {
+                    ended++;
+                }
+                if (ended > 0) {
+                    generations = Arrays.copyOfRange(generations, ended, generations.length);
+                    updatedLevels[i] = generations;
+                }
+                if (generations.length > 0) {
+                    earliest = Math.min(earliest, generations[0].end);
+                }
+            }
+            levels = updatedLevels;
+            nextEnd = earliest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static <T> Generation<T> findGeneration(Generation<T>[] generations, long expiresAt) {
+        for (int i = generations.length - 1; i >= 0; i--) {
+            if (generations[i].start < expiresAt && expiresAt <= generations[i].end) {
+                return generations[i];
+            }
+        }
+        return null;
+    }
+
+    private static class Generation<T> {
+
+        private final long start;
+        private final long end;
+        private final T value;
+
+        private Generation(long start, long end, T value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+}
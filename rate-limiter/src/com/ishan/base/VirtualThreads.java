@@ -0,0 +1,78 @@
+package com.ishan.base;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executors on which the blocking calls to redis are made. Where the JVM has virtual threads (JDK 21 or
+ * later) and ratelimit.virtualThreads is on, every task runs on a virtual thread of its own, so a call waiting on
+ * redis holds no platform thread and their number needs no tuning. Otherwise the tasks run on a fixed pool of daemon
+ * threads as before. Virtual threads are looked up when the class is loaded, so the module still runs on JDK 17.
+ * <p>
+ * The code run on these executors waits with {@link java.util.concurrent.locks.ReentrantLock}s, semaphores and
+ * futures, never inside a synchronized block, which would pin a virtual thread to its carrier.
+ *
+ * @since 18/10/26
+ */
+public class VirtualThreads {
+
+    private static final boolean ENABLED = RateLimiterProperties.getBoolean("ratelimit.virtualThreads", true);
+
+    /**
+     * Thread.ofVirtual(), Thread.Builder.name(String, long), Thread.Builder.factory() and
+     * Executors.newThreadPerTaskExecutor(ThreadFactory), null if the JVM has no virtual threads
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    /**
+     * @return true if the executors run their tasks on virtual threads
+     */
+    public static boolean isEnabled() {
+        return ENABLED && OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param namePrefix      The prefix of the names of the threads, followed by their number
+     * @param platformThreads The size of the pool of daemon threads used without virtual threads
+     * @return An executor running each task on a virtual thread of its own, or on a pool of platform threads
+     */
+    public static ExecutorService newExecutor(String namePrefix, int platformThreads) {
+        if (isEnabled()) {
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+                return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, FACTORY.invoke(builder));
+            } catch (ReflectiveOperationException e) {
+                throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
+            }
+        }
+        return Executors.newFixedThreadPool(platformThreads,
+                new ThreadFactoryBuilder().setNameFormat(namePrefix + "%d").setDaemon(true).build());
+    }
+}
@@ -0,0 +1,49 @@
+package com.ishan.bus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The messages delivered within the process, for a single node or for tests. A message is handed to the listeners
+ * of its channel on the publishing thread, before {@link #publishAsync} returns.
+ *
+ * @since 18/10/26
+ */
+public class InMemoryMessageBus implements MessageBus {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryMessageBus.class);
+
+    private final ConcurrentMap<ByteBuffer, List<Consumer<byte[]>>> channelVsListeners = new ConcurrentHashMap<>();
+
+    @Override
+    public CompletableFuture<Long> publishAsync(byte[] channel, byte[] message) {
+        List<Consumer<byte[]>> listeners = channelVsListeners.get(ByteBuffer.wrap(channel));
+        if (listeners == null) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        for (Consumer<byte[]> listener : listeners) {
+            try {
+                listener.accept(message.clone());
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not handle a message of channel " + new String(channel, StandardCharsets.UTF_8),
+                        e);
+            }
+        }
+        return CompletableFuture.completedFuture((long) listeners.size());
+    }
+
+    @Override
+    public void subscribe(byte[] channel, Consumer<byte[]> listener) {
+        channelVsListeners.computeIfAbsent(ByteBuffer.wrap(channel.clone()), key -> new CopyOnWriteArrayList<>())
+                .add(listener);
+    }
+}
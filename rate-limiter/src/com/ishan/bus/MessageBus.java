@@ -0,0 +1,31 @@
+package com.ishan.bus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * How the nodes tell each other about blocked limits, heavy hitters and changed client configs, redis pub/sub by
+ * default, see {@link MessageBuses}. Other implementations can be plugged in with ratelimit.messageBus. A message may
+ * be lost, e.g. while a node is not subscribed, so it is only ever a hint which the node could also have found
+ * itself.
+ *
+ * @since 18/10/26
+ */
+public interface MessageBus {
+
+    /**
+     * Publishes the message to every subscriber of the channel, this node's included
+     *
+     * @return The future which completes with the number of subscribers which got the message
+     */
+    CompletableFuture<Long> publishAsync(byte[] channel, byte[] message);
+
+    /**
+     * Calls the listener with every message published on the channel from now on. A listener which throws only loses
+     * its message.
+     *
+     * @param channel  The channel to subscribe to
+     * @param listener Called with every message, on a thread of the bus
+     */
+    void subscribe(byte[] channel, Consumer<byte[]> listener);
+}
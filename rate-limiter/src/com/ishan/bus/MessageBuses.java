@@ -0,0 +1,31 @@
+package com.ishan.bus;
+
+import com.ishan.base.RateLimiterProperties;
+import com.ishan.redis.RedisMessageBus;
+
+/**
+ * Provides the {@link MessageBus} configured for the node: the class named in ratelimit.messageBus, which needs a
+ * public no argument constructor, e.g. {@link InMemoryMessageBus}, if set, else the pub/sub of redis.host.
+ *
+ * @since 18/10/26
+ */
+public class MessageBuses {
+
+    private static final MessageBus DEFAULT = create();
+
+    public static MessageBus getDefault() {
+        return DEFAULT;
+    }
+
+    private static MessageBus create() {
+        String className = RateLimiterProperties.getString("ratelimit.messageBus", "");
+        if (!className.isEmpty()) {
+            try {
+                return Class.forName(className).asSubclass(MessageBus.class).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Not a message bus " + className, e);
+            }
+        }
+        return new RedisMessageBus();
+    }
+}
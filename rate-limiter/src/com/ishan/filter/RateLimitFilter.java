@@ -1,7 +1,7 @@
 package com.ishan.filter;
 
 import com.ishan.base.*;
-import com.sun.jndi.toolkit.url.Uri;
+import com.ishan.metrics.RateLimiterMetrics;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,7 +10,7 @@ import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author ishanjain
@@ -20,13 +20,100 @@ public class RateLimitFilter implements Filter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitFilter.class);
 
+    /**
+     * The init param which turns on the async mode. In async mode the container thread is released with
+     * {@link ServletRequest#startAsync()} while the rate limits are being checked, and the request is dispatched
+     * again once it is known to be within them.
+     */
+    private static final String ASYNC_PARAM = "async";
+    private static final String RATE_LIMIT_RESPONSE_ATTRIBUTE = RateLimitFilter.class.getName() + ".response";
+    /**
+     * The {@link ConcurrencyLimiter.Permit} taken by a request validated in async mode
+     */
+    private static final String PERMIT_ATTRIBUTE = RateLimitFilter.class.getName() + ".permit";
+    /**
+     * The source of the heavy hitter keys which is the address of the caller, the others name a header as header:Name
+     */
+    private static final String IP_SOURCE = "ip";
+    private static final String HEADER_SOURCE_PREFIX = "header:";
+
+    private final RateLimitValidator rateLimitValidator = new RateLimitValidator();
+
+    private boolean async;
+
+    /**
+     * Set when ratelimit.heavyHitters.enabled is on, see {@link HeavyHitterDetector}
+     */
+    private HeavyHitterDetector heavyHitterDetector;
+
+    /**
+     * Parallel arrays of the sources of ratelimit.heavyHitters.keys, the header of each, null for the address of the
+     * caller, and the prefix of its keys
+     */
+    private String[] heavyHitterHeaders;
+    private String[] heavyHitterKeyPrefixes;
+
+    /**
+     * Set when ratelimit.concurrency.enabled is on, see {@link ConcurrencyLimiter}
+     */
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        async = Boolean.parseBoolean(filterConfig.getInitParameter(ASYNC_PARAM));
+        if (RateLimiterProperties.getBoolean("ratelimit.heavyHitters.enabled", false)) {
+            String[] sources = StringUtils.split(RateLimiterProperties.getString("ratelimit.heavyHitters.keys",
+                    IP_SOURCE), ',');
+            heavyHitterHeaders = new String[sources.length];
+            heavyHitterKeyPrefixes = new String[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                String source = sources[i].trim();
+                if (source.startsWith(HEADER_SOURCE_PREFIX)) {
+                    heavyHitterHeaders[i] = source.substring(HEADER_SOURCE_PREFIX.length());
+                } else if (!source.equals(IP_SOURCE)) {
+                    throw new IllegalArgumentException("Unknown source of heavy hitter keys " + source);
+                }
+                heavyHitterKeyPrefixes[i] = source + ":";
+            }
+            heavyHitterDetector = new HeavyHitterDetector(rateLimitValidator);
+        }
+        if (RateLimiterProperties.getBoolean("ratelimit.concurrency.enabled", false)) {
+            concurrencyLimiter = new ConcurrencyLimiter();
+        }
+        if (RateLimiterProperties.getBoolean("config.warmup.enabled", true)) {
+            ClientConfigProvider.warmUpAsync().whenComplete((loaded, throwable) -> {
+                if (throwable != null) {
+                    LOGGER.error("Could not warm up the client configs", throwable);
+                } else {
+                    LOGGER.info("Warmed up the configs of {} clients", loaded);
+                }
+            });
+        }
+    }
+
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
             throws IOException, ServletException {
+        if (request.getDispatcherType() == DispatcherType.ASYNC
+                && request.getAttribute(RATE_LIMIT_RESPONSE_ATTRIBUTE) != null) {
+            // This request has been dispatched again after its async validation let it through
+            doFilterLimited((HttpServletRequest) request, (HttpServletResponse) response, chain,
+                    (ConcurrencyLimiter.Permit) request.getAttribute(PERMIT_ATTRIBUTE));
+            return;
+        }
+
+        long start = RateLimiterMetrics.startNanos();
         HttpServletRequest httpServletRequest = (HttpServletRequest) request;
         HttpServletResponse httpServletResponse = (HttpServletResponse) response;
 
-        String requestURI = httpServletRequest.getRequestURI();
+        if (heavyHitterDetector != null) {
+            RateLimitResponse heavyHitterResponse = validateHeavyHitters(httpServletRequest);
+            if (heavyHitterResponse != null) {
+                RateLimiterMetrics.recordFilterLatency(start);
+                sendRateLimitExceeded(httpServletResponse, heavyHitterResponse);
+                return;
+            }
+        }
 
         String clientId = extractClientId(httpServletRequest);
 
@@ -37,37 +124,291 @@ public class RateLimitFilter implements Filter {
             String method = httpServletRequest.getMethod();
             HttpMethod httpMethod = HttpMethod.valueOf(method);
 
-            ClientConfig clientConfig = ClientConfigProvider.getClientConfig(clientId);
-
             long currentTime = System.currentTimeMillis();
 
-            String endpoint = extractEndPoint(requestURI);
+            String endpoint = extractEndPoint(httpServletRequest);
+
+            RequestDetails requestDetails = new RequestDetails(currentTime, httpMethod, endpoint, clientId);
 
-            RateLimitResponse rateLimitResponse = RateLimitValidator
-                    .validateRateLimited(clientConfig, new RequestDetails(currentTime, httpMethod, endpoint, clientId));
+            if (async && request.isAsyncSupported()) {
+                validateAsync(httpServletRequest, requestDetails, start);
+                return;
+            }
+
+            ClientConfig clientConfig;
+            try {
+                clientConfig = ClientConfigProvider.getClientConfig(clientId);
+            } catch (RuntimeException e) {
+                RateLimiterMetrics.recordFilterLatency(start);
+                if (allowWithoutConfig(httpServletResponse, clientId, e)) {
+                    ConcurrencyLimiter.Permit permit = acquire(clientId, null);
+                    if (isRefused(permit)) {
+                        sendTooManyInFlight(httpServletResponse);
+                    } else {
+                        doFilterLimited(httpServletRequest, httpServletResponse, chain, permit);
+                    }
+                }
+                return;
+            }
+            if (clientConfig == null) {
+                sendUnknownClient(httpServletResponse);
+                return;
+            }
+
+            ConcurrencyLimiter.Permit permit = acquire(clientId, getRoute(clientConfig, endpoint));
+            if (isRefused(permit)) {
+                RateLimiterMetrics.recordFilterLatency(start);
+                sendTooManyInFlight(httpServletResponse);
+                return;
+            }
+
+            RateLimitResponse rateLimitResponse;
+            try {
+                rateLimitResponse = rateLimitValidator.validateRateLimited(clientConfig, requestDetails);
+            } catch (RuntimeException e) {
+                cancel(permit);
+                throw e;
+            }
+            RateLimiterMetrics.recordFilterLatency(start);
 
             boolean rateLimitReached = rateLimitResponse.getRateLimitReached();
 
             if (rateLimitReached) {
-                httpServletResponse
-                        .sendError(429, "Rate limit exceeded for period " + rateLimitResponse.getRateLimitPeriod());
+                cancel(permit);
+                sendRateLimitExceeded(httpServletResponse, rateLimitResponse);
             } else {
-                chain.doFilter(request, response);
+                doFilterLimited(httpServletRequest, httpServletResponse, chain, permit);
             }
         }
     }
 
-    private String extractClientId(HttpServletRequest httpServletRequest) {
-        return httpServletRequest.getHeader("clientId");
+    /**
+     * Puts the request in async mode and validates it without holding the container thread. A request within the
+     * limits is dispatched again, and passed down the chain by {@link #doFilter}, the rest are completed here.
+     */
+    private void validateAsync(HttpServletRequest request, RequestDetails requestDetails, long start) {
+        AsyncContext asyncContext = request.startAsync();
+        String clientId = requestDetails.getClientId();
+        ClientConfigProvider.getClientConfigAsync(clientId).whenComplete((clientConfig, failure) -> {
+            if (failure != null || clientConfig == null) {
+                RateLimiterMetrics.recordFilterLatency(start);
+                completeWithoutConfig(request, asyncContext, clientId, failure);
+                return;
+            }
+            ConcurrencyLimiter.Permit permit = acquire(clientId, getRoute(clientConfig, requestDetails.getEndpoint()));
+            if (isRefused(permit)) {
+                RateLimiterMetrics.recordFilterLatency(start);
+                completeTooManyInFlight(asyncContext, clientId);
+                return;
+            }
+            CompletableFuture.completedFuture(clientConfig)
+                    .thenCompose(config -> rateLimitValidator.validateRateLimitedAsync(config, requestDetails))
+                    .whenComplete((rateLimitResponse, throwable) -> {
+                        RateLimiterMetrics.recordFilterLatency(start);
+                        HttpServletResponse httpServletResponse = (HttpServletResponse) asyncContext.getResponse();
+                        try {
+                            if (throwable != null) {
+                                cancel(permit);
+                                LOGGER.error("Could not validate rate limits for client " + clientId, throwable);
+                                httpServletResponse.sendError(500, "Could not validate rate limits");
+                                asyncContext.complete();
+                            } else if (rateLimitResponse.getRateLimitReached()) {
+                                cancel(permit);
+                                sendRateLimitExceeded(httpServletResponse, rateLimitResponse);
+                                asyncContext.complete();
+                            } else {
+                                request.setAttribute(PERMIT_ATTRIBUTE, permit);
+                                request.setAttribute(RATE_LIMIT_RESPONSE_ATTRIBUTE, rateLimitResponse);
+                                asyncContext.dispatch();
+                            }
+                        } catch (IOException e) {
+                            LOGGER.error("Could not send the response for client " + clientId, e);
+                            asyncContext.complete();
+                        }
+                    });
+        });
     }
 
-    private String extractEndPoint(String requestUri) {
+    /**
+     * Completes an async request whose client has no config, or whose config could not be loaded, see
+     * {@link #allowWithoutConfig}
+     *
+     * @param failure Why the config could not be loaded, null if the client has none
+     */
+    private void completeWithoutConfig(HttpServletRequest request, AsyncContext asyncContext, String clientId,
+                                       Throwable failure) {
+        HttpServletResponse httpServletResponse = (HttpServletResponse) asyncContext.getResponse();
         try {
-            Uri uri = new Uri(requestUri);
-            return uri.getPath();
-        } catch (MalformedURLException e) {
-            LOGGER.error("Malformed URL, should not have happened " + requestUri, e);
+            if (failure == null) {
+                sendUnknownClient(httpServletResponse);
+            } else if (allowWithoutConfig(httpServletResponse, clientId, failure)) {
+                ConcurrencyLimiter.Permit permit = acquire(clientId, null);
+                if (isRefused(permit)) {
+                    sendTooManyInFlight(httpServletResponse);
+                } else {
+                    request.setAttribute(PERMIT_ATTRIBUTE, permit);
+                    request.setAttribute(RATE_LIMIT_RESPONSE_ATTRIBUTE, RateLimitResponse.withRateLimitNotReached());
+                    asyncContext.dispatch();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not send the response for client " + clientId, e);
+        }
+        asyncContext.complete();
+    }
+
+    /**
+     * Decides a request whose client config could not be loaded, as redis is unavailable, by ratelimit.degradedMode,
+     * since neither the client nor its limits are known: FAIL_CLOSED rejects it with a 503, the others let it through
+     * without counting it.
+     *
+     * @return Whether the request can be passed down the chain, else the response has been sent
+     */
+    private boolean allowWithoutConfig(HttpServletResponse response, String clientId, Throwable failure)
+            throws IOException {
+        LOGGER.warn("Could not load the config of client " + clientId, failure);
+        RateLimiterMetrics.recordDegraded();
+        if (RateLimitValidator.getDefaultDegradedMode() == DegradedModePolicy.FAIL_CLOSED) {
+            response.sendError(503, "Could not load the client config");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a place for the request in the concurrency limits of its client and of the endpoint or template it
+     * matches. It is taken before the rate limits are checked, so that a request refused for its concurrency takes
+     * none of their permits, and it is cancelled if the rate limits then refuse the request.
+     *
+     * @param route The endpoint or template, see {@link #getRoute(ClientConfig, String)}
+     * @return The {@link ConcurrencyLimiter.Permit}, null if there is no concurrency limiter or a limit is reached,
+     * see {@link #isRefused}
+     */
+    private ConcurrencyLimiter.Permit acquire(String clientId, String route) {
+        return concurrencyLimiter == null ? null : concurrencyLimiter.tryAcquire(clientId, route);
+    }
+
+    /**
+     * @return Whether the concurrency limits refused the request which got the permit
+     */
+    private boolean isRefused(ConcurrencyLimiter.Permit permit) {
+        return concurrencyLimiter != null && permit == null;
+    }
+
+    private void cancel(ConcurrencyLimiter.Permit permit) {
+        if (permit != null) {
+            permit.cancel();
+        }
+    }
+
+    /**
+     * @return The endpoint or template which the endpoint matches in the config, only looked up if there is a
+     * concurrency limiter, see {@link ClientLimitPlan#getRoute}
+     */
+    private String getRoute(ClientConfig clientConfig, String endpoint) {
+        return concurrencyLimiter == null ? null : clientConfig.getLimitPlan().getRoute(endpoint);
+    }
+
+    /**
+     * Passes the request within the limits down the chain. The latency of the request, from when it took its place in
+     * the concurrency limits until the response is complete if the chain goes async, adapts the limits, and a request
+     * which throws or ends in a 5xx counts as a failure.
+     *
+     * @param permit The place taken in the concurrency limits, null if there are none
+     */
+    private void doFilterLimited(HttpServletRequest request, HttpServletResponse response, FilterChain chain,
+                                 ConcurrencyLimiter.Permit permit) throws IOException, ServletException {
+        if (permit == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            permit.release(true);
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    permit.release(response.getStatus() >= 500);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    permit.release(true);
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    permit.release(true);
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                    event.getAsyncContext().addListener(this);
+                }
+            });
+        } else {
+            permit.release(response.getStatus() >= 500);
+        }
+    }
+
+    /**
+     * Counts the request against its key from each source, whether or not it has a client id
+     *
+     * @return The response of the first key which is a heavy hitter over its limits, null if there is none
+     */
+    private RateLimitResponse validateHeavyHitters(HttpServletRequest request) {
+        long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < heavyHitterHeaders.length; i++) {
+            String value = heavyHitterHeaders[i] == null ? request.getRemoteAddr()
+                    : request.getHeader(heavyHitterHeaders[i]);
+            if (StringUtils.isEmpty(value)) {
+                continue;
+            }
+            RateLimitResponse response = heavyHitterDetector.validateRateLimited(heavyHitterKeyPrefixes[i] + value,
+                    currentTime);
+            if (response != null && response.getRateLimitReached()) {
+                return response;
+            }
         }
         return null;
     }
+
+    private void completeTooManyInFlight(AsyncContext asyncContext, String clientId) {
+        try {
+            sendTooManyInFlight((HttpServletResponse) asyncContext.getResponse());
+        } catch (IOException e) {
+            LOGGER.error("Could not send the response for client " + clientId, e);
+        }
+        asyncContext.complete();
+    }
+
+    private void sendTooManyInFlight(HttpServletResponse httpServletResponse) throws IOException {
+        httpServletResponse.sendError(503, "Too many requests in flight");
+    }
+
+    private void sendUnknownClient(HttpServletResponse httpServletResponse) throws IOException {
+        httpServletResponse.sendError(403, "Unauthorized: Unknown client id");
+    }
+
+    private void sendRateLimitExceeded(HttpServletResponse httpServletResponse, RateLimitResponse rateLimitResponse)
+            throws IOException {
+        httpServletResponse.sendError(429, "Rate limit exceeded for period " + rateLimitResponse.getRateLimitPeriod());
+    }
+
+    private String extractClientId(HttpServletRequest httpServletRequest) {
+        return httpServletRequest.getHeader("clientId");
+    }
+
+    /**
+     * The path of the request within the application, normalized as the endpoints of the client are written, see
+     * {@link RequestPaths}. A path which is normal already, as most are, is not copied.
+     */
+    private String extractEndPoint(HttpServletRequest httpServletRequest) {
+        return RequestPaths.getPath(httpServletRequest);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.ishan.filter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The path of a request as the endpoints of the clients are written, see {@link com.ishan.base.ClientLimitPlan}:
+ * within the application, without the context path, decoded, without path parameters such as ;jsessionid, without
+ * dot segments or repeated slashes, and without a trailing slash. So "/app/orders//1;jsessionid=x/../2/" in the
+ * context /app is "/orders/2".
+ *
+ * @since 18/10/26
+ */
+class RequestPaths {
+
+    private RequestPaths() {
+    }
+
+    /**
+     * The servlet path and the path info, which the container has already decoded and stripped of the context path.
+     * The request URI, stripped and decoded here, if the container gives neither.
+     */
+    static String getPath(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        String path;
+        if (pathInfo != null) {
+            path = servletPath == null ? pathInfo : servletPath + pathInfo;
+        } else if (servletPath != null && !servletPath.isEmpty()) {
+            path = servletPath;
+        } else {
+            String requestUri = request.getRequestURI();
+            String contextPath = request.getContextPath();
+            if (contextPath != null && requestUri.startsWith(contextPath)) {
+                requestUri = requestUri.substring(contextPath.length());
+            }
+            return normalize(decode(stripParameters(requestUri)));
+        }
+        return normalize(stripParameters(path));
+    }
+
+    /**
+     * @return The path without the parameters of its segments, each from a ; to the end of its segment
+     */
+    static String stripParameters(String path) {
+        int semicolon = path.indexOf(';');
+        if (semicolon < 0) {
+            return path;
+        }
+        StringBuilder stripped = new StringBuilder(path.length());
+        int from = 0;
+        while (semicolon >= 0) {
+            stripped.append(path, from, semicolon);
+            int slash = path.indexOf('/', semicolon);
+            if (slash < 0) {
+                return stripped.toString();
+            }
+            from = slash;
+            semicolon = path.indexOf(';', from);
+        }
+        return stripped.append(path, from, path.length()).toString();
+    }
+
+    /**
+     * Decodes the %XX escapes of the path as UTF-8. Unlike in a query, + stands for itself, and a % which starts no
+     * escape is kept as it is.
+     */
+    static String decode(String path) {
+        int percent = path.indexOf('%');
+        if (percent < 0) {
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+        byte[] raw = path.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < raw.length; i++) {
+            int high = i + 2 < raw.length && raw[i] == '%' ? Character.digit(raw[i + 1], 16) : -1;
+            int low = high >= 0 ? Character.digit(raw[i + 2], 16) : -1;
+            if (low >= 0) {
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else {
+                bytes.write(raw[i]);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes the empty and . segments, and each .. segment along with the segment before it, if any. A path which
+     * needs none of it is returned as it is.
+     */
+    static String normalize(String path) {
+        if (isNormalized(path)) {
+            return path;
+        }
+        StringBuilder normalized = new StringBuilder(path.length());
+        int from = 0;
+        while (from <= path.length()) {
+            int end = path.indexOf('/', from);
+            if (end < 0) {
+                end = path.length();
+            }
+            int length = end - from;
+            if (length == 2 && path.charAt(from) == '.' && path.charAt(from + 1) == '.') {
+                int last = normalized.lastIndexOf("/");
+                if (last >= 0) {
+                    normalized.setLength(last);
+                }
+            } else if (length > 0 && !(length == 1 && path.charAt(from) == '.')) {
+                normalized.append('/').append(path, from, end);
+            }
+            from = end + 1;
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    private static boolean isNormalized(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/' || (path.length() > 1 && path.charAt(path.length() - 1) == '/')) {
+            return false;
+        }
+        for (int i = 1; i < path.length(); i++) {
+            char previous = path.charAt(i - 1);
+            if (previous == '/' && (path.charAt(i) == '/' || path.charAt(i) == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
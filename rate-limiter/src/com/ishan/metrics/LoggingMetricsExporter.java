@@ -0,0 +1,19 @@
+package com.ishan.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs every snapshot at info level
+ *
+ * @since 18/10/26
+ */
+public class LoggingMetricsExporter implements MetricsExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggingMetricsExporter.class);
+
+    @Override
+    public void export(MetricsSnapshot snapshot) {
+        LOGGER.info("Rate limiter metrics {}", snapshot);
+    }
+}
@@ -0,0 +1,57 @@
+package com.ishan.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A histogram which many threads record into without locking, see {@link Recorder}. The values are taken out once
+ * per report interval by {@link #roll()}, and the snapshot of the last interval is kept for the readers.
+ *
+ * @since 18/10/26
+ */
+public class MetricHistogram {
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final String name;
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private Histogram interval;
+    private volatile HistogramSnapshot last = HistogramSnapshot.EMPTY;
+
+    MetricHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long value) {
+        recorder.recordValue(Math.max(0, value));
+    }
+
+    /**
+     * Records the time since the start, in micros
+     *
+     * @param startNanos The start, as given by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * @return The snapshot of the last report interval
+     */
+    public HistogramSnapshot getLast() {
+        return last;
+    }
+
+    /**
+     * Ends the current interval, only called by the reporter thread
+     */
+    HistogramSnapshot roll() {
+        interval = recorder.getIntervalHistogram(interval);
+        last = HistogramSnapshot.of(interval);
+        return last;
+    }
+}
@@ -0,0 +1,15 @@
+package com.ishan.metrics;
+
+/**
+ * Sends the metrics somewhere, e.g. to a time series store. Exporters are listed by class name in metrics.exporters,
+ * and need a public no arg constructor, or are added with {@link RateLimiterMetrics#addExporter(MetricsExporter)}.
+ * <p>
+ * They are called on the reporter thread at the end of every report interval, so a slow exporter delays the others
+ * but never a request.
+ *
+ * @since 18/10/26
+ */
+public interface MetricsExporter {
+
+    void export(MetricsSnapshot snapshot);
+}
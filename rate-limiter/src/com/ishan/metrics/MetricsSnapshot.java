@@ -0,0 +1,47 @@
+package com.ishan.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * What is handed to the {@link MetricsExporter}s at the end of every report interval. The counters are the totals
+ * since the start, and the histograms hold the values of the interval only.
+ *
+ * @since 18/10/26
+ */
+public class MetricsSnapshot {
+
+    private final long time;
+    private final Map<String, Long> counters;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    public MetricsSnapshot(long time, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.time = time;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return The end of the interval in epoch millis
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "time=" + time +
+                ", counters=" + counters +
+                ", histograms=" + histograms +
+                '}';
+    }
+}
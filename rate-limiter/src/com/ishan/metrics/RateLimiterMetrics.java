@@ -0,0 +1,365 @@
+package com.ishan.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RateLimitResponse;
+import com.ishan.base.RateLimitViolationCause;
+import com.ishan.base.RateLimiterProperties;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the rate limiter. The counters are {@link LongAdder}s and the distributions are HdrHistogram
+ * recorders, so recording never takes a lock and threads rarely contend on a cache line.
+ * <p>
+ * A reporter thread ends the interval of the histograms every metrics.reportIntervalSeconds and hands a
+ * {@link MetricsSnapshot} to the {@link MetricsExporter}s. The metrics are also exposed over JMX, see
+ * {@link RateLimiterMetricsMXBean}. All of it is turned off with metrics.enabled, in which case the record methods
+ * do nothing.
+ *
+ * @since 18/10/26
+ */
+public class RateLimiterMetrics {
+
+    public static final String OBJECT_NAME = "com.ishan.ratelimiter:type=RateLimiterMetrics";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimiterMetrics.class);
+
+    private static final boolean ENABLED = RateLimiterProperties.getBoolean("metrics.enabled", true);
+
+    private static final RateLimitViolationCause[] CAUSES = RateLimitViolationCause.values();
+    private static final RateLimitPeriod[] PERIODS = RateLimitPeriod.values();
+
+    private static final LongAdder allowed = new LongAdder();
+    /**
+     * Indexed by the ordinals of the cause and the period
+     */
+    private static final LongAdder[][] denied = new LongAdder[CAUSES.length][PERIODS.length];
+    private static final LongAdder blocklistRejections = new LongAdder();
+    private static final LongAdder configLookups = new LongAdder();
+    private static final LongAdder configCacheMisses = new LongAdder();
+    private static final LongAdder redisRetries = new LongAdder();
+    private static final LongAdder breakerOpens = new LongAdder();
+    private static final LongAdder degraded = new LongAdder();
+    private static final LongAdder heavyHitterEscalations = new LongAdder();
+    private static final LongAdder concurrencyRejections = new LongAdder();
+
+    /**
+     * The time of a round trip to redis, a script or a pipeline, in micros
+     */
+    private static final MetricHistogram redisLatency = new MetricHistogram("redis.latencyMicros");
+    /**
+     * The time spent waiting for a connection from the pool, in micros
+     */
+    private static final MetricHistogram poolWait = new MetricHistogram("redis.poolWaitMicros");
+    private static final MetricHistogram keysPerRequest = new MetricHistogram("request.keys");
+    /**
+     * The time a request spends in the filter, not counting the rest of the chain, in micros
+     */
+    private static final MetricHistogram filterLatency = new MetricHistogram("filter.latencyMicros");
+    private static final MetricHistogram[] histograms = {redisLatency, poolWait, keysPerRequest, filterLatency};
+
+    private static final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    static {
+        for (int i = 0; i < CAUSES.length; i++) {
+            for (int j = 0; j < PERIODS.length; j++) {
+                denied[i][j] = new LongAdder();
+            }
+        }
+        if (ENABLED) {
+            for (String className : StringUtils.split(RateLimiterProperties.getString("metrics.exporters", ""), ',')) {
+                addExporter(newExporter(className.trim()));
+            }
+            long interval = RateLimiterProperties.getLong("metrics.reportIntervalSeconds", 60);
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("metrics-reporter-%d").setDaemon(true).build());
+            reporter.scheduleAtFixedRate(RateLimiterMetrics::report, interval, interval, TimeUnit.SECONDS);
+            if (RateLimiterProperties.getBoolean("metrics.jmx.enabled", true)) {
+                registerMXBean();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return The start of a timing to pass to the record methods, 0 if the metrics are off
+     */
+    public static long startNanos() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void recordRedisLatency(long startNanos) {
+        if (ENABLED) {
+            redisLatency.recordSince(startNanos);
+        }
+    }
+
+    public static void recordPoolWait(long startNanos) {
+        if (ENABLED) {
+            poolWait.recordSince(startNanos);
+        }
+    }
+
+    public static void recordFilterLatency(long startNanos) {
+        if (ENABLED) {
+            filterLatency.recordSince(startNanos);
+        }
+    }
+
+    public static void recordKeysPerRequest(int keys) {
+        if (ENABLED) {
+            keysPerRequest.record(keys);
+        }
+    }
+
+    public static void recordResponse(RateLimitResponse response) {
+        if (!ENABLED) {
+            return;
+        }
+        if (!response.getRateLimitReached()) {
+            allowed.increment();
+        } else if (response.getRateLimitViolationCause() != null && response.getRateLimitPeriod() != null) {
+            denied[response.getRateLimitViolationCause().ordinal()][response.getRateLimitPeriod().ordinal()]
+                    .increment();
+        }
+    }
+
+    public static void recordBlocklistRejection() {
+        if (ENABLED) {
+            blocklistRejections.increment();
+        }
+    }
+
+    public static void recordConfigLookup() {
+        if (ENABLED) {
+            configLookups.increment();
+        }
+    }
+
+    public static void recordConfigCacheMiss() {
+        if (ENABLED) {
+            configCacheMisses.increment();
+        }
+    }
+
+    public static void recordRedisRetry() {
+        if (ENABLED) {
+            redisRetries.increment();
+        }
+    }
+
+    public static void recordBreakerOpen() {
+        if (ENABLED) {
+            breakerOpens.increment();
+        }
+    }
+
+    /**
+     * A request decided by the degraded mode policy of its client, as redis was unavailable
+     */
+    public static void recordDegraded() {
+        if (ENABLED) {
+            degraded.increment();
+        }
+    }
+
+    /**
+     * A key without a config found to be a heavy hitter, and so limited exactly, see
+     * {@link com.ishan.base.HeavyHitterDetector}
+     */
+    public static void recordHeavyHitterEscalation() {
+        if (ENABLED) {
+            heavyHitterEscalations.increment();
+        }
+    }
+
+    /**
+     * A request refused as its client or endpoint had too many requests in flight, see
+     * {@link com.ishan.base.ConcurrencyLimiter}
+     */
+    public static void recordConcurrencyRejection() {
+        if (ENABLED) {
+            concurrencyRejections.increment();
+        }
+    }
+
+    public static void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public static void removeExporter(MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    /**
+     * @return The counters now and the histograms of the last report interval
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<String, HistogramSnapshot> histogramSnapshots = new LinkedHashMap<>();
+        for (MetricHistogram histogram : histograms) {
+            histogramSnapshots.put(histogram.getName(), histogram.getLast());
+        }
+        return snapshot(histogramSnapshots);
+    }
+
+    private static MetricsSnapshot snapshot(Map<String, HistogramSnapshot> histogramSnapshots) {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("requests.allowed", allowed.sum());
+        for (Map.Entry<String, Long> entry : getDenied().entrySet()) {
+            counters.put("requests.denied." + entry.getKey(), entry.getValue());
+        }
+        counters.put("requests.blocklistRejections", blocklistRejections.sum());
+        counters.put("config.lookups", configLookups.sum());
+        counters.put("config.cacheMisses", configCacheMisses.sum());
+        counters.put("redis.retries", redisRetries.sum());
+        counters.put("redis.breakerOpens", breakerOpens.sum());
+        counters.put("requests.degraded", degraded.sum());
+        counters.put("heavyHitters.escalations", heavyHitterEscalations.sum());
+        counters.put("requests.concurrencyRejections", concurrencyRejections.sum());
+        return new MetricsSnapshot(System.currentTimeMillis(), counters, histogramSnapshots);
+    }
+
+    /**
+     * @return The denied requests by cause and period, only those which were denied at least once
+     */
+    static Map<String, Long> getDenied() {
+        Map<String, Long> rv = new LinkedHashMap<>();
+        for (int i = 0; i < CAUSES.length; i++) {
+            for (int j = 0; j < PERIODS.length; j++) {
+                long count = denied[i][j].sum();
+                if (count > 0) {
+                    rv.put(CAUSES[i] + "." + PERIODS[j], count);
+                }
+            }
+        }
+        return rv;
+    }
+
+    private static void report() {
+        Map<String, HistogramSnapshot> histogramSnapshots = new LinkedHashMap<>();
+        for (MetricHistogram histogram : histograms) {
+            histogramSnapshots.put(histogram.getName(), histogram.roll());
+        }
+        MetricsSnapshot snapshot = snapshot(histogramSnapshots);
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(snapshot);
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not export the metrics with " + exporter.getClass().getName(), e);
+            }
+        }
+    }
+
+    private static MetricsExporter newExporter(String className) {
+        try {
+            return Class.forName(className).asSubclass(MetricsExporter.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Not a metrics exporter " + className, e);
+        }
+    }
+
+    private static void registerMXBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // Another copy of the rate limiter, e.g. in another web app, has registered it first
+            LOGGER.warn("Could not register the rate limiter metrics with JMX", e);
+        }
+    }
+
+    private static class MXBean implements RateLimiterMetricsMXBean {
+
+        @Override
+        public long getAllowed() {
+            return allowed.sum();
+        }
+
+        @Override
+        public Map<String, Long> getDenied() {
+            return RateLimiterMetrics.getDenied();
+        }
+
+        @Override
+        public long getBlocklistRejections() {
+            return blocklistRejections.sum();
+        }
+
+        @Override
+        public long getConfigLookups() {
+            return configLookups.sum();
+        }
+
+        @Override
+        public long getConfigCacheMisses() {
+            return configCacheMisses.sum();
+        }
+
+        @Override
+        public double getConfigCacheHitRatio() {
+            long lookups = configLookups.sum();
+            return lookups == 0 ? 0 : (double) (lookups - configCacheMisses.sum()) / lookups;
+        }
+
+        @Override
+        public long getRedisRetries() {
+            return redisRetries.sum();
+        }
+
+        @Override
+        public long getBreakerOpens() {
+            return breakerOpens.sum();
+        }
+
+        @Override
+        public long getDegraded() {
+            return degraded.sum();
+        }
+
+        @Override
+        public long getHeavyHitterEscalations() {
+            return heavyHitterEscalations.sum();
+        }
+
+        @Override
+        public long getConcurrencyRejections() {
+            return concurrencyRejections.sum();
+        }
+
+        @Override
+        public HistogramSnapshot getRedisLatency() {
+            return redisLatency.getLast();
+        }
+
+        @Override
+        public HistogramSnapshot getPoolWait() {
+            return poolWait.getLast();
+        }
+
+        @Override
+        public HistogramSnapshot getKeysPerRequest() {
+            return keysPerRequest.getLast();
+        }
+
+        @Override
+        public HistogramSnapshot getFilterLatency() {
+            return filterLatency.getLast();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.ishan.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics exposed over JMX, under {@link RateLimiterMetrics#OBJECT_NAME}. The counters are live totals, the
+ * histograms are of the last report interval, with the latencies in micros.
+ *
+ * @since 18/10/26
+ */
+public interface RateLimiterMetricsMXBean {
+
+    long getAllowed();
+
+    /**
+     * @return The denied requests by cause and period, e.g. CLIENT.MINUTE
+     */
+    Map<String, Long> getDenied();
+
+    long getBlocklistRejections();
+
+    long getConfigLookups();
+
+    long getConfigCacheMisses();
+
+    double getConfigCacheHitRatio();
+
+    long getRedisRetries();
+
+    long getBreakerOpens();
+
+    long getDegraded();
+
+    long getHeavyHitterEscalations();
+
+    long getConcurrencyRejections();
+
+    HistogramSnapshot getRedisLatency();
+
+    HistogramSnapshot getPoolWait();
+
+    HistogramSnapshot getKeysPerRequest();
+
+    HistogramSnapshot getFilterLatency();
+}
@@ -0,0 +1,79 @@
+package com.ishan.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A call to redis which can either be run on its own or be queued in a pipeline shared with other calls, see
+ * {@link RedisCommandBatcher}. The result is given through {@link #getFuture()} in the batched case.
+ *
+ * @param <T> The type of the result of the call
+ * @since 18/10/26
+ */
+abstract class BatchedCall<T> {
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    /**
+     * When the call was queued in a {@link RedisCommandBatcher}, by {@link System#nanoTime()}
+     */
+    private long queuedAt;
+
+    CompletableFuture<T> getFuture() {
+        return future;
+    }
+
+    long getQueuedAt() {
+        return queuedAt;
+    }
+
+    void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    /**
+     * Called on the connection before the pipeline is opened, for example to load a script
+     */
+    void prepare(Jedis jedis) {
+    }
+
+    /**
+     * Queues the commands of this call in the pipeline
+     */
+    abstract void queue(Pipeline pipeline);
+
+    /**
+     * Reads the result of this call from the responses of the queued commands once the pipeline is synced
+     */
+    abstract T read();
+
+    /**
+     * Runs this call on its own
+     */
+    abstract T execute(Jedis jedis);
+
+    /**
+     * Completes the future from the synced pipeline. A call whose script was not known to redis is run again on
+     * its own, after the pipeline.
+     */
+    void complete(Jedis jedis) {
+        try {
+            future.complete(read());
+        } catch (JedisDataException e) {
+            if (!RedisScript.isNoScript(e)) {
+                future.completeExceptionally(e);
+                return;
+            }
+            try {
+                future.complete(execute(jedis));
+            } catch (RuntimeException retryException) {
+                future.completeExceptionally(retryException);
+            }
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.ishan.redis;
+
+import com.ishan.metrics.RateLimiterMetrics;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Stops the calls to redis once it looks unhealthy, so that the requests get a quick answer instead of each waiting
+ * for the timeouts.
+ * <p>
+ * The breaker opens after a number of failures in a row, a call slower than the slow call threshold counting as a
+ * failure too. While open every call is refused. Once the open time has passed it is half open and lets a single
+ * call through as a probe, which closes it if it succeeds and opens it again if it does not. Only the probe decides:
+ * the calls let through before the breaker opened, which may complete while it is half open, do not change it.
+ *
+ * @since 18/10/26
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Whether a call may be made, see {@link #tryAcquire()}
+     */
+    enum Permission {
+        REFUSED,
+        CALL,
+        PROBE
+    }
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openMillis;
+
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    /**
+     * Guards the changes of state, a lock rather than a monitor so as not to pin a virtual thread
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param failureThreshold The failures in a row which open the breaker
+     * @param slowCallMillis   The time above which a call counts as a failure
+     * @param openMillis       How long the breaker stays open before it lets a probe through
+     */
+    CircuitBreaker(int failureThreshold, long slowCallMillis, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openMillis = openMillis;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * Makes the call through the breaker. A connection failure, which includes the timeouts, counts against redis
+     * and is thrown as a {@link RedisUnavailableException}.
+     */
+    <T> T execute(Supplier<T> call) {
+        Permission permission = tryAcquire();
+        if (permission == Permission.REFUSED) {
+            throw new RedisUnavailableException("The circuit breaker is open");
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (JedisConnectionException e) {
+            onFailure(permission);
+            throw new RedisUnavailableException("Could not reach redis", e);
+        } catch (RuntimeException e) {
+            onIgnored(permission);
+            throw e;
+        }
+        onSuccess(permission, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Same as {@link #execute(Supplier)} for a call which completes a future
+     */
+    <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> rv = new CompletableFuture<>();
+        Permission permission = tryAcquire();
+        if (permission == Permission.REFUSED) {
+            rv.completeExceptionally(new RedisUnavailableException("The circuit breaker is open"));
+            return rv;
+        }
+        long start = System.nanoTime();
+        call.get().whenComplete((result, throwable) -> {
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause == null) {
+                onSuccess(permission, System.nanoTime() - start);
+                rv.complete(result);
+            } else if (cause instanceof JedisConnectionException) {
+                onFailure(permission);
+                rv.completeExceptionally(new RedisUnavailableException("Could not reach redis", cause));
+            } else {
+                onIgnored(permission);
+                rv.completeExceptionally(cause);
+            }
+        });
+        return rv;
+    }
+
+    /**
+     * @return Whether a call can be made now, and whether it is the probe of the half open breaker. A call which is
+     * let through must be followed by exactly one of {@link #onSuccess(Permission, long)},
+     * {@link #onFailure(Permission)} or {@link #onIgnored(Permission)}, with this permission.
+     */
+    Permission tryAcquire() {
+        State current = state;
+        if (current == State.CLOSED) {
+            return Permission.CALL;
+        }
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                return Permission.REFUSED;
+            }
+            lock.lock();
+            try {
+                if (state == State.OPEN) {
+                    state = State.HALF_OPEN;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return probing.compareAndSet(false, true) ? Permission.PROBE : Permission.REFUSED;
+    }
+
+    /**
+     * @param durationNanos How long the call took
+     */
+    void onSuccess(Permission permission, long durationNanos) {
+        if (durationNanos > slowCallNanos) {
+            onFailure(permission);
+            return;
+        }
+        consecutiveFailures.set(0);
+        // Calls let through before the breaker opened may still complete while it is open, only the probe closes it
+        if (permission == Permission.PROBE) {
+            lock.lock();
+            try {
+                if (state == State.HALF_OPEN) {
+                    state = State.CLOSED;
+                    probing.set(false);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    void onFailure(Permission permission) {
+        if (permission == Permission.PROBE
+                || (state == State.CLOSED && consecutiveFailures.incrementAndGet() >= failureThreshold)) {
+            open();
+        }
+    }
+
+    /**
+     * The call failed for a reason which says nothing about the health of redis
+     */
+    void onIgnored(Permission permission) {
+        if (permission == Permission.PROBE) {
+            probing.set(false);
+        }
+    }
+
+    private void open() {
+        lock.lock();
+        try {
+            if (state != State.OPEN) {
+                RateLimiterMetrics.recordBreakerOpen();
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            consecutiveFailures.set(0);
+            probing.set(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.ishan.redis;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Which node of a redis cluster serves which hash slot, read with CLUSTER SLOTS from any node that answers, and a
+ * pool of connections for every node.
+ * <p>
+ * The slots are read again when a node answers MOVED, at most once every {@link #MIN_REFRESH_INTERVAL_MILLIS}, and by
+ * a single thread while the others go on with the slots they have. The slot of the MOVED is pointed at its new node
+ * right away, so the retry does not wait for the refresh.
+ *
+ * @since 18/10/26
+ */
+class ClusterTopology {
+
+    private static final int SLOTS = 16384;
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = 100;
+
+    private final Set<HostAndPort> seeds;
+    private final ConcurrentMap<HostAndPort, JedisPool> nodeVsPool = new ConcurrentHashMap<>();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile JedisPool[] slotVsPool = new JedisPool[SLOTS];
+    private volatile long lastRefresh;
+
+    /**
+     * @param seeds The nodes asked for the slots, along with every node found since
+     */
+    ClusterTopology(Set<HostAndPort> seeds) {
+        this.seeds = seeds;
+        try {
+            refresh();
+        } catch (JedisConnectionException e) {
+            // Read again on the first call
+        }
+    }
+
+    /**
+     * @return The pool of the node serving the slot
+     * @throws JedisConnectionException If no node is known to serve it and the cluster cannot be reached
+     */
+    JedisPool getPool(int slot) {
+        JedisPool pool = slotVsPool[slot];
+        if (pool == null) {
+            refresh();
+            pool = slotVsPool[slot];
+            if (pool == null) {
+                throw new JedisConnectionException("No node of the cluster serves the slot " + slot);
+            }
+        }
+        return pool;
+    }
+
+    JedisPool getPool(HostAndPort node) {
+        return nodeVsPool.computeIfAbsent(node, n -> RedisService.newClusterPool(n.getHost(), n.getPort()));
+    }
+
+    /**
+     * The slot has moved to another node, and maybe others with it
+     */
+    void moved(JedisMovedDataException e) {
+        slotVsPool[e.getSlot()] = getPool(e.getTargetNode());
+        refresh();
+    }
+
+    /**
+     * Reads the slots from the first node which answers
+     *
+     * @throws JedisConnectionException If no node answers
+     */
+    void refresh() {
+        long last = lastRefresh;
+        if (System.currentTimeMillis() - last < MIN_REFRESH_INTERVAL_MILLIS || !refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            if (lastRefresh != last) {
+                return;
+            }
+            Set<HostAndPort> nodes = new LinkedHashSet<>(nodeVsPool.keySet());
+            nodes.addAll(seeds);
+            JedisConnectionException failure = null;
+            for (HostAndPort node : nodes) {
+                try (Jedis jedis = RedisService.getResource(getPool(node))) {
+                    slotVsPool = readSlots(jedis.clusterSlots(), node);
+                    return;
+                } catch (JedisConnectionException e) {
+                    failure = e;
+                }
+            }
+            throw failure != null ? failure : new JedisConnectionException("No node of the cluster is known");
+        } finally {
+            lastRefresh = System.currentTimeMillis();
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * @param clusterSlots The reply of CLUSTER SLOTS, a range of slots followed by its master and replicas
+     * @param asked        The node which replied, for the masters it gives without a host
+     */
+    @SuppressWarnings("unchecked")
+    private JedisPool[] readSlots(List<Object> clusterSlots, HostAndPort asked) {
+        JedisPool[] pools = new JedisPool[SLOTS];
+        for (Object range : clusterSlots) {
+            List<Object> slotRange = (List<Object>) range;
+            int from = ((Long) slotRange.get(0)).intValue();
+            int to = ((Long) slotRange.get(1)).intValue();
+            List<Object> master = (List<Object>) slotRange.get(2);
+            String host = new String((byte[]) master.get(0), StandardCharsets.UTF_8);
+            int port = ((Long) master.get(1)).intValue();
+            JedisPool pool = getPool(new HostAndPort(host.isEmpty() ? asked.getHost() : host, port));
+            for (int slot = from; slot <= to; slot++) {
+                pools[slot] = pool;
+            }
+        }
+        return pools;
+    }
+}
@@ -0,0 +1,61 @@
+package com.ishan.redis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ishan.base.RateLimiterProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps count of the live nodes of the rate limiter. Every node adds itself to a sorted set in redis, scored by the
+ * time of its last heartbeat, every ratelimit.nodes.heartbeatMillis, drops the nodes not heard from within
+ * ratelimit.nodes.ttlMillis and reads how many are left.
+ * <p>
+ * The count is kept as it was last read while redis cannot be reached, which is when it is needed, to split the
+ * limits between the nodes in the degraded mode.
+ *
+ * @since 18/10/26
+ */
+public class NodeRegistry {
+
+    private static final byte[] KEY = "ratelimit:nodes".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NODE_ID = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private static volatile int liveNodes = 1;
+
+    /**
+     * Started along with the counter stores on redis, {@link RedisCounterStore} and {@link RedisClusterCounterStore},
+     * so that the count is known before redis fails. It is turned on with ratelimit.nodes.heartbeat.enabled.
+     */
+    static void start() {
+        if (!RateLimiterProperties.getBoolean("ratelimit.nodes.heartbeat.enabled", true)
+                || !STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        long heartbeatMillis = RateLimiterProperties.getLong("ratelimit.nodes.heartbeatMillis", 1000);
+        long ttlMillis = RateLimiterProperties.getLong("ratelimit.nodes.ttlMillis", 5000);
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("node-heartbeat-%d").setDaemon(true).build());
+        heartbeat.scheduleWithFixedDelay(() -> {
+            try {
+                liveNodes = (int) Math.max(1, RedisService.heartbeat(KEY, NODE_ID, System.currentTimeMillis(),
+                        ttlMillis));
+            } catch (RuntimeException e) {
+                // The last count is kept
+            }
+        }, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of nodes, this one included, which sent a heartbeat lately
+     */
+    public static int getLiveNodes() {
+        return liveNodes;
+    }
+}
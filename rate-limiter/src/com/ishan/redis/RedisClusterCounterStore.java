@@ -0,0 +1,301 @@
+package com.ishan.redis;
+
+import com.ishan.base.RateLimiterProperties;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.metrics.RateLimiterMetrics;
+import com.ishan.store.CounterStore;
+import com.ishan.store.Evaluation;
+import com.ishan.strategy.RateLimitStrategy;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The counters sharded over a redis cluster. The keys of a request share the hash tag of its client, so they are in
+ * one hash slot and the request is still a single pipeline or script on the node serving it, see
+ * {@link ClusterTopology}.
+ * <p>
+ * A MOVED reply points the slot at its new node and the call is made again there. An ASK reply, while a slot is
+ * being migrated, sends only the refused commands to the importing node, preceded by ASKING, as the ones the old
+ * node ran must not be run again. A script whose keys are split between the two nodes during the migration gets
+ * TRYAGAIN and is retried after a short wait. A call still redirected after {@link #MAX_REDIRECTIONS} counts as a
+ * connection failure, as the keys cannot be reached for now. The calls go through a {@link CircuitBreaker} of their
+ * own, configured like the one of {@link RedisService}. The expiry of a counter is sent once per slot, as by
+ * {@link RedisService}, see {@link SlotKeyExpiries}.
+ *
+ * @since 18/10/26
+ */
+public class RedisClusterCounterStore implements CounterStore {
+
+    private static final int MAX_REDIRECTIONS = 5;
+    /**
+     * How long a script waits before it is tried again after TRYAGAIN
+     */
+    private static final long TRY_AGAIN_DELAY_MILLIS = 10;
+
+    private final ClusterTopology topology;
+    private final SlotKeyExpiries keyExpiries = new SlotKeyExpiries();
+    private final CircuitBreaker breaker = new CircuitBreaker(
+            RateLimiterProperties.getInt("redis.breaker.failureThreshold", 5),
+            RateLimiterProperties.getLong("redis.breaker.slowCallMillis", 500),
+            RateLimiterProperties.getLong("redis.breaker.openMillis", 5000));
+
+    /**
+     * @param nodes Some of the nodes of the cluster as host:port, the others are found from them
+     */
+    public RedisClusterCounterStore(Collection<String> nodes) {
+        Set<HostAndPort> seeds = new LinkedHashSet<>();
+        for (String node : nodes) {
+            if (!node.isEmpty()) {
+                seeds.add(HostAndPort.parseString(node));
+            }
+        }
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("No node of the redis cluster is given in redis.cluster.nodes");
+        }
+        this.topology = new ClusterTopology(seeds);
+        NodeRegistry.start();
+    }
+
+    @Override
+    public List<Long> increment(List<RedisKeyDetails> redisKeysWithTTL) {
+        return breaker.execute(() -> {
+            List<byte[]> keys = new ArrayList<>(redisKeysWithTTL.size());
+            for (RedisKeyDetails redisKeyWithTTL : redisKeysWithTTL) {
+                keys.add(redisKeyWithTTL.getKey());
+            }
+            int slot = getSlot(keys);
+            Long[] counters = new Long[redisKeysWithTTL.size()];
+            boolean[] expireQueued = new boolean[counters.length];
+            List<Integer> pending = new ArrayList<>(counters.length);
+            for (int i = 0; i < counters.length; i++) {
+                pending.add(i);
+            }
+            for (int redirections = 0; ; redirections++) {
+                List<Response<Long>> responses = new ArrayList<>(pending.size());
+                try (Jedis jedis = RedisService.getResource(topology.getPool(slot))) {
+                    Pipeline pipeline = jedis.pipelined();
+                    long start = RateLimiterMetrics.startNanos();
+                    for (int index : pending) {
+                        RedisKeyDetails redisKeyWithTTL = redisKeysWithTTL.get(index);
+                        responses.add(pipeline.incrBy(redisKeyWithTTL.getKey(), redisKeyWithTTL.getIncrement()));
+                        expireQueued[index] = keyExpiries.needsExpire(redisKeyWithTTL);
+                        if (expireQueued[index]) {
+                            pipeline.expire(redisKeyWithTTL.getKey(),
+                                    RedisService.getSeconds(redisKeyWithTTL.getTtl()));
+                        }
+                    }
+                    pipeline.sync();
+                    RateLimiterMetrics.recordRedisLatency(start);
+                }
+                List<Integer> moved = new ArrayList<>();
+                for (int i = 0; i < pending.size(); i++) {
+                    int index = pending.get(i);
+                    RedisKeyDetails redisKeyWithTTL = redisKeysWithTTL.get(index);
+                    try {
+                        counters[index] = responses.get(i).get();
+                    } catch (JedisMovedDataException e) {
+                        topology.moved(e);
+                        moved.add(index);
+                        continue;
+                    } catch (JedisAskDataException e) {
+                        counters[index] = incrementAsking(e.getTargetNode(), redisKeyWithTTL);
+                        continue;
+                    }
+                    if (expireQueued[index]) {
+                        keyExpiries.expireSet(redisKeyWithTTL);
+                    } else if (SlotKeyExpiries.isCreatedWithoutExpire(redisKeyWithTTL, counters[index])) {
+                        RedisService.expireAsync(topology.getPool(slot), redisKeyWithTTL.getKey(),
+                                RedisService.getSeconds(redisKeyWithTTL.getTtl()));
+                    }
+                }
+                if (moved.isEmpty()) {
+                    List<Long> rv = new ArrayList<>(counters.length);
+                    for (Long counter : counters) {
+                        rv.add(counter);
+                    }
+                    return rv;
+                }
+                checkRedirections(redirections, slot);
+                pending = moved;
+            }
+        });
+    }
+
+    @Override
+    public int evaluate(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime) {
+        return breaker.execute(() -> evaluate(new RedisService.EvaluateCall(strategy, redisKeys, requestTime)));
+    }
+
+    /**
+     * The requests are sent in one pipeline per node, to the node serving the slot of each. A request whose slot has
+     * moved, or is being migrated, is then evaluated on its own as by
+     * {@link #evaluate(RateLimitStrategy, List, long)}.
+     */
+    @Override
+    public int[] evaluateAll(List<Evaluation> evaluations) {
+        return breaker.execute(() -> {
+            List<RedisService.EvaluateCall> calls = RedisService.EvaluateCall.of(evaluations);
+            Map<JedisPool, List<RedisService.EvaluateCall>> poolVsCalls = new IdentityHashMap<>();
+            for (RedisService.EvaluateCall call : calls) {
+                poolVsCalls.computeIfAbsent(topology.getPool(getSlot(call.getKeys())), pool -> new ArrayList<>())
+                        .add(call);
+            }
+            for (Map.Entry<JedisPool, List<RedisService.EvaluateCall>> entry : poolVsCalls.entrySet()) {
+                try (Jedis jedis = RedisService.getResource(entry.getKey())) {
+                    RedisService.sendPipelined(jedis, entry.getValue());
+                }
+            }
+            int[] verdicts = new int[calls.size()];
+            for (int i = 0; i < verdicts.length; i++) {
+                RedisService.EvaluateCall call = calls.get(i);
+                try {
+                    verdicts[i] = RedisService.join(call.getFuture());
+                } catch (JedisDataException e) {
+                    if (e instanceof JedisMovedDataException) {
+                        topology.moved((JedisMovedDataException) e);
+                    } else if (!(e instanceof JedisAskDataException) && !isTryAgain(e)) {
+                        throw e;
+                    }
+                    verdicts[i] = evaluate(call);
+                }
+            }
+            return verdicts;
+        });
+    }
+
+    /**
+     * Runs the script on the node serving its slot, following the redirections
+     */
+    private int evaluate(RedisService.EvaluateCall call) {
+        int slot = getSlot(call.getKeys());
+        HostAndPort asking = null;
+        for (int redirections = 0; ; redirections++) {
+            try (Jedis jedis = RedisService.getResource(
+                    asking == null ? topology.getPool(slot) : topology.getPool(asking))) {
+                if (asking != null) {
+                    jedis.asking();
+                }
+                long start = RateLimiterMetrics.startNanos();
+                int violatedIndex = call.execute(jedis);
+                RateLimiterMetrics.recordRedisLatency(start);
+                return violatedIndex;
+            } catch (JedisMovedDataException e) {
+                topology.moved(e);
+                asking = null;
+            } catch (JedisAskDataException e) {
+                asking = e.getTargetNode();
+            } catch (JedisDataException e) {
+                if (!isTryAgain(e)) {
+                    throw e;
+                }
+                checkRedirections(redirections, slot);
+                sleep(TRY_AGAIN_DELAY_MILLIS);
+                asking = null;
+                continue;
+            }
+            checkRedirections(redirections, slot);
+        }
+    }
+
+    @Override
+    public List<Long> read(List<RedisKeyDetails> redisKeys) {
+        return breaker.execute(() -> {
+            List<byte[]> keys = new ArrayList<>(redisKeys.size());
+            for (RedisKeyDetails redisKey : redisKeys) {
+                keys.add(redisKey.getKey());
+            }
+            int slot = getSlot(keys);
+            HostAndPort asking = null;
+            for (int redirections = 0; ; redirections++) {
+                try (Jedis jedis = RedisService.getResource(
+                        asking == null ? topology.getPool(slot) : topology.getPool(asking))) {
+                    if (asking != null) {
+                        jedis.asking();
+                    }
+                    return RedisService.readCounters(jedis, redisKeys);
+                } catch (JedisMovedDataException e) {
+                    topology.moved(e);
+                    asking = null;
+                } catch (JedisAskDataException e) {
+                    asking = e.getTargetNode();
+                }
+                checkRedirections(redirections, slot);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Long>> incrementAsync(List<RedisKeyDetails> redisKeysWithTTL) {
+        return RedisService.supplyAsync(() -> increment(redisKeysWithTTL));
+    }
+
+    @Override
+    public CompletableFuture<Integer> evaluateAsync(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys,
+                                                    long requestTime) {
+        return RedisService.supplyAsync(() -> evaluate(strategy, redisKeys, requestTime));
+    }
+
+    /**
+     * Increments a key of a slot being migrated on the node it is imported to. The expiry is always sent, as the key
+     * may be new on that node.
+     */
+    private long incrementAsking(HostAndPort node, RedisKeyDetails redisKeyWithTTL) {
+        try (Jedis jedis = RedisService.getResource(topology.getPool(node))) {
+            jedis.asking();
+            long counter = jedis.incrBy(redisKeyWithTTL.getKey(), redisKeyWithTTL.getIncrement());
+            jedis.asking();
+            jedis.expire(redisKeyWithTTL.getKey(), RedisService.getSeconds(redisKeyWithTTL.getTtl()));
+            return counter;
+        }
+    }
+
+    /**
+     * @return The hash slot of the keys
+     * @throws IllegalArgumentException If the keys are not all in the same slot
+     */
+    private static int getSlot(List<byte[]> keys) {
+        int slot = JedisClusterCRC16.getSlot(keys.get(0));
+        for (int i = 1; i < keys.size(); i++) {
+            if (JedisClusterCRC16.getSlot(keys.get(i)) != slot) {
+                throw new IllegalArgumentException("The keys of a request must share their hash tag");
+            }
+        }
+        return slot;
+    }
+
+    private static void checkRedirections(int redirections, int slot) {
+        if (redirections == MAX_REDIRECTIONS) {
+            throw new JedisConnectionException("Too many redirections of the slot " + slot);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException("Interrupted while waiting to try again", e);
+        }
+    }
+
+    private static boolean isTryAgain(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("TRYAGAIN");
+    }
+}
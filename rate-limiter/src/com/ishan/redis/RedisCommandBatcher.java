@@ -0,0 +1,107 @@
+package com.ishan.redis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the calls of many concurrent requests into a few pipelines. The calls are queued, and each of a few
+ * flusher threads takes the calls which arrive within a window (or until the batch is full) and sends them as one
+ * pipeline on one connection. Every caller then gets its own part of the reply.
+ * <p>
+ * This trades up to one window of latency for far fewer writes to redis and far fewer connections borrowed from
+ * the pool, as only the flusher threads ever borrow one. However many requests are in flight, as with a container
+ * running them on virtual threads, they share the connections of the flushers, and their callers wait on futures.
+ * <p>
+ * A call which has waited in the queue for longer than its max wait, as when redis cannot keep up, is failed with a
+ * {@link JedisConnectionException} instead of being sent, so that no caller waits without bound.
+ *
+ * @since 18/10/26
+ */
+class RedisCommandBatcher {
+
+    private final JedisPool jedisPool;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long maxQueueNanos;
+    private final BlockingQueue<BatchedCall<?>> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * @param jedisPool     The pool the flusher threads borrow their connections from
+     * @param windowMicros  How long a flusher waits for more calls after the first one of a batch
+     * @param maxBatchSize  The most calls sent in one pipeline
+     * @param flusherThreads The number of flusher threads, and so of connections used at a time
+     * @param maxQueueMillis The longest a call waits in the queue before it is failed
+     */
+    RedisCommandBatcher(JedisPool jedisPool, long windowMicros, int maxBatchSize, int flusherThreads,
+                        long maxQueueMillis) {
+        this.jedisPool = jedisPool;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchSize = maxBatchSize;
+        this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueMillis);
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("redis-batcher-%d").setDaemon(true)
+                .build();
+        for (int i = 0; i < flusherThreads; i++) {
+            threadFactory.newThread(this::flushLoop).start();
+        }
+    }
+
+    <T> CompletableFuture<T> submit(BatchedCall<T> call) {
+        call.setQueuedAt(System.nanoTime());
+        queue.add(call);
+        return call.getFuture();
+    }
+
+    private void flushLoop() {
+        List<BatchedCall<?>> batch = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                addUnlessExpired(batch, queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    BatchedCall<?> call = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (call == null) {
+                        break;
+                    }
+                    addUnlessExpired(batch, call);
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void addUnlessExpired(List<BatchedCall<?>> batch, BatchedCall<?> call) {
+        if (System.nanoTime() - call.getQueuedAt() > maxQueueNanos) {
+            call.getFuture().completeExceptionally(new JedisConnectionException("The call waited too long to be sent"));
+        } else {
+            batch.add(call);
+        }
+    }
+
+    private void flush(List<BatchedCall<?>> batch) {
+        try (Jedis jedis = RedisService.getResource(jedisPool)) {
+            RedisService.sendPipelined(jedis, batch);
+        } catch (RuntimeException e) {
+            // Calls which were already completed are not affected
+            for (BatchedCall<?> call : batch) {
+                call.getFuture().completeExceptionally(e);
+            }
+        }
+    }
+}
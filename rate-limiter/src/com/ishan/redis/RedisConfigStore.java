@@ -0,0 +1,30 @@
+package com.ishan.redis;
+
+import com.ishan.base.ClientConfig;
+import com.ishan.store.ConfigStore;
+
+import java.util.function.BiConsumer;
+
+/**
+ * The client configs on the redis server of {@link RedisService}, each the JSON of the {@link ClientConfig} in its key
+ *
+ * @since 18/10/26
+ */
+public class RedisConfigStore implements ConfigStore {
+
+    /**
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
+    @Override
+    public ClientConfig get(String key) {
+        return RedisService.get(key, ClientConfig.class);
+    }
+
+    /**
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
+    @Override
+    public int scan(String match, int batchSize, int maxConfigs, BiConsumer<String, ClientConfig> consumer) {
+        return RedisService.scanObjects(match, batchSize, maxConfigs, ClientConfig.class, consumer);
+    }
+}
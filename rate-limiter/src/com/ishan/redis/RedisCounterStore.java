@@ -0,0 +1,52 @@
+package com.ishan.redis;
+
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.store.CounterStore;
+import com.ishan.store.Evaluation;
+import com.ishan.strategy.RateLimitStrategy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The counters on the single redis server of {@link RedisService}
+ *
+ * @since 18/10/26
+ */
+public class RedisCounterStore implements CounterStore {
+
+    public RedisCounterStore() {
+        NodeRegistry.start();
+    }
+
+    @Override
+    public List<Long> increment(List<RedisKeyDetails> redisKeysWithTTL) {
+        return RedisService.pipeline(redisKeysWithTTL);
+    }
+
+    @Override
+    public int evaluate(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime) {
+        return RedisService.evaluate(strategy, redisKeys, requestTime);
+    }
+
+    @Override
+    public int[] evaluateAll(List<Evaluation> evaluations) {
+        return RedisService.evaluateAll(evaluations);
+    }
+
+    @Override
+    public List<Long> read(List<RedisKeyDetails> redisKeys) {
+        return RedisService.readCounters(redisKeys);
+    }
+
+    @Override
+    public CompletableFuture<List<Long>> incrementAsync(List<RedisKeyDetails> redisKeysWithTTL) {
+        return RedisService.pipelineAsync(redisKeysWithTTL);
+    }
+
+    @Override
+    public CompletableFuture<Integer> evaluateAsync(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys,
+                                                    long requestTime) {
+        return RedisService.evaluateAsync(strategy, redisKeys, requestTime);
+    }
+}
@@ -0,0 +1,24 @@
+package com.ishan.redis;
+
+import com.ishan.bus.MessageBus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The pub/sub of the redis server of {@link RedisService}
+ *
+ * @since 18/10/26
+ */
+public class RedisMessageBus implements MessageBus {
+
+    @Override
+    public CompletableFuture<Long> publishAsync(byte[] channel, byte[] message) {
+        return RedisService.publishAsync(channel, message);
+    }
+
+    @Override
+    public void subscribe(byte[] channel, Consumer<byte[]> listener) {
+        RedisService.subscribe(channel, listener);
+    }
+}
@@ -0,0 +1,82 @@
+package com.ishan.redis;
+
+import com.google.common.io.Resources;
+import com.ishan.base.ExceptionUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A lua script kept in the classpath. It is loaded once with SCRIPT LOAD and then run with EVALSHA, so only the
+ * sha is sent per call. If redis has lost the script (restart, SCRIPT FLUSH or failover) it is loaded again.
+ *
+ * @since 18/10/26
+ */
+public class RedisScript {
+
+    private final byte[] source;
+
+    private volatile byte[] sha;
+
+    private RedisScript(byte[] source) {
+        this.source = source;
+    }
+
+    /**
+     * @param resource The path of the script in the classpath, relative to this package
+     * @return The {@link RedisScript} holding the script
+     */
+    public static RedisScript fromResource(String resource) {
+        try {
+            return new RedisScript(Resources.toByteArray(Resources.getResource(RedisScript.class, resource)));
+        } catch (IOException e) {
+            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
+        }
+    }
+
+    public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        byte[] currentSha = sha;
+        if (currentSha == null) {
+            currentSha = load(jedis);
+        }
+        try {
+            return jedis.evalsha(currentSha, keys, args);
+        } catch (JedisDataException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return jedis.evalsha(load(jedis), keys, args);
+        }
+    }
+
+    /**
+     * Queues the script in a pipeline. The script has to be loaded first with {@link #ensureLoaded(Jedis)}, as the
+     * connection cannot be used for anything else while the pipeline is open.
+     */
+    public Response<Object> eval(Pipeline pipeline, List<byte[]> keys, List<byte[]> args) {
+        return pipeline.evalsha(sha, keys, args);
+    }
+
+    public void ensureLoaded(Jedis jedis) {
+        if (sha == null) {
+            load(jedis);
+        }
+    }
+
+    /**
+     * @return true if redis did not know the script, in which case it has to be loaded and run again
+     */
+    public static boolean isNoScript(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT");
+    }
+
+    private byte[] load(Jedis jedis) {
+        byte[] loadedSha = jedis.scriptLoad(source);
+        this.sha = loadedSha;
+        return loadedSha;
+    }
+}
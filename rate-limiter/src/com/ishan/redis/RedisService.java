@@ -2,15 +2,36 @@ package com.ishan.redis;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.ishan.base.ExceptionUtils;
+import com.ishan.base.RateLimiterProperties;
 import com.ishan.base.RedisKeyDetails;
+import com.ishan.base.VirtualThreads;
+import com.ishan.metrics.RateLimiterMetrics;
+import com.ishan.store.Evaluation;
+import com.ishan.strategy.RateLimitStrategy;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import redis.clients.jedis.*;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author ishanjain
@@ -18,64 +39,486 @@ import java.util.concurrent.TimeUnit;
  */
 public class RedisService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisService.class);
+
+    /**
+     * Read from redis.host, redis.port, redis.password and redis.database, see {@link RateLimiterProperties}
+     */
+    private static final String HOST = RateLimiterProperties.getString("redis.host", "sample.redis.host");
+    private static final int PORT = RateLimiterProperties.getInt("redis.port", 7789);
+    private static final String PASSWORD = StringUtils.trimToNull(
+            RateLimiterProperties.getString("redis.password", null));
+    private static final int DATABASE = RateLimiterProperties.getInt("redis.database", Protocol.DEFAULT_DATABASE);
+    private static final int CONNECT_TIMEOUT_MILLIS = RateLimiterProperties.getInt("redis.connectTimeoutMillis",
+            Protocol.DEFAULT_TIMEOUT);
+    private static final int SOCKET_TIMEOUT_MILLIS = RateLimiterProperties.getInt("redis.socketTimeoutMillis", 5000);
     /**
-     * Ideally this could be in a properties file or this could be read from a central store or could be an
-     * initialization param. Hardcoding it for now.
+     * The sizing of every pool of connections, see {@link #newPool(String, int, String, int)}. A caller waits for a
+     * connection of an exhausted pool for at most redis.pool.maxWaitMillis.
      */
-    private static final String HOST = "sample.redis.host";
-    private static final int PORT = 7789;
+    private static final int POOL_MAX_TOTAL = RateLimiterProperties.getInt("redis.pool.maxTotal", 100);
+    private static final int POOL_MAX_IDLE = RateLimiterProperties.getInt("redis.pool.maxIdle", 20);
+    private static final int POOL_MIN_IDLE = RateLimiterProperties.getInt("redis.pool.minIdle", 5);
+    private static final long POOL_MAX_WAIT_MILLIS = RateLimiterProperties.getLong("redis.pool.maxWaitMillis", 500);
 
     private static final JedisPool JEDIS_POOL;
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private static final int MAX_RETRIES = 3;
+    /**
+     * How long a subscriber waits before it connects again after losing its connection
+     */
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+    /**
+     * The calls made through the async methods run on these threads, so that the callers' threads are not held
+     * for the round trip to redis. They are virtual threads where the JVM has them, see {@link VirtualThreads}, else
+     * a pool of IO_THREADS.
+     */
+    private static final int IO_THREADS = 32;
+    private static final ExecutorService IO_EXECUTOR = VirtualThreads.newExecutor("redis-io-", IO_THREADS);
+    /**
+     * Bounds the calls in flight on the redis I/O threads, which are not bounded by their number with virtual
+     * threads. A call waits for a permit in turn, for at most redis.io.maxWaitMillis.
+     */
+    private static final Semaphore IO_PERMITS = new Semaphore(RateLimiterProperties.getInt("redis.io.maxInFlight", 64),
+            true);
+    private static final long IO_MAX_WAIT_MILLIS = RateLimiterProperties.getLong("redis.io.maxWaitMillis", 1000);
+    /**
+     * Guards the calls to redis, see {@link CircuitBreaker}
+     */
+    private static final CircuitBreaker BREAKER = new CircuitBreaker(
+            RateLimiterProperties.getInt("redis.breaker.failureThreshold", 5),
+            RateLimiterProperties.getLong("redis.breaker.slowCallMillis", 500),
+            RateLimiterProperties.getLong("redis.breaker.openMillis", 5000));
+    /**
+     * Set when batching is turned on with redis.batch.enabled, see {@link RedisCommandBatcher}
+     */
+    private static final RedisCommandBatcher BATCHER;
+    private static final SlotKeyExpiries KEY_EXPIRIES = new SlotKeyExpiries();
 
     static {
-        JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
-        jedisPoolConfig.setMaxTotal(100);
-        jedisPoolConfig.setMaxIdle(20);
-        jedisPoolConfig.setBlockWhenExhausted(true);
-        jedisPoolConfig.setMinIdle(5);
-        //jedisPool = new JedisPool(jedisPoolConfig, HOST, PORT);
-        JEDIS_POOL = new JedisPool(jedisPoolConfig, HOST, PORT, Protocol.DEFAULT_TIMEOUT,
-                (int) TimeUnit.SECONDS.toMillis(5), null, Protocol.DEFAULT_DATABASE, null, false, null, null, null);
+        JEDIS_POOL = newPool(HOST, PORT, PASSWORD, DATABASE);
+        if (RateLimiterProperties.getBoolean("redis.batch.enabled", false)) {
+            BATCHER = new RedisCommandBatcher(JEDIS_POOL,
+                    RateLimiterProperties.getLong("redis.batch.windowMicros", 200),
+                    RateLimiterProperties.getInt("redis.batch.maxSize", 64),
+                    RateLimiterProperties.getInt("redis.batch.connections", 4),
+                    RateLimiterProperties.getLong("redis.batch.maxQueueMillis", 1000));
+        } else {
+            BATCHER = null;
+        }
     }
 
+    /**
+     * Reads the JSON value of the key, retrying on connection failures
+     *
+     * @return The value, null if there is none
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
     public static <T> T get(String key, Class<T> valueClass) {
         Preconditions.checkNotNull(key, "Key cannot be blank");
 
-        String s = null;
-        for (int i = 1; i <= MAX_RETRIES; i++) {
-            try (Jedis jedis = JEDIS_POOL.getResource()) {
-                s = jedis.get(key);
+        String s = BREAKER.execute(() -> call(jedis -> jedis.get(key), true));
+        if (StringUtils.isBlank(s)) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.readValue(s, valueClass);
+        } catch (IOException e) {
+            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
+        }
+    }
+
+    /**
+     * Makes the call on a connection of the pool, which is given back whether the call succeeds or fails, a broken
+     * connection being closed. It is made again, up to MAX_RETRIES times in all, when no connection could be had, and
+     * when the connection fails during the call if the call is idempotent. A call which is not, as an INCRBY, may have
+     * been run by redis before the connection failed, so it is not made twice.
+     */
+    private static <T> T call(Function<Jedis, T> call, boolean idempotent) {
+        for (int i = 1; ; i++) {
+            Jedis jedis;
+            try {
+                jedis = getResource();
             } catch (JedisConnectionException e) {
                 if (i == MAX_RETRIES) {
                     throw e;
                 }
+                RateLimiterMetrics.recordRedisRetry();
                 continue;
             }
-            break;
+            try (Jedis borrowed = jedis) {
+                return call.apply(borrowed);
+            } catch (JedisConnectionException e) {
+                if (!idempotent || i == MAX_RETRIES) {
+                    throw e;
+                }
+                RateLimiterMetrics.recordRedisRetry();
+            }
         }
+    }
 
-        if (StringUtils.isBlank(s)) {
+    /**
+     * Scans the keys matching the pattern and reads their values in batches with MGET, handing every value which is a
+     * JSON object of the class to the consumer. Other values, like the counters of the limits, are skipped. Each batch
+     * is a call of its own through the circuit breaker, made once it has one of the redis.io.maxInFlight permits, so
+     * a long scan neither holds a connection nor goes around the bounds of the other calls.
+     *
+     * @param match     The pattern of the keys, as for SCAN
+     * @param batchSize The number of keys asked for with each SCAN, and so read with each MGET
+     * @param maxValues The most values handed to the consumer, after which the scan stops
+     * @return The number of values handed to the consumer
+     * @throws RedisUnavailableException If redis could not be reached, the circuit breaker is open or no permit was
+     *                                   had within redis.io.maxWaitMillis
+     */
+    public static <T> int scanObjects(String match, int batchSize, int maxValues, Class<T> valueClass,
+                                      BiConsumer<String, T> consumer) {
+        ScanParams scanParams = new ScanParams().match(match).count(batchSize);
+        byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+        int found = 0;
+        do {
+            byte[] scanCursor = cursor;
+            acquireIoPermit();
+            ScanBatch batch;
+            try {
+                batch = BREAKER.execute(() -> call(jedis -> ScanBatch.read(jedis, scanCursor, scanParams), true));
+            } finally {
+                IO_PERMITS.release();
+            }
+            cursor = batch.cursor;
+            for (int i = 0; i < batch.keys.size() && found < maxValues; i++) {
+                byte[] value = batch.values.get(i);
+                if (value == null || value.length == 0 || value[0] != '{') {
+                    continue;
+                }
+                try {
+                    consumer.accept(new String(batch.keys.get(i), StandardCharsets.UTF_8),
+                            OBJECT_MAPPER.readValue(value, valueClass));
+                    found++;
+                } catch (IOException e) {
+                    // Some other JSON stored in the same database
+                }
+            }
+        } while (found < maxValues && !Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+        return found;
+    }
+
+    /**
+     * Increments every key by its {@link RedisKeyDetails#getIncrement()} and sets its expiry in one pipeline. The
+     * expiry is only sent the first time this node increments the key in its slot, see {@link SlotKeyExpiries}.
+     *
+     * @param redisKeysWithTTL The keys to increment
+     * @return The counter values after the increment, in the same order as the keys
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
+    public static List<Long> pipeline(List<RedisKeyDetails> redisKeysWithTTL) {
+        return BREAKER.execute(() -> {
+            IncrementCall call = new IncrementCall(redisKeysWithTTL);
+            if (BATCHER != null) {
+                return join(BATCHER.submit(call));
+            }
+            return call(jedis -> {
+                long start = RateLimiterMetrics.startNanos();
+                List<Long> counters = call.execute(jedis);
+                RateLimiterMetrics.recordRedisLatency(start);
+                return counters;
+            }, false);
+        });
+    }
+
+    /**
+     * Evaluates all the limits of a request atomically on redis with the script of the strategy. The request is only
+     * recorded against the limits if none of them is broken.
+     *
+     * @param strategy    The {@link RateLimitStrategy} of the client
+     * @param redisKeys   The keys of the request, one for each limit
+     * @param requestTime The time of the request
+     * @return 0 if the request is within the limits, else the 1 based index of the first key whose limit is broken
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
+    public static int evaluate(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime) {
+        return BREAKER.execute(() -> {
+            EvaluateCall call = new EvaluateCall(strategy, redisKeys, requestTime);
+            if (BATCHER != null) {
+                return join(BATCHER.submit(call));
+            }
+            return call(jedis -> {
+                long start = RateLimiterMetrics.startNanos();
+                int violatedIndex = call.execute(jedis);
+                RateLimiterMetrics.recordRedisLatency(start);
+                return violatedIndex;
+            }, false);
+        });
+    }
+
+    /**
+     * Evaluates the limits of several requests in one pipeline, each with the script of its strategy as by
+     * {@link #evaluate(RateLimitStrategy, List, long)}. The scripts run one after the other in the order given.
+     *
+     * @param evaluations The requests to evaluate
+     * @return The verdict of each request, in the same order
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
+    public static int[] evaluateAll(List<Evaluation> evaluations) {
+        return BREAKER.execute(() -> {
+            List<EvaluateCall> calls = EvaluateCall.of(evaluations);
+            call(jedis -> {
+                sendPipelined(jedis, calls);
+                return null;
+            }, false);
+            int[] verdicts = new int[calls.size()];
+            for (int i = 0; i < verdicts.length; i++) {
+                verdicts[i] = join(calls.get(i).getFuture());
+            }
+            return verdicts;
+        });
+    }
+
+    /**
+     * Sends the calls in one pipeline and completes their futures, as {@link RedisCommandBatcher} does
+     */
+    static void sendPipelined(Jedis jedis, List<? extends BatchedCall<?>> calls) {
+        for (BatchedCall<?> call : calls) {
+            call.prepare(jedis);
+        }
+        long start = RateLimiterMetrics.startNanos();
+        Pipeline pipeline = jedis.pipelined();
+        for (BatchedCall<?> call : calls) {
+            call.queue(pipeline);
+        }
+        pipeline.sync();
+        RateLimiterMetrics.recordRedisLatency(start);
+        for (BatchedCall<?> call : calls) {
+            call.complete(jedis);
+        }
+    }
+
+    /**
+     * Reads the counters of the keys with MGET
+     *
+     * @param redisKeys The keys to read
+     * @return The counter values, 0 for a key which has none, in the same order as the keys
+     * @throws RedisUnavailableException If redis could not be reached or the circuit breaker is open
+     */
+    public static List<Long> readCounters(List<RedisKeyDetails> redisKeys) {
+        return BREAKER.execute(() -> call(jedis -> readCounters(jedis, redisKeys), true));
+    }
+
+    static List<Long> readCounters(Jedis jedis, List<RedisKeyDetails> redisKeys) {
+        byte[][] keys = new byte[redisKeys.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = redisKeys.get(i).getKey();
+        }
+        long start = RateLimiterMetrics.startNanos();
+        List<byte[]> values = jedis.mget(keys);
+        RateLimiterMetrics.recordRedisLatency(start);
+        List<Long> rv = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            rv.add(value == null ? 0 : Long.parseLong(new String(value, StandardCharsets.US_ASCII)));
+        }
+        return rv;
+    }
+
+    /**
+     * Async version of {@link #pipeline(List)}, batched with other calls if batching is on, else run on the redis
+     * I/O threads
+     */
+    public static CompletableFuture<List<Long>> pipelineAsync(List<RedisKeyDetails> redisKeysWithTTL) {
+        if (BATCHER != null) {
+            return BREAKER.executeAsync(() -> BATCHER.submit(new IncrementCall(redisKeysWithTTL)));
+        }
+        return supplyAsync(() -> pipeline(redisKeysWithTTL));
+    }
+
+    /**
+     * Async version of {@link #evaluate(RateLimitStrategy, List, long)}, batched with other calls if batching is on,
+     * else run on the redis I/O threads
+     */
+    public static CompletableFuture<Integer> evaluateAsync(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys,
+                                                           long requestTime) {
+        if (BATCHER != null) {
+            return BREAKER.executeAsync(() -> BATCHER.submit(new EvaluateCall(strategy, redisKeys, requestTime)));
+        }
+        return supplyAsync(() -> evaluate(strategy, redisKeys, requestTime));
+    }
+
+    /**
+     * Publishes the message on the redis I/O threads
+     *
+     * @return The future which completes with the number of subscribers which got the message
+     */
+    public static CompletableFuture<Long> publishAsync(byte[] channel, byte[] message) {
+        return supplyAsync(() -> {
+            try (Jedis jedis = getResource()) {
+                return jedis.publish(channel, message);
+            }
+        });
+    }
+
+    /**
+     * Sets the expiry of a key on the redis I/O threads, for a key which the caller does not wait on
+     */
+    static void expireAsync(JedisPool pool, byte[] key, int seconds) {
+        supplyAsync(() -> {
+            try (Jedis jedis = getResource(pool)) {
+                return jedis.expire(key, seconds);
+            }
+        }).exceptionally(e -> {
+            // Set again by the next node which increments the key for the first time
             return null;
+        });
+    }
+
+    /**
+     * Runs the call on the redis I/O threads once it has one of the redis.io.maxInFlight permits
+     *
+     * @return The future of the result of the call, which fails with a {@link RedisUnavailableException} if no permit
+     * is had within redis.io.maxWaitMillis
+     */
+    static <T> CompletableFuture<T> supplyAsync(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            acquireIoPermit();
+            try {
+                return call.get();
+            } finally {
+                IO_PERMITS.release();
+            }
+        }, IO_EXECUTOR);
+    }
+
+    /**
+     * Waits for one of the redis.io.maxInFlight permits, to be released once the call is made
+     *
+     * @throws RedisUnavailableException If no permit was had within redis.io.maxWaitMillis
+     */
+    private static void acquireIoPermit() {
+        try {
+            if (!IO_PERMITS.tryAcquire(IO_MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new RedisUnavailableException("Too many calls to redis in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisUnavailableException("Interrupted while waiting to call redis", e);
+        }
+    }
+
+    /**
+     * Subscribes to the channel on a connection and a daemon thread of its own, as a subscribed connection cannot
+     * be used for anything else. The connection has no read timeout, so a channel may stay quiet for any time. The
+     * subscription is made again whenever it fails, and the messages published in between are missed. A listener
+     * which throws only loses its message.
+     *
+     * @param channel  The channel to subscribe to
+     * @param listener Called on the subscriber thread with every message
+     */
+    public static void subscribe(byte[] channel, Consumer<byte[]> listener) {
+        BinaryJedisPubSub pubSub = new BinaryJedisPubSub() {
+            @Override
+            public void onMessage(byte[] messageChannel, byte[] message) {
+                try {
+                    listener.accept(message);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Could not handle a message of channel " + new String(channel, StandardCharsets.UTF_8),
+                            e);
+                }
+            }
+        };
+        new ThreadFactoryBuilder().setNameFormat("redis-subscriber-%d").setDaemon(true).build().newThread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (Jedis jedis = new Jedis(HOST, PORT, CONNECT_TIMEOUT_MILLIS, 0)) {
+                    if (PASSWORD != null) {
+                        jedis.auth(PASSWORD);
+                    }
+                    jedis.subscribe(pubSub, channel);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Lost the subscription to channel " + new String(channel, StandardCharsets.UTF_8)
+                            + ", subscribing again", e);
+                    try {
+                        Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Records the heartbeat of a node in a sorted set and drops the nodes which have not sent one within the ttl, see
+     * {@link NodeRegistry}
+     *
+     * @return The number of nodes left
+     */
+    static long heartbeat(byte[] key, byte[] node, long now, long ttlMillis) {
+        try (Jedis jedis = getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zadd(key, now, node);
+            pipeline.zremrangeByScore(key, 0, now - ttlMillis);
+            pipeline.pexpire(key, ttlMillis);
+            Response<Long> liveNodes = pipeline.zcard(key);
+            pipeline.sync();
+            return liveNodes.get();
         }
+    }
+
+    /**
+     * Creates a pool of connections to one redis server, sized by the redis.pool settings, for the standalone server
+     * and for every node of a cluster, see {@link RedisClusterCounterStore}
+     */
+    static JedisPool newPool(String host, int port, String password, int database) {
+        JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+        jedisPoolConfig.setMaxTotal(POOL_MAX_TOTAL);
+        jedisPoolConfig.setMaxIdle(POOL_MAX_IDLE);
+        jedisPoolConfig.setMinIdle(POOL_MIN_IDLE);
+        jedisPoolConfig.setBlockWhenExhausted(true);
+        jedisPoolConfig.setMaxWaitMillis(POOL_MAX_WAIT_MILLIS);
+        return new JedisPool(jedisPoolConfig, host, port, CONNECT_TIMEOUT_MILLIS, SOCKET_TIMEOUT_MILLIS, password,
+                database, null, false, null, null, null);
+    }
+
+    /**
+     * A pool of connections to a node of the cluster, with the password of redis.host, see {@link ClusterTopology}
+     */
+    static JedisPool newClusterPool(String host, int port) {
+        return newPool(host, port, PASSWORD, Protocol.DEFAULT_DATABASE);
+    }
+
+    /**
+     * Borrows a connection from the pool, recording the wait
+     *
+     * @throws JedisConnectionException If the pool has no connection free within redis.pool.maxWaitMillis, or a new
+     *                                  one cannot be made
+     */
+    static Jedis getResource(JedisPool jedisPool) {
+        long start = RateLimiterMetrics.startNanos();
+        Jedis jedis;
         try {
-            return OBJECT_MAPPER.readValue(s, valueClass);
-        } catch (IOException e) {
-            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
+            jedis = jedisPool.getResource();
+        } catch (JedisConnectionException e) {
+            throw e;
+        } catch (JedisException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                throw new JedisConnectionException("No connection to redis free within " + POOL_MAX_WAIT_MILLIS
+                        + " ms", e);
+            }
+            throw e;
         }
+        RateLimiterMetrics.recordPoolWait(start);
+        return jedis;
+    }
+
+    private static Jedis getResource() {
+        return getResource(JEDIS_POOL);
     }
 
-    public static List<Object> pipeline(List<RedisKeyDetails> redisKeysWithTTL) {
-        Pipeline pipelined = JEDIS_POOL.getResource().pipelined();
-        for (RedisKeyDetails redisKeyWithTTL : redisKeysWithTTL) {
-            pipelined.incr(redisKeyWithTTL.getKey());
-            pipelined.expire(redisKeyWithTTL.getKey(), getSeconds(redisKeyWithTTL.getTtl()));
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw ExceptionUtils.wrapInRuntimeExceptionIfNecessary(e.getCause());
         }
-        return pipelined.syncAndReturnAll();
     }
 
-    private static int getSeconds(long ttl) {
+    static int getSeconds(long ttl) {
         long seconds = ttl / 1000;
         if (seconds == 0) {
             // Handling second case
@@ -83,4 +526,136 @@ public class RedisService {
         }
         return (int) seconds;
     }
-}
\ No newline at end of file
+
+    /**
+     * Increments every key by its increment and sets its expiry if this node has not yet
+     */
+    private static class IncrementCall extends BatchedCall<List<Long>> {
+
+        private final List<RedisKeyDetails> redisKeysWithTTL;
+        private final List<Response<Long>> counters;
+        /**
+         * Whether the EXPIRE of each key was queued
+         */
+        private final boolean[] expireQueued;
+
+        private IncrementCall(List<RedisKeyDetails> redisKeysWithTTL) {
+            this.redisKeysWithTTL = redisKeysWithTTL;
+            this.counters = new ArrayList<>(redisKeysWithTTL.size());
+            this.expireQueued = new boolean[redisKeysWithTTL.size()];
+        }
+
+        @Override
+        void queue(Pipeline pipeline) {
+            for (int i = 0; i < redisKeysWithTTL.size(); i++) {
+                RedisKeyDetails redisKeyWithTTL = redisKeysWithTTL.get(i);
+                counters.add(pipeline.incrBy(redisKeyWithTTL.getKey(), redisKeyWithTTL.getIncrement()));
+                expireQueued[i] = KEY_EXPIRIES.needsExpire(redisKeyWithTTL);
+                if (expireQueued[i]) {
+                    pipeline.expire(redisKeyWithTTL.getKey(), getSeconds(redisKeyWithTTL.getTtl()));
+                }
+            }
+        }
+
+        @Override
+        List<Long> read() {
+            List<Long> rv = new ArrayList<>(counters.size());
+            for (int i = 0; i < counters.size(); i++) {
+                RedisKeyDetails redisKeyWithTTL = redisKeysWithTTL.get(i);
+                long counter = counters.get(i).get();
+                rv.add(counter);
+                if (expireQueued[i]) {
+                    KEY_EXPIRIES.expireSet(redisKeyWithTTL);
+                } else if (SlotKeyExpiries.isCreatedWithoutExpire(redisKeyWithTTL, counter)) {
+                    expireAsync(JEDIS_POOL, redisKeyWithTTL.getKey(), getSeconds(redisKeyWithTTL.getTtl()));
+                }
+            }
+            return rv;
+        }
+
+        @Override
+        List<Long> execute(Jedis jedis) {
+            counters.clear();
+            Pipeline pipeline = jedis.pipelined();
+            queue(pipeline);
+            pipeline.sync();
+            return read();
+        }
+    }
+
+    /**
+     * Runs the script of a strategy on the keys of a request
+     */
+    static class EvaluateCall extends BatchedCall<Integer> {
+
+        private final RedisScript script;
+        private final List<byte[]> keys;
+        private final List<byte[]> args;
+        private Response<Object> verdict;
+
+        EvaluateCall(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime) {
+            this.script = strategy.getScript();
+            this.keys = new ArrayList<>(redisKeys.size() * 2);
+            this.args = new ArrayList<>(redisKeys.size() * 5);
+            for (RedisKeyDetails redisKey : redisKeys) {
+                strategy.addScriptArgs(redisKey, requestTime, keys, args);
+            }
+        }
+
+        static List<EvaluateCall> of(List<Evaluation> evaluations) {
+            List<EvaluateCall> calls = new ArrayList<>(evaluations.size());
+            for (Evaluation evaluation : evaluations) {
+                calls.add(new EvaluateCall(evaluation.getStrategy(), evaluation.getRedisKeys(),
+                        evaluation.getRequestTime()));
+            }
+            return calls;
+        }
+
+        @Override
+        void prepare(Jedis jedis) {
+            script.ensureLoaded(jedis);
+        }
+
+        @Override
+        void queue(Pipeline pipeline) {
+            verdict = script.eval(pipeline, keys, args);
+        }
+
+        @Override
+        Integer read() {
+            return ((Long) verdict.get()).intValue();
+        }
+
+        @Override
+        Integer execute(Jedis jedis) {
+            return ((Long) script.eval(jedis, keys, args)).intValue();
+        }
+
+        List<byte[]> getKeys() {
+            return keys;
+        }
+    }
+
+    /**
+     * The keys of one SCAN, their values and the cursor of the next
+     */
+    private static class ScanBatch {
+
+        private final byte[] cursor;
+        private final List<byte[]> keys;
+        private final List<byte[]> values;
+
+        private ScanBatch(byte[] cursor, List<byte[]> keys, List<byte[]> values) {
+            this.cursor = cursor;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        private static ScanBatch read(Jedis jedis, byte[] cursor, ScanParams scanParams) {
+            ScanResult<byte[]> scanResult = jedis.scan(cursor, scanParams);
+            List<byte[]> keys = scanResult.getResult();
+            List<byte[]> values = keys.isEmpty() ? keys : jedis.mget(keys.toArray(new byte[keys.size()][]));
+            return new ScanBatch(scanResult.getCursorAsBytes(), keys, values);
+        }
+    }
+}
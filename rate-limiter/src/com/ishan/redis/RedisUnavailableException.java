@@ -0,0 +1,18 @@
+package com.ishan.redis;
+
+/**
+ * Thrown by {@link RedisService} when redis cannot be reached, or when it is not even tried as the circuit breaker
+ * is open
+ *
+ * @since 18/10/26
+ */
+public class RedisUnavailableException extends RuntimeException {
+
+    public RedisUnavailableException(String message) {
+        super(message);
+    }
+
+    public RedisUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,61 @@
+package com.ishan.redis;
+
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RateLimiterProperties;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.base.SlotExpiryWheel;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The counter keys whose expiry this node has already set. A fixed window key is created by the first INCRBY of its
+ * slot and expires at the end of the slot, {@link RateLimitPeriod#wrapNext(long)}, so its EXPIRE only has to be sent
+ * once, not with every increment. Each node sends it the first time it increments the key, so a key is not left
+ * without an expiry if the node which created it fails before setting it.
+ * <p>
+ * A key whose INCRBY returns just the increment was created by it. If that happens to a key recorded here, as after
+ * an eviction or a failover which lost it, its expiry is set again.
+ * <p>
+ * The keys are recorded by their slot in a {@link SlotExpiryWheel}, so they are forgotten along with the slot. It is
+ * turned off with redis.expire.oncePerSlot, to send the EXPIRE with every increment as before.
+ *
+ * @since 18/10/26
+ */
+class SlotKeyExpiries {
+
+    private static final boolean ENABLED = RateLimiterProperties.getBoolean("redis.expire.oncePerSlot", true);
+
+    private final SlotExpiryWheel<Set<ByteBuffer>> keysWithExpiry = new SlotExpiryWheel<>(ConcurrentHashMap::newKeySet);
+
+    /**
+     * @return true if the EXPIRE of the key has to be sent with its increment
+     */
+    boolean needsExpire(RedisKeyDetails redisKey) {
+        return !ENABLED || !getGeneration(redisKey).contains(ByteBuffer.wrap(redisKey.getKey()));
+    }
+
+    /**
+     * Records that the expiry of the key has been set
+     */
+    void expireSet(RedisKeyDetails redisKey) {
+        if (ENABLED) {
+            getGeneration(redisKey).add(ByteBuffer.wrap(redisKey.getKey()));
+        }
+    }
+
+    /**
+     * @param counter The counter of the key after its increment, sent without an EXPIRE
+     * @return true if the key was created by the increment and so has no expiry
+     */
+    static boolean isCreatedWithoutExpire(RedisKeyDetails redisKey, long counter) {
+        return counter == redisKey.getIncrement();
+    }
+
+    private Set<ByteBuffer> getGeneration(RedisKeyDetails redisKey) {
+        RateLimitPeriod period = redisKey.getPeriod();
+        return keysWithExpiry.getGeneration(period, period.wrapNext(redisKey.getSlotStart()),
+                System.currentTimeMillis());
+    }
+}
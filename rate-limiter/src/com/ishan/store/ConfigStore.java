@@ -0,0 +1,32 @@
+package com.ishan.store;
+
+import com.ishan.base.ClientConfig;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Where the configs of the clients are kept, each in a key of its own, redis by default, see {@link ConfigStores}.
+ * Other implementations can be plugged in with config.store. The configs are read through
+ * {@link com.ishan.base.ClientConfigProvider}, which caches them.
+ *
+ * @since 18/10/26
+ */
+public interface ConfigStore {
+
+    /**
+     * @param key The key of the config
+     * @return The config in the key, null if there is none
+     */
+    ClientConfig get(String key);
+
+    /**
+     * Hands the configs in the keys matching the pattern to the consumer, skipping the keys which hold anything else
+     *
+     * @param match      The pattern of the keys, in which * matches any characters and ? any one, as for redis SCAN
+     * @param batchSize  The number of keys read at once, for a store over the network
+     * @param maxConfigs The most configs handed to the consumer, after which the scan stops
+     * @param consumer   Called with the key and the config of each
+     * @return The number of configs handed to the consumer
+     */
+    int scan(String match, int batchSize, int maxConfigs, BiConsumer<String, ClientConfig> consumer);
+}
@@ -0,0 +1,31 @@
+package com.ishan.store;
+
+import com.ishan.base.RateLimiterProperties;
+import com.ishan.redis.RedisConfigStore;
+
+/**
+ * Provides the {@link ConfigStore} configured for the node: the class named in config.store, which needs a public no
+ * argument constructor, e.g. {@link InMemoryConfigStore}, if set, else the redis server of redis.host.
+ *
+ * @since 18/10/26
+ */
+public class ConfigStores {
+
+    private static final ConfigStore DEFAULT = create();
+
+    public static ConfigStore getDefault() {
+        return DEFAULT;
+    }
+
+    private static ConfigStore create() {
+        String className = RateLimiterProperties.getString("config.store", "");
+        if (!className.isEmpty()) {
+            try {
+                return Class.forName(className).asSubclass(ConfigStore.class).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Not a config store " + className, e);
+            }
+        }
+        return new RedisConfigStore();
+    }
+}
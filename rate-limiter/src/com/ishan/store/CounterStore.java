@@ -0,0 +1,74 @@
+package com.ishan.store;
+
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.strategy.RateLimitStrategy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where the counters of the limits are kept. The {@link com.ishan.base.RateLimitValidator} is given one, by default
+ * the one configured for the node, see {@link CounterStores}, and other implementations can be plugged in with
+ * ratelimit.counterStore. All the keys of a request belong to one client and carry its id as a hash tag, see
+ * {@link com.ishan.base.ClientLimitPlan}, so a store which is sharded by key can always serve a request from a single
+ * shard.
+ *
+ * @since 18/10/26
+ */
+public interface CounterStore {
+
+    /**
+     * Increments every key by its {@link RedisKeyDetails#getIncrement()} and sets its expiry.
+     *
+     * @param redisKeysWithTTL The keys to increment
+     * @return The counter values after the increment, in the same order as the keys
+     */
+    List<Long> increment(List<RedisKeyDetails> redisKeysWithTTL);
+
+    /**
+     * Evaluates all the limits of a request atomically with the strategy. The request is only recorded against the
+     * limits if none of them is broken.
+     *
+     * @param strategy    The {@link RateLimitStrategy} of the client
+     * @param redisKeys   The keys of the request, one for each limit
+     * @param requestTime The time of the request
+     * @return 0 if the request is within the limits, else the 1 based index of the first key whose limit is broken
+     */
+    int evaluate(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime);
+
+    /**
+     * Evaluates the limits of several requests, each on its own as by
+     * {@link #evaluate(RateLimitStrategy, List, long)} and in the order given, so a request sees the permits taken by
+     * the ones before it. A store over the network sends them together, in as few round trips as it can.
+     *
+     * @param evaluations The requests to evaluate, whose keys may belong to different clients
+     * @return The verdict of each request, in the same order
+     */
+    default int[] evaluateAll(List<Evaluation> evaluations) {
+        int[] verdicts = new int[evaluations.size()];
+        for (int i = 0; i < verdicts.length; i++) {
+            Evaluation evaluation = evaluations.get(i);
+            verdicts[i] = evaluate(evaluation.getStrategy(), evaluation.getRedisKeys(), evaluation.getRequestTime());
+        }
+        return verdicts;
+    }
+
+    /**
+     * Reads the counters of the keys, without changing them
+     *
+     * @param redisKeys The keys to read
+     * @return The counter values, 0 for a key which has none, in the same order as the keys
+     */
+    List<Long> read(List<RedisKeyDetails> redisKeys);
+
+    /**
+     * Async version of {@link #increment(List)}
+     */
+    CompletableFuture<List<Long>> incrementAsync(List<RedisKeyDetails> redisKeysWithTTL);
+
+    /**
+     * Async version of {@link #evaluate(RateLimitStrategy, List, long)}
+     */
+    CompletableFuture<Integer> evaluateAsync(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys,
+                                             long requestTime);
+}
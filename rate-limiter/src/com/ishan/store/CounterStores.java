@@ -0,0 +1,39 @@
+package com.ishan.store;
+
+import com.ishan.base.RateLimiterProperties;
+import com.ishan.redis.RedisClusterCounterStore;
+import com.ishan.redis.RedisCounterStore;
+
+import java.util.Arrays;
+
+/**
+ * Provides the {@link CounterStore} configured for the node: the class named in ratelimit.counterStore, which needs a
+ * public no argument constructor, e.g. {@link InMemoryCounterStore}, if set, else a redis cluster, seeded from
+ * redis.cluster.nodes, if redis.cluster.enabled is set, else the redis server of redis.host and redis.port.
+ *
+ * @since 18/10/26
+ */
+public class CounterStores {
+
+    private static final CounterStore DEFAULT = create();
+
+    public static CounterStore getDefault() {
+        return DEFAULT;
+    }
+
+    private static CounterStore create() {
+        String className = RateLimiterProperties.getString("ratelimit.counterStore", "");
+        if (!className.isEmpty()) {
+            try {
+                return Class.forName(className).asSubclass(CounterStore.class).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Not a counter store " + className, e);
+            }
+        }
+        if (RateLimiterProperties.getBoolean("redis.cluster.enabled", false)) {
+            return new RedisClusterCounterStore(Arrays.asList(
+                    RateLimiterProperties.getString("redis.cluster.nodes", "").split("\\s*,\\s*")));
+        }
+        return new RedisCounterStore();
+    }
+}
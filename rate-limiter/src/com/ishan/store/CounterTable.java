@@ -0,0 +1,40 @@
+package com.ishan.store;
+
+import com.ishan.base.RateLimitPeriod;
+
+/**
+ * Counters kept in the process, on which a {@link com.ishan.strategy.RateLimitStrategy} runs the same logic as its
+ * script does on redis, see {@link InMemoryCounterStore}. A counter which has expired reads as 0, as a key redis has
+ * dropped would. The period of the key decides how the counter is expired, see
+ * {@link com.ishan.base.SlotExpiryWheel}.
+ *
+ * @since 18/10/26
+ */
+public interface CounterTable {
+
+    /**
+     * @param key    The key of the counter
+     * @param period The period of the key
+     * @param now    The current time in millis
+     * @return The value of the counter, 0 if there is none or it has expired
+     */
+    long get(byte[] key, RateLimitPeriod period, long now);
+
+    /**
+     * Adds to the counter. A counter which did not exist is created with the ttl, as with INCRBY followed by PEXPIRE
+     * on a new key, an existing one keeps its expiry.
+     *
+     * @param key       The key of the counter
+     * @param period    The period of the key
+     * @param delta     The amount added
+     * @param ttlMillis The ttl of the counter if it is created
+     * @param now       The current time in millis
+     * @return The value of the counter after the increment
+     */
+    long incrementBy(byte[] key, RateLimitPeriod period, long delta, long ttlMillis, long now);
+
+    /**
+     * Sets the counter and its ttl, as with SET PX
+     */
+    void set(byte[] key, RateLimitPeriod period, long value, long ttlMillis, long now);
+}
@@ -0,0 +1,37 @@
+package com.ishan.store;
+
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.strategy.RateLimitStrategy;
+
+import java.util.List;
+
+/**
+ * The limits of one request to be evaluated along with others by {@link CounterStore#evaluateAll(List)}, with the
+ * arguments of {@link CounterStore#evaluate(RateLimitStrategy, List, long)}
+ *
+ * @since 18/10/26
+ */
+public class Evaluation {
+
+    private final RateLimitStrategy strategy;
+    private final List<RedisKeyDetails> redisKeys;
+    private final long requestTime;
+
+    public Evaluation(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime) {
+        this.strategy = strategy;
+        this.redisKeys = redisKeys;
+        this.requestTime = requestTime;
+    }
+
+    public RateLimitStrategy getStrategy() {
+        return strategy;
+    }
+
+    public List<RedisKeyDetails> getRedisKeys() {
+        return redisKeys;
+    }
+
+    public long getRequestTime() {
+        return requestTime;
+    }
+}
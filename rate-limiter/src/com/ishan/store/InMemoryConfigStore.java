@@ -0,0 +1,72 @@
+package com.ishan.store;
+
+import com.ishan.base.ClientConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * The client configs kept in the process, for a single node or for tests, put in with {@link #put}. A changed config
+ * is reloaded by the nodes once its change is published, as with any store, see
+ * {@link com.ishan.base.ClientConfigProvider#publishConfigChange(String)}.
+ *
+ * @since 18/10/26
+ */
+public class InMemoryConfigStore implements ConfigStore {
+
+    private final ConcurrentMap<String, ClientConfig> keyVsClientConfig = new ConcurrentHashMap<>();
+
+    @Override
+    public ClientConfig get(String key) {
+        return keyVsClientConfig.get(key);
+    }
+
+    @Override
+    public int scan(String match, int batchSize, int maxConfigs, BiConsumer<String, ClientConfig> consumer) {
+        Pattern pattern = toPattern(match);
+        int found = 0;
+        for (Map.Entry<String, ClientConfig> entry : keyVsClientConfig.entrySet()) {
+            if (found == maxConfigs) {
+                break;
+            }
+            if (pattern.matcher(entry.getKey()).matches()) {
+                consumer.accept(entry.getKey(), entry.getValue());
+                found++;
+            }
+        }
+        return found;
+    }
+
+    public void put(String key, ClientConfig clientConfig) {
+        keyVsClientConfig.put(key, clientConfig);
+    }
+
+    public void remove(String key) {
+        keyVsClientConfig.remove(key);
+    }
+
+    /**
+     * Only * and ? are wildcards, every other character stands for itself
+     */
+    private static Pattern toPattern(String match) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < match.length(); i++) {
+            char c = match.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(match.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < match.length()) {
+            regex.append(Pattern.quote(match.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
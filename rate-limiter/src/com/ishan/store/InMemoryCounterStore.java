@@ -0,0 +1,308 @@
+package com.ishan.store;
+
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RateLimiterProperties;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.base.SlotExpiryWheel;
+import com.ishan.strategy.RateLimitStrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The counters kept in the process, for a single node or for tests and benchmarks. The strategies run their logic in
+ * Java instead of their scripts, see {@link RateLimitStrategy#evaluate(CounterTable, List, long)}.
+ * <p>
+ * The counters are split into ratelimit.memory.segments segments by the hash tag of their key, i.e. by client, so all
+ * the keys of a request are in one segment and the request is evaluated atomically under the lock of that segment.
+ * The counters of a segment are kept in open addressing tables of primitive arrays, one per generation of the
+ * {@link SlotExpiryWheel} of the segment, so the counters of a slot are dropped together with their table once it
+ * has ended. Expired counters read as 0 right away, a counter whose expiry moves to a later generation, as with
+ * GCRA, is moved to its table.
+ *
+ * @since 18/10/26
+ */
+public class InMemoryCounterStore implements CounterStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments;
+
+    /**
+     * With ratelimit.memory.segments segments, rounded up to a power of 2
+     */
+    public InMemoryCounterStore() {
+        this(RateLimiterProperties.getInt("ratelimit.memory.segments", 64));
+    }
+
+    public InMemoryCounterStore(int segments) {
+        int count = 1;
+        while (count < segments) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public List<Long> increment(List<RedisKeyDetails> redisKeysWithTTL) {
+        long now = System.currentTimeMillis();
+        List<Long> rv = new ArrayList<>(redisKeysWithTTL.size());
+        for (RedisKeyDetails redisKeyWithTTL : redisKeysWithTTL) {
+            Segment segment = getSegment(redisKeyWithTTL.getKey());
+            segment.lock.lock();
+            try {
+                rv.add(segment.incrementBy(redisKeyWithTTL.getKey(), redisKeyWithTTL.getPeriod(),
+                        redisKeyWithTTL.getIncrement(), Math.max(1, redisKeyWithTTL.getTtl()), now));
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the keys are not all in the same segment, i.e. do not share a hash tag
+     */
+    @Override
+    public int evaluate(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys, long requestTime) {
+        Segment segment = getSegment(redisKeys.get(0).getKey());
+        for (int i = 1; i < redisKeys.size(); i++) {
+            if (getSegment(redisKeys.get(i).getKey()) != segment) {
+                throw new IllegalArgumentException("The keys of a request must share their hash tag");
+            }
+        }
+        segment.lock.lock();
+        try {
+            return strategy.evaluate(segment, redisKeys, requestTime);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Long> read(List<RedisKeyDetails> redisKeys) {
+        long now = System.currentTimeMillis();
+        List<Long> rv = new ArrayList<>(redisKeys.size());
+        for (RedisKeyDetails redisKey : redisKeys) {
+            Segment segment = getSegment(redisKey.getKey());
+            segment.lock.lock();
+            try {
+                rv.add(segment.get(redisKey.getKey(), redisKey.getPeriod(), now));
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Runs in the calling thread, the future is complete when returned
+     */
+    @Override
+    public CompletableFuture<List<Long>> incrementAsync(List<RedisKeyDetails> redisKeysWithTTL) {
+        CompletableFuture<List<Long>> rv = new CompletableFuture<>();
+        try {
+            rv.complete(increment(redisKeysWithTTL));
+        } catch (RuntimeException e) {
+            rv.completeExceptionally(e);
+        }
+        return rv;
+    }
+
+    /**
+     * Runs in the calling thread, the future is complete when returned
+     */
+    @Override
+    public CompletableFuture<Integer> evaluateAsync(RateLimitStrategy strategy, List<RedisKeyDetails> redisKeys,
+                                                    long requestTime) {
+        CompletableFuture<Integer> rv = new CompletableFuture<>();
+        try {
+            rv.complete(evaluate(strategy, redisKeys, requestTime));
+        } catch (RuntimeException e) {
+            rv.completeExceptionally(e);
+        }
+        return rv;
+    }
+
+    private Segment getSegment(byte[] key) {
+        return segments[mix(hashTagHash(key)) & (segments.length - 1)];
+    }
+
+    /**
+     * @return The hash of the part of the key between the first { and the } after it, as for the hash slot of redis
+     * cluster, or of the whole key if it has no such part
+     */
+    private static int hashTagHash(byte[] key) {
+        int from = 0;
+        int to = key.length;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == '{') {
+                for (int j = i + 1; j < key.length; j++) {
+                    if (key[j] == '}') {
+                        if (j > i + 1) {
+                            from = i + 1;
+                            to = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + key[i];
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The counters of some of the clients, in a table per generation of their period. Every method is called with the
+     * lock held.
+     */
+    private static class Segment implements CounterTable {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final SlotExpiryWheel<Table> wheel = new SlotExpiryWheel<>(Table::new);
+
+        @Override
+        public long get(byte[] key, RateLimitPeriod period, long now) {
+            int hash = mix(Arrays.hashCode(key));
+            Table table = wheel.find(period, now, t -> t.find(key, hash) >= 0 ? t : null);
+            if (table == null) {
+                return 0;
+            }
+            int index = table.find(key, hash);
+            return table.expiresAt[index] > now ? table.values[index] : 0;
+        }
+
+        @Override
+        public long incrementBy(byte[] key, RateLimitPeriod period, long delta, long ttlMillis, long now) {
+            int hash = mix(Arrays.hashCode(key));
+            Table table = wheel.find(period, now, t -> t.find(key, hash) >= 0 ? t : null);
+            if (table != null) {
+                int index = table.find(key, hash);
+                if (table.expiresAt[index] > now) {
+                    table.values[index] += delta;
+                    return table.values[index];
+                }
+                // Expired but its generation has not ended yet, it starts again with the ttl
+                table.remove(index);
+            }
+            wheel.getGeneration(period, now + ttlMillis, now).insert(key, hash, delta, now + ttlMillis);
+            return delta;
+        }
+
+        @Override
+        public void set(byte[] key, RateLimitPeriod period, long value, long ttlMillis, long now) {
+            int hash = mix(Arrays.hashCode(key));
+            Table table = wheel.find(period, now, t -> t.find(key, hash) >= 0 ? t : null);
+            if (table != null) {
+                table.remove(table.find(key, hash));
+            }
+            wheel.getGeneration(period, now + ttlMillis, now).insert(key, hash, value, now + ttlMillis);
+        }
+    }
+
+    /**
+     * An open addressing table with linear probing, holding the keys, the counters and their expiry times in parallel
+     * arrays, so a counter is not an object of its own
+     */
+    private static class Table {
+
+        private byte[][] keys = new byte[INITIAL_CAPACITY][];
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private long[] values = new long[INITIAL_CAPACITY];
+        private long[] expiresAt = new long[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * @return The index of the key, or -1 if it is not in the table
+         */
+        private int find(byte[] key, int hash) {
+            int mask = keys.length - 1;
+            for (int index = hash & mask; keys[index] != null; index = (index + 1) & mask) {
+                if (hashes[index] == hash && Arrays.equals(keys[index], key)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(byte[] key, int hash, long value, long expiry) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            hashes[index] = hash;
+            values[index] = value;
+            expiresAt[index] = expiry;
+            size++;
+        }
+
+        private void resize(int capacity) {
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            long[] oldValues = values;
+            long[] oldExpiresAt = expiresAt;
+            keys = new byte[capacity][];
+            hashes = new int[capacity];
+            values = new long[capacity];
+            expiresAt = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int index = oldHashes[i] & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                hashes[index] = oldHashes[i];
+                values[index] = oldValues[i];
+                expiresAt[index] = oldExpiresAt[i];
+            }
+        }
+
+        /**
+         * Removes the entry and shifts back the entries after it which would no longer be found, so that no
+         * tombstones are needed
+         */
+        private void remove(int index) {
+            int mask = keys.length - 1;
+            int hole = index;
+            keys[hole] = null;
+            for (int i = (hole + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+                int home = hashes[i] & mask;
+                // The entry can fill the hole if its home is not cyclically within (hole, i]
+                boolean stays = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+                if (!stays) {
+                    keys[hole] = keys[i];
+                    hashes[hole] = hashes[i];
+                    values[hole] = values[i];
+                    expiresAt[hole] = expiresAt[i];
+                    keys[i] = null;
+                    hole = i;
+                }
+            }
+            size--;
+        }
+    }
+}
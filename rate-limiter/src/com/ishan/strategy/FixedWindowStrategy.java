@@ -0,0 +1,70 @@
+package com.ishan.strategy;
+
+import com.ishan.base.RedisKeyCodec;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.redis.RedisScript;
+import com.ishan.store.CounterTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One counter per slot which expires with the slot, see fixed_window.lua
+ *
+ * @since 18/10/26
+ */
+public class FixedWindowStrategy implements RateLimitStrategy {
+
+    private static final RedisScript SCRIPT = RedisScript.fromResource("fixed_window.lua");
+
+    @Override
+    public RedisScript getScript() {
+        return SCRIPT;
+    }
+
+    @Override
+    public void addScriptArgs(RedisKeyDetails redisKey, long requestTime, List<byte[]> keys, List<byte[]> args) {
+        keys.add(redisKey.getKey());
+        args.add(RedisKeyCodec.encodeLong(redisKey.getLimit()));
+        args.add(RedisKeyCodec.encodeLong(Math.max(1, redisKey.getTtl())));
+        args.add(RedisKeyCodec.encodeLong(redisKey.getIncrement()));
+    }
+
+    @Override
+    public int evaluate(CounterTable counters, List<RedisKeyDetails> redisKeys, long requestTime) {
+        for (int i = 0; i < redisKeys.size(); i++) {
+            RedisKeyDetails redisKey = redisKeys.get(i);
+            if (counters.get(redisKey.getKey(), redisKey.getPeriod(), requestTime) + redisKey.getIncrement() > redisKey.getLimit()) {
+                return i + 1;
+            }
+        }
+        for (RedisKeyDetails redisKey : redisKeys) {
+            counters.incrementBy(redisKey.getKey(), redisKey.getPeriod(), redisKey.getIncrement(),
+                    Math.max(1, redisKey.getTtl()), requestTime);
+        }
+        return 0;
+    }
+
+    /**
+     * The counter only goes down when the slot ends
+     */
+    @Override
+    public long blockedUntil(RedisKeyDetails violated, long requestTime) {
+        return requestTime + violated.getTtl();
+    }
+
+    /**
+     * The counters of the slots which have not ended
+     */
+    @Override
+    public List<RedisKeyDetails> getRefundKeys(List<RedisKeyDetails> redisKeys, long permits, long refundTime) {
+        List<RedisKeyDetails> refundKeys = new ArrayList<>(redisKeys.size());
+        for (RedisKeyDetails redisKey : redisKeys) {
+            long slotEnd = redisKey.getPeriod().wrapNext(redisKey.getSlotStart());
+            if (refundTime < slotEnd) {
+                refundKeys.add(redisKey.forKey(redisKey.getKey(), slotEnd - refundTime, -permits));
+            }
+        }
+        return refundKeys;
+    }
+}
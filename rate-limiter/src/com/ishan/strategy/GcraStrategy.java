@@ -0,0 +1,84 @@
+package com.ishan.strategy;
+
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RedisKeyCodec;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.redis.RedisScript;
+import com.ishan.store.CounterTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The generic cell rate algorithm, see gcra.lua. Every limit has one key, not one per slot, holding the theoretical
+ * arrival time of the next request. The key is the prefix of the limit with slot 0, which no slot of the other
+ * strategies can have.
+ *
+ * @since 18/10/26
+ */
+public class GcraStrategy implements RateLimitStrategy {
+
+    private static final RedisScript SCRIPT = RedisScript.fromResource("gcra.lua");
+
+    @Override
+    public RedisScript getScript() {
+        return SCRIPT;
+    }
+
+    @Override
+    public void addScriptArgs(RedisKeyDetails redisKey, long requestTime, List<byte[]> keys, List<byte[]> args) {
+        long period = requestTime + redisKey.getTtl() - redisKey.getSlotStart();
+        keys.add(RedisKeyCodec.encodeKey(redisKey.getKeyPrefix(), 0));
+        args.add(RedisKeyCodec.encodeLong(redisKey.getLimit()));
+        args.add(RedisKeyCodec.encodeLong(period));
+        args.add(RedisKeyCodec.encodeLong(redisKey.getIncrement()));
+        args.add(RedisKeyCodec.encodeLong(requestTime));
+    }
+
+    /**
+     * Moves the arrival time of every limit back by the emission intervals of the permits. A time which falls behind
+     * now is read as now, so nothing is given back beyond the burst.
+     */
+    @Override
+    public List<RedisKeyDetails> getRefundKeys(List<RedisKeyDetails> redisKeys, long permits, long refundTime) {
+        List<RedisKeyDetails> refundKeys = new ArrayList<>(redisKeys.size());
+        for (RedisKeyDetails redisKey : redisKeys) {
+            long period = redisKey.getPeriod().wrapNext(redisKey.getSlotStart()) - redisKey.getSlotStart();
+            long interval = Math.round((double) permits * period * 1000 / redisKey.getLimit());
+            refundKeys.add(redisKey.forKey(RedisKeyCodec.encodeKey(redisKey.getKeyPrefix(), 0), period, -interval));
+        }
+        return refundKeys;
+    }
+
+    @Override
+    public int evaluate(CounterTable counters, List<RedisKeyDetails> redisKeys, long requestTime) {
+        long now = requestTime * 1000;
+        byte[][] keys = new byte[redisKeys.size()][];
+        long[] tats = new long[redisKeys.size()];
+        RateLimitPeriod[] periods = new RateLimitPeriod[redisKeys.size()];
+        for (int i = 0; i < redisKeys.size(); i++) {
+            RedisKeyDetails redisKey = redisKeys.get(i);
+            long period = (requestTime + redisKey.getTtl() - redisKey.getSlotStart()) * 1000;
+            keys[i] = RedisKeyCodec.encodeKey(redisKey.getKeyPrefix(), 0);
+            periods[i] = redisKey.getPeriod();
+            long tat = Math.max(counters.get(keys[i], periods[i], requestTime), now);
+            long newTat = tat + Math.round((double) redisKey.getIncrement() * period / redisKey.getLimit());
+            if (newTat - period > now) {
+                return i + 1;
+            }
+            tats[i] = newTat;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            counters.set(keys[i], periods[i], tats[i], Math.max(1, (tats[i] - now + 999) / 1000), requestTime);
+        }
+        return 0;
+    }
+
+    /**
+     * The next allowed time depends on the stored arrival time, which the script does not return
+     */
+    @Override
+    public long blockedUntil(RedisKeyDetails violated, long requestTime) {
+        return 0;
+    }
+}
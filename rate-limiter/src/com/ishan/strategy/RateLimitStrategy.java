@@ -0,0 +1,63 @@
+package com.ishan.strategy;
+
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.redis.RedisScript;
+import com.ishan.store.CounterTable;
+
+import java.util.List;
+
+/**
+ * How the limits of a request are evaluated. Every strategy is a lua script which checks all the limits of a request
+ * and, only if none of them is broken, records the request against all of them, in one round trip.
+ * <p>
+ * The script gets the keys and arguments added by {@link #addScriptArgs} for each limit, in the order of the limits,
+ * and returns 0 if the request is allowed, else the 1 based index of the first limit it breaks. The same logic runs
+ * in the process with {@link #evaluate(CounterTable, List, long)}, for the counters kept there.
+ *
+ * @since 18/10/26
+ */
+public interface RateLimitStrategy {
+
+    RedisScript getScript();
+
+    /**
+     * Adds the keys and the arguments of one limit of the request
+     *
+     * @param redisKey    The key details of the limit
+     * @param requestTime The time of the request
+     * @param keys        The keys of the script
+     * @param args        The arguments of the script
+     */
+    void addScriptArgs(RedisKeyDetails redisKey, long requestTime, List<byte[]> keys, List<byte[]> args);
+
+    /**
+     * Does what the script does, on counters kept in the process. The caller makes it atomic.
+     *
+     * @param counters    The counters
+     * @param redisKeys   The key details of the limits of the request
+     * @param requestTime The time of the request
+     * @return 0 if the request is allowed, else the 1 based index of the first limit it breaks
+     */
+    int evaluate(CounterTable counters, List<RedisKeyDetails> redisKeys, long requestTime);
+
+    /**
+     * Until when a request is sure to break a limit that was just broken, so that it can be rejected without asking
+     * redis, see {@link com.ishan.base.RateLimitValidator}
+     *
+     * @param violated    The key details of the broken limit
+     * @param requestTime The time of the request which broke it
+     * @return The time until which the limit stays broken, or 0 if the strategy cannot tell
+     */
+    long blockedUntil(RedisKeyDetails violated, long requestTime);
+
+    /**
+     * The keys, with negative increments, which give back permits a request took, see
+     * {@link com.ishan.base.RateLimitValidator#refund}. The limits whose permits no longer count are left out.
+     *
+     * @param redisKeys  The key details of the limits of the request
+     * @param permits    The permits given back to each limit
+     * @param refundTime The current time
+     * @return The keys to increment in the store
+     */
+    List<RedisKeyDetails> getRefundKeys(List<RedisKeyDetails> redisKeys, long permits, long refundTime);
+}
@@ -0,0 +1,92 @@
+package com.ishan.strategy;
+
+import com.ishan.base.RedisKeyCodec;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.redis.RedisScript;
+import com.ishan.store.CounterTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The counters of the current and the previous slot, the previous one weighted by the part of it which still falls
+ * within one period of the request, see sliding_window.lua. A counter lives for two slots as it is the previous one
+ * during the next slot.
+ *
+ * @since 18/10/26
+ */
+public class SlidingWindowStrategy implements RateLimitStrategy {
+
+    private static final RedisScript SCRIPT = RedisScript.fromResource("sliding_window.lua");
+
+    @Override
+    public RedisScript getScript() {
+        return SCRIPT;
+    }
+
+    @Override
+    public void addScriptArgs(RedisKeyDetails redisKey, long requestTime, List<byte[]> keys, List<byte[]> args) {
+        long slotStart = redisKey.getSlotStart();
+        long slotEnd = requestTime + redisKey.getTtl();
+        long previousSlotStart = redisKey.getPeriod().wrap(slotStart - 1);
+        keys.add(redisKey.getKey());
+        keys.add(RedisKeyCodec.encodeKey(redisKey.getKeyPrefix(), previousSlotStart));
+        args.add(RedisKeyCodec.encodeLong(redisKey.getLimit()));
+        // Kept until the end of the next slot
+        args.add(RedisKeyCodec.encodeLong(Math.max(1, redisKey.getTtl()) + (slotEnd - slotStart)));
+        args.add(RedisKeyCodec.encodeLong(redisKey.getIncrement()));
+        args.add(RedisKeyCodec.encodeLong(requestTime - slotStart));
+        args.add(RedisKeyCodec.encodeLong(slotStart - previousSlotStart));
+    }
+
+    /**
+     * The counters of the slots which still weigh in, the current one and the one before, with the expiry the script
+     * gives them
+     */
+    @Override
+    public List<RedisKeyDetails> getRefundKeys(List<RedisKeyDetails> redisKeys, long permits, long refundTime) {
+        List<RedisKeyDetails> refundKeys = new ArrayList<>(redisKeys.size());
+        for (RedisKeyDetails redisKey : redisKeys) {
+            long slotStart = redisKey.getSlotStart();
+            long slotEnd = redisKey.getPeriod().wrapNext(slotStart);
+            long expiresAt = 2 * slotEnd - slotStart;
+            if (refundTime < expiresAt) {
+                refundKeys.add(redisKey.forKey(redisKey.getKey(), expiresAt - refundTime, -permits));
+            }
+        }
+        return refundKeys;
+    }
+
+    @Override
+    public int evaluate(CounterTable counters, List<RedisKeyDetails> redisKeys, long requestTime) {
+        for (int i = 0; i < redisKeys.size(); i++) {
+            RedisKeyDetails redisKey = redisKeys.get(i);
+            long slotStart = redisKey.getSlotStart();
+            long previousSlotStart = redisKey.getPeriod().wrap(slotStart - 1);
+            long current = counters.get(redisKey.getKey(), redisKey.getPeriod(), requestTime);
+            long previous = counters.get(RedisKeyCodec.encodeKey(redisKey.getKeyPrefix(), previousSlotStart),
+                    redisKey.getPeriod(), requestTime);
+            long length = slotStart - previousSlotStart;
+            long elapsed = Math.min(requestTime - slotStart, length);
+            double estimate = (double) previous * (length - elapsed) / length + current;
+            if (estimate + redisKey.getIncrement() > redisKey.getLimit()) {
+                return i + 1;
+            }
+        }
+        for (RedisKeyDetails redisKey : redisKeys) {
+            long slotEnd = requestTime + redisKey.getTtl();
+            counters.incrementBy(redisKey.getKey(), redisKey.getPeriod(), redisKey.getIncrement(),
+                    Math.max(1, redisKey.getTtl()) + (slotEnd - redisKey.getSlotStart()), requestTime);
+        }
+        return 0;
+    }
+
+    /**
+     * The weight of the previous slot falls with every millisecond, and without the counters it is not known when
+     * the estimate drops below the limit
+     */
+    @Override
+    public long blockedUntil(RedisKeyDetails violated, long requestTime) {
+        return 0;
+    }
+}
@@ -0,0 +1,146 @@
+package com.ishan.base;
+
+import com.ishan.store.ConfigStores;
+import com.ishan.store.TestConfigStore;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The provider is static, so each test uses client ids of its own.
+ *
+ * @since 18/10/26
+ */
+public class ClientConfigProviderTest {
+
+    private final TestConfigStore store = (TestConfigStore) ConfigStores.getDefault();
+
+    @Test
+    public void readsTheKeyWithThePrefix() {
+        ClientConfig clientConfig = clientConfig("prefixed");
+        store.put(ClientConfigProvider.getConfigKey("prefixed"), clientConfig);
+        assertEquals("ratelimit:config:prefixed", ClientConfigProvider.getConfigKey("prefixed"));
+        assertSame(clientConfig, ClientConfigProvider.getClientConfig("prefixed"));
+    }
+
+    @Test
+    public void fallsBackToTheKeyOfTheClientIdAlone() {
+        ClientConfig legacy = clientConfig("legacy");
+        store.put("legacy", legacy);
+        assertSame(legacy, ClientConfigProvider.getClientConfig("legacy"));
+
+        // The key with the prefix wins once the config has been moved there
+        ClientConfig moved = clientConfig("moved");
+        store.put("moved", clientConfig("moved"));
+        store.put(ClientConfigProvider.getConfigKey("moved"), moved);
+        assertSame(moved, ClientConfigProvider.getClientConfig("moved"));
+    }
+
+    @Test
+    public void aClientWithoutAConfigHasNone() {
+        assertNull(ClientConfigProvider.getClientConfig("unknown"));
+    }
+
+    @Test
+    public void warmsUpTheKeysWithThePrefix() {
+        ClientConfig first = clientConfig("warm1");
+        ClientConfig second = clientConfig("warm2");
+        store.put(ClientConfigProvider.getConfigKey("warm1"), first);
+        store.put(ClientConfigProvider.getConfigKey("warm2"), second);
+        store.put("warm3", clientConfig("warm3"));
+        assertTrue(ClientConfigProvider.warmUpAsync().join() >= 2);
+
+        // Served from the cache from now on
+        store.remove(ClientConfigProvider.getConfigKey("warm1"));
+        store.remove(ClientConfigProvider.getConfigKey("warm2"));
+        store.remove("warm3");
+        assertSame(first, ClientConfigProvider.getClientConfig("warm1"));
+        assertSame(second, ClientConfigProvider.getClientConfig("warm2"));
+        // Not scanned, and since gone from the store
+        assertNull(ClientConfigProvider.getClientConfig("warm3"));
+    }
+
+    @Test
+    public void aChangeDuringTheFirstLoadIsNotLost() throws Exception {
+        String key = ClientConfigProvider.getConfigKey("changing");
+        store.put(key, clientConfig("changing"));
+        TestConfigStore.Pause pause = store.pauseNextGet(key);
+        CompletableFuture<ClientConfig> lookup = ClientConfigProvider.getClientConfigAsync("changing");
+        pause.awaitRead();
+
+        ClientConfig changed = clientConfig("changing");
+        store.put(key, changed);
+        ClientConfigProvider.publishConfigChange("changing");
+        pause.resume();
+        assertSame(changed, lookup.get(10, TimeUnit.SECONDS));
+        assertSame(changed, ClientConfigProvider.getClientConfig("changing"));
+    }
+
+    @Test
+    public void aChangeDuringAReloadIsNotLost() throws Exception {
+        String key = ClientConfigProvider.getConfigKey("reloading");
+        store.put(key, clientConfig("reloading"));
+        ClientConfigProvider.getClientConfig("reloading");
+
+        // The first change is being read when the second one is published
+        store.put(key, clientConfig("reloading"));
+        TestConfigStore.Pause pause = store.pauseNextGet(key);
+        ClientConfigProvider.publishConfigChange("reloading");
+        pause.awaitRead();
+        ClientConfig changedAgain = clientConfig("reloading");
+        store.put(key, changedAgain);
+        ClientConfigProvider.publishConfigChange("reloading");
+        pause.resume();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (ClientConfigProvider.getClientConfig("reloading") != changedAgain) {
+            assertTrue("The second change was lost", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void junkClientIdsDoNotEvictTheConfigs() {
+        ClientConfig clientConfig = clientConfig("real");
+        store.put(ClientConfigProvider.getConfigKey("real"), clientConfig);
+        assertSame(clientConfig, ClientConfigProvider.getClientConfig("real"));
+        // Many more than config.cache.maxSize
+        for (int i = 0; i < 1000; i++) {
+            assertNull(ClientConfigProvider.getClientConfig("junk" + i));
+        }
+        store.remove(ClientConfigProvider.getConfigKey("real"));
+        assertSame(clientConfig, ClientConfigProvider.getClientConfig("real"));
+    }
+
+    @Test
+    public void aClientWithoutAConfigIsLoadedAgainOnceExpired() throws InterruptedException {
+        assertNull(ClientConfigProvider.getClientConfig("late"));
+        ClientConfig clientConfig = clientConfig("late");
+        store.put(ClientConfigProvider.getConfigKey("late"), clientConfig);
+        assertNull(ClientConfigProvider.getClientConfig("late"));
+        // config.cache.negative.ttlSeconds
+        Thread.sleep(1100);
+        assertSame(clientConfig, ClientConfigProvider.getClientConfig("late"));
+    }
+
+    @Test
+    public void aClientWithoutAConfigIsLoadedAgainOnceChanged() {
+        assertNull(ClientConfigProvider.getClientConfig("created"));
+        ClientConfig clientConfig = clientConfig("created");
+        store.put(ClientConfigProvider.getConfigKey("created"), clientConfig);
+        ClientConfigProvider.publishConfigChange("created");
+        assertSame(clientConfig, ClientConfigProvider.getClientConfig("created"));
+    }
+
+    private static ClientConfig clientConfig(String clientId) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        return clientConfig;
+    }
+}
@@ -0,0 +1,130 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @since 18/10/26
+ */
+public class ClientLimitPlanTest {
+
+    @Test
+    public void endpointsAndTemplates() {
+        Map<String, ClientConfig.RateLimits> endpointVsLimits = new LinkedHashMap<>();
+        endpointVsLimits.put("/price", limits(RateLimitPeriod.SECOND, 5));
+        endpointVsLimits.put("/price/{id}", limits(RateLimitPeriod.SECOND, 6));
+        endpointVsLimits.put("/catalog/**", limits(RateLimitPeriod.MINUTE, 7));
+        ClientLimitPlan plan = compile(endpointVsLimits);
+
+        assertEquals(5, plan.getEndpointLimits("/price").getLimit(0));
+        assertEquals("/price", plan.getRoute("/price"));
+        assertEquals(6, plan.getEndpointLimits("/price/42").getLimit(0));
+        assertEquals("/price/{id}", plan.getEndpointLimits("/price/42").getEndpoint());
+        assertEquals("/price/{id}", plan.getRoute("/price/42"));
+        assertEquals(RateLimitPeriod.MINUTE, plan.getEndpointLimits("/catalog/books/1").getPeriod(0));
+        assertEquals("/catalog/**", plan.getRoute("/catalog/books/1"));
+        assertNull(plan.getEndpointLimits("/other"));
+        assertNull(plan.getRoute("/other"));
+        assertNull(plan.getRoute(null));
+    }
+
+    @Test
+    public void endpointsWithEqualHashCodes() {
+        // All of them have the same String.hashCode()
+        String[] endpoints = {"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB", "AaAaAa", "BBBBBB"};
+        Map<String, ClientConfig.RateLimits> endpointVsLimits = new LinkedHashMap<>();
+        for (int i = 0; i < endpoints.length; i++) {
+            endpointVsLimits.put(endpoints[i], limits(RateLimitPeriod.SECOND, i + 1));
+        }
+        ClientLimitPlan plan = compile(endpointVsLimits);
+        for (int i = 0; i < endpoints.length; i++) {
+            assertEquals(endpoints[i], i + 1, plan.getEndpointLimits(endpoints[i]).getLimit(0));
+        }
+        assertNull(plan.getEndpointLimits("AaBBAa"));
+    }
+
+    @Test
+    public void manyEndpoints() {
+        // More than the perfect hash table holds, so they are kept in a map
+        for (int count : new int[]{1000, 40_000}) {
+            Map<String, ClientConfig.RateLimits> endpointVsLimits = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                endpointVsLimits.put("/endpoint/" + i, limits(RateLimitPeriod.SECOND, i + 1));
+            }
+            ClientLimitPlan plan = compile(endpointVsLimits);
+            for (int i = 0; i < count; i++) {
+                assertEquals(i + 1, plan.getEndpointLimits("/endpoint/" + i).getLimit(0));
+            }
+            assertNull(plan.getEndpointLimits("/endpoint/" + count));
+        }
+    }
+
+    @Test
+    public void costs() {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId("costs");
+        Map<String, Integer> endpointVsCost = new LinkedHashMap<>();
+        endpointVsCost.put("/export", 10);
+        endpointVsCost.put("/report/{id}", 4);
+        clientConfig.setEndpointVsCost(endpointVsCost);
+        Map<HttpMethod, Integer> methodVsCost = new EnumMap<>(HttpMethod.class);
+        methodVsCost.put(HttpMethod.POST, 2);
+        clientConfig.setMethodVsCost(methodVsCost);
+        ClientLimitPlan plan = ClientLimitPlan.compile(clientConfig);
+
+        assertEquals(10, plan.getCost("/export", HttpMethod.POST));
+        assertEquals(4, plan.getCost("/report/7", HttpMethod.GET));
+        assertEquals(2, plan.getCost("/other", HttpMethod.POST));
+        assertEquals(1, plan.getCost("/other", HttpMethod.GET));
+        // An endpoint with a cost but no limits is a route of its own
+        assertEquals("/export", plan.getRoute("/export"));
+        assertNull(plan.getEndpointLimits("/export"));
+    }
+
+    @Test
+    public void periodsInTheirOrder() {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId("periods");
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        periodLimits.put(RateLimitPeriod.DAY, 1000);
+        periodLimits.put(RateLimitPeriod.SECOND, 10);
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        clientConfig.setRateLimits(rateLimits);
+        Map<HttpMethod, ClientConfig.RateLimits> methodVsLimits = new EnumMap<>(HttpMethod.class);
+        methodVsLimits.put(HttpMethod.GET, limits(RateLimitPeriod.MINUTE, 50));
+        clientConfig.setMethodVsLimits(methodVsLimits);
+        ClientLimitPlan plan = ClientLimitPlan.compile(clientConfig);
+
+        ClientLimitPlan.Limits clientLimits = plan.getClientLimits();
+        assertEquals(2, clientLimits.size());
+        assertEquals(RateLimitPeriod.SECOND, clientLimits.getPeriod(0));
+        assertEquals(10, clientLimits.getLimit(0));
+        assertEquals(RateLimitPeriod.DAY, clientLimits.getPeriod(1));
+        assertEquals(RateLimitViolationCause.CLIENT, clientLimits.getCause());
+        assertEquals(RateLimitViolationCause.METHOD, plan.getMethodLimits(HttpMethod.GET).getCause());
+        assertNull(plan.getMethodLimits(HttpMethod.POST));
+        assertNull(plan.getMethodLimits(null));
+    }
+
+    private static ClientLimitPlan compile(Map<String, ClientConfig.RateLimits> endpointVsLimits) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId("plan");
+        clientConfig.setEndpointVsLimits(endpointVsLimits);
+        return ClientLimitPlan.compile(clientConfig);
+    }
+
+    private static ClientConfig.RateLimits limits(RateLimitPeriod period, int limit) {
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        periodLimits.put(period, limit);
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        return rateLimits;
+    }
+}
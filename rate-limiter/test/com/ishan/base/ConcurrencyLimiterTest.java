@@ -0,0 +1,45 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The tests run with a limit of 1 request in flight, see test-resources/rate-limiter.properties
+ *
+ * @since 18/10/26
+ */
+public class ConcurrencyLimiterTest {
+
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+
+    @Test
+    public void refusesTheRequestsOverTheLimitOfTheirClient() {
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire("client", null);
+        assertNotNull(permit);
+        assertNull(limiter.tryAcquire("client", null));
+        assertNotNull(limiter.tryAcquire("other", null));
+        permit.release(false);
+        assertNotNull(limiter.tryAcquire("client", null));
+    }
+
+    @Test
+    public void theClientsShareTheLimitOfAnEndpoint() {
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire("first", "/orders/{id}");
+        assertNotNull(permit);
+        assertNull(limiter.tryAcquire("second", "/orders/{id}"));
+        // The place the second took in the limit of its client was given back
+        assertNotNull(limiter.tryAcquire("second", "/users"));
+    }
+
+    @Test
+    public void aCancelledPermitGivesItsPlaceBackOnce() {
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire("cancelled", null);
+        permit.cancel();
+        permit.cancel();
+        permit.release(true);
+        assertNotNull(limiter.tryAcquire("cancelled", null));
+        assertNull(limiter.tryAcquire("cancelled", null));
+    }
+}
@@ -0,0 +1,62 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 18/10/26
+ */
+public class CountMinSketchTest {
+
+    @Test
+    public void countsASingleKeyExactly() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(i, sketch.add("ip:10.0.0.1"));
+        }
+        assertEquals(100, sketch.estimate("ip:10.0.0.1"));
+        assertEquals(0, sketch.estimate("ip:10.0.0.2"));
+    }
+
+    @Test
+    public void keysWithEqualHashCodesAreCountedApart() {
+        // "Aa" and "BB" have the same String.hashCode(), which no row is derived from
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("Aa");
+        }
+        assertEquals(1000, sketch.estimate("Aa"));
+        assertEquals(0, sketch.estimate("BB"));
+    }
+
+    @Test
+    public void neverUnderAndRarelyOverTheBound() {
+        int width = 1024;
+        CountMinSketch sketch = new CountMinSketch(4, width);
+        Map<String, Integer> counts = new HashMap<>();
+        Random random = new Random(42);
+        int adds = 20_000;
+        for (int i = 0; i < adds; i++) {
+            // A few heavy keys among many light ones
+            String key = random.nextInt(10) == 0 ? "heavy:" + random.nextInt(5) : "light:" + random.nextInt(5000);
+            counts.merge(key, 1, Integer::sum);
+            sketch.add(key);
+        }
+        int overBound = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int estimate = sketch.estimate(entry.getKey());
+            assertTrue(entry.getKey(), estimate >= entry.getValue());
+            if (estimate - entry.getValue() > 2 * adds / width) {
+                overBound++;
+            }
+        }
+        // At most 1 in 2^depth of the keys is over the bound
+        assertTrue("over the bound " + overBound, overBound <= counts.size() / 16);
+    }
+}
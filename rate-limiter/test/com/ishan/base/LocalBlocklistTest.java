@@ -0,0 +1,95 @@
+package com.ishan.base;
+
+import com.ishan.bus.MessageBuses;
+import com.ishan.strategy.RateLimitStrategy;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The blocklist is static and the message bus is the one in the process, so each test uses client ids of its own.
+ *
+ * @since 18/10/26
+ */
+public class LocalBlocklistTest {
+
+    private static final byte[] CHANNEL = "ratelimit:blocklist".getBytes(StandardCharsets.UTF_8);
+    private static final RateLimitStrategy FIXED_WINDOW = RateLimitAlgorithm.FIXED_WINDOW.getStrategy();
+    private static final RateLimitResponse HOUR_BROKEN = RateLimitResponse.withRateLimitReached(RateLimitPeriod.HOUR,
+            RateLimitViolationCause.CLIENT);
+
+    @Test
+    public void blocksTheBrokenKeyUntilTheEndOfItsSlot() {
+        long now = System.currentTimeMillis();
+        List<RedisKeyDetails> redisKeys = redisKeys("blocked", now);
+        assertNull(LocalBlocklist.findBlocked(redisKeys, now));
+        LocalBlocklist.block(FIXED_WINDOW, redisKeys, HOUR_BROKEN, now, false);
+        assertSame(redisKeys.get(0), LocalBlocklist.findBlocked(redisKeys, now));
+
+        long nextSlot = RateLimitPeriod.HOUR.wrapNext(now);
+        assertNull(LocalBlocklist.findBlocked(redisKeys("blocked", nextSlot), nextSlot));
+    }
+
+    @Test
+    public void aResponseWithinTheLimitsBlocksNothing() {
+        long now = System.currentTimeMillis();
+        List<RedisKeyDetails> redisKeys = redisKeys("within", now);
+        LocalBlocklist.block(FIXED_WINDOW, redisKeys, RateLimitResponse.withRateLimitNotReached(), now, true);
+        assertNull(LocalBlocklist.findBlocked(redisKeys, now));
+    }
+
+    @Test
+    public void broadcastsTheBlock() {
+        List<byte[]> messages = new CopyOnWriteArrayList<>();
+        MessageBuses.getDefault().subscribe(CHANNEL, messages::add);
+        long now = System.currentTimeMillis();
+        List<RedisKeyDetails> redisKeys = redisKeys("broadcast", now);
+        LocalBlocklist.block(FIXED_WINDOW, redisKeys, HOUR_BROKEN, now, true);
+
+        byte[] key = redisKeys.get(0).getKey();
+        byte[] message = messages.stream().filter(m -> m.length == Long.BYTES + key.length
+                && Arrays.equals(key, Arrays.copyOfRange(m, Long.BYTES, m.length))).findFirst().orElse(null);
+        assertNotNull("The block was not broadcast", message);
+        assertEquals(RateLimitPeriod.HOUR.wrapNext(now), ByteBuffer.wrap(message).getLong());
+    }
+
+    @Test
+    public void blocksTheKeysBroadcastByTheOtherNodes() {
+        long now = System.currentTimeMillis();
+        List<RedisKeyDetails> redisKeys = redisKeys("elsewhere", now);
+        byte[] key = redisKeys.get(0).getKey();
+        // Neither a message without a key nor a block which has ended is taken
+        publish(new byte[Long.BYTES]);
+        publish(ByteBuffer.allocate(Long.BYTES + key.length).putLong(now - 1).put(key).array());
+        assertNull(LocalBlocklist.findBlocked(redisKeys, now));
+
+        publish(ByteBuffer.allocate(Long.BYTES + key.length).putLong(RateLimitPeriod.HOUR.wrapNext(now)).put(key)
+                .array());
+        assertSame(redisKeys.get(0), LocalBlocklist.findBlocked(redisKeys, now));
+    }
+
+    private static void publish(byte[] message) {
+        assertTrue(MessageBuses.getDefault().publishAsync(CHANNEL, message).join() > 0);
+    }
+
+    private static List<RedisKeyDetails> redisKeys(String clientId, long requestTime) {
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(Collections.singletonMap(RateLimitPeriod.HOUR, 10));
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        clientConfig.setRateLimits(rateLimits);
+        return RateLimitValidator.constructRedisKeys(clientConfig,
+                new RequestDetails(requestTime, HttpMethod.GET, "/a", clientId));
+    }
+}
@@ -0,0 +1,127 @@
+package com.ishan.base;
+
+import com.ishan.redis.RedisUnavailableException;
+import com.ishan.store.InMemoryCounterStore;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The hybrid mode, in which the requests are admitted from the leases of the node
+ *
+ * @since 18/10/26
+ */
+public class QuotaLeaseValidatorTest {
+
+    private final CountingStore store = new CountingStore();
+    private final RateLimitValidator validator = new RateLimitValidator(store);
+
+    @Test
+    public void requestsAreAdmittedFromTheLease() {
+        ClientConfig clientConfig = clientConfig("lease", 10, null);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(validate(clientConfig, "/a", now).getRateLimitReached());
+        }
+        // Two leases of 5
+        assertEquals(2, store.increments);
+        assertTrue(validate(clientConfig, "/a", now).getRateLimitReached());
+    }
+
+    @Test
+    public void failedRefillGivesTheAcquiredPermitsBack() {
+        ClientConfig clientConfig = clientConfig("refill", 4, "/a");
+        long now = System.currentTimeMillis();
+        // Leases 2 of the client's 4, and takes 1
+        assertFalse(validate(clientConfig, "/b", now).getRateLimitReached());
+        // Takes the other from the client's lease, while the lease of /a is refilled, which fails
+        store.failing = true;
+        validate(clientConfig, "/a", now);
+        store.failing = false;
+
+        int increments = store.increments;
+        assertFalse(validate(clientConfig, "/b", now).getRateLimitReached());
+        assertEquals("admitted from the permit given back", increments, store.increments);
+    }
+
+    @Test
+    public void theLeaseIsClampedToWhatIsLeftOfTheLimit() {
+        ClientConfig clientConfig = clientConfig("clamped", 10, null);
+        clientConfig.setLeasePercent(40);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(validate(clientConfig, "/a", now).getRateLimitReached());
+        }
+        // Leases of 4, 4 and the 2 left
+        assertEquals(3, store.increments);
+        assertEquals(2, store.lastIncrement.get(0).getIncrement());
+        assertEquals(Collections.singletonList(10L), store.read(store.lastIncrement));
+
+        // Known to have nothing left, so the store is not asked
+        assertTrue(validate(clientConfig, "/a", now).getRateLimitReached());
+        assertEquals(3, store.increments);
+    }
+
+    @Test
+    public void theKeysOfTheRequestAreNotChangedByTheRefill() {
+        ClientConfig clientConfig = clientConfig("unchanged", 100, null);
+        PermitReservation reservation = validator.reserve(clientConfig,
+                new RequestDetails(System.currentTimeMillis(), HttpMethod.GET, "/a", "unchanged").cost(3));
+        assertFalse(reservation.getResponse().getRateLimitReached());
+        assertEquals(50, store.lastIncrement.get(0).getIncrement());
+        for (RedisKeyDetails redisKey : reservation.getRedisKeys()) {
+            assertEquals(3, redisKey.getIncrement());
+        }
+    }
+
+    private RateLimitResponse validate(ClientConfig clientConfig, String endpoint, long requestTime) {
+        return validator.validateRateLimited(clientConfig,
+                new RequestDetails(requestTime, HttpMethod.GET, endpoint, clientConfig.getClientId()));
+    }
+
+    /**
+     * @param endpoint The endpoint with a limit of its own, null for none
+     */
+    private static ClientConfig clientConfig(String clientId, int hourly, String endpoint) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        clientConfig.setLeasePercent(50);
+        clientConfig.setRateLimits(limits(hourly));
+        if (endpoint != null) {
+            clientConfig.setEndpointVsLimits(Collections.singletonMap(endpoint, limits(100)));
+        }
+        return clientConfig;
+    }
+
+    private static ClientConfig.RateLimits limits(int hourly) {
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        periodLimits.put(RateLimitPeriod.HOUR, hourly);
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        return rateLimits;
+    }
+
+    private static class CountingStore extends InMemoryCounterStore {
+
+        private int increments;
+        private List<RedisKeyDetails> lastIncrement;
+        private boolean failing;
+
+        @Override
+        public List<Long> increment(List<RedisKeyDetails> redisKeysWithTTL) {
+            increments++;
+            lastIncrement = redisKeysWithTTL;
+            if (failing) {
+                throw new RedisUnavailableException("Failing on purpose");
+            }
+            return super.increment(redisKeysWithTTL);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ishan.base;
+
+import com.ishan.store.ConfigStores;
+import com.ishan.store.Evaluation;
+import com.ishan.store.InMemoryCounterStore;
+import com.ishan.store.TestConfigStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RateLimitValidator#validateRateLimited(List, BatchAdmission)} on a counter store in the process, which
+ * records the calls made to it
+ *
+ * @since 18/10/26
+ */
+public class RateLimitValidatorBatchTest {
+
+    private final TestConfigStore configStore = (TestConfigStore) ConfigStores.getDefault();
+    private final RecordingCounterStore counterStore = new RecordingCounterStore();
+    private final RateLimitValidator validator = new RateLimitValidator(counterStore);
+
+    @Test
+    public void groupsTheRequestsOfAClientBySlot() {
+        putConfig("grouped", 100, 100);
+        long slotStart = RateLimitPeriod.SECOND.wrap(System.currentTimeMillis());
+        List<RateLimitResponse> responses = validator.validateRateLimited(Arrays.asList(
+                request("grouped", slotStart + 100),
+                request("grouped", slotStart + 101),
+                request("grouped", slotStart + 102),
+                request("grouped", slotStart + 1100)), BatchAdmission.ALL_OR_NOTHING);
+        for (RateLimitResponse response : responses) {
+            assertFalse(response.getRateLimitReached());
+        }
+        // One evaluation for each second
+        assertEquals(1, counterStore.evaluationCalls.size());
+        assertEquals(2, counterStore.evaluationCalls.get(0).size());
+    }
+
+    @Test
+    public void aRequestOverTheLimitsOfItsGroupRejectsTheGroup() {
+        putConfig("overGroup", 0, 2);
+        long now = System.currentTimeMillis();
+        List<RateLimitResponse> responses = validator.validateRateLimited(Arrays.asList(
+                request("overGroup", now), request("overGroup", now), request("overGroup", now)),
+                BatchAdmission.BEST_EFFORT);
+        // Evaluated together, then one by one
+        assertEquals(2, counterStore.evaluationCalls.size());
+        assertFalse(responses.get(0).getRateLimitReached());
+        assertFalse(responses.get(1).getRateLimitReached());
+        assertTrue(responses.get(2).getRateLimitReached());
+    }
+
+    /**
+     * The permits taken for the clients which fit count until they are given back, after the store has rejected the
+     * batch
+     */
+    @Test
+    public void allOrNothingIsNotAtomicAcrossClients() {
+        putConfig("fits", 0, 10);
+        putConfig("overflows", 0, 1);
+        long now = System.currentTimeMillis();
+        List<Long> whileGivenBack = new ArrayList<>();
+        counterStore.beforeIncrement = () -> whileGivenBack.addAll(counterStore.read(firstEvaluationKeys()));
+        List<RateLimitResponse> responses = validator.validateRateLimited(Arrays.asList(
+                request("fits", now), request("overflows", now), request("overflows", now)),
+                BatchAdmission.ALL_OR_NOTHING);
+        for (RateLimitResponse response : responses) {
+            assertTrue(response.getRateLimitReached());
+        }
+        assertEquals(Arrays.asList(1L), whileGivenBack);
+        assertEquals(Arrays.asList(0L), counterStore.read(firstEvaluationKeys()));
+    }
+
+    private List<RedisKeyDetails> firstEvaluationKeys() {
+        return counterStore.evaluationCalls.get(0).get(0).getRedisKeys();
+    }
+
+    /**
+     * @param secondLimit The limit per second, none if 0
+     * @param hourLimit   The limit per hour
+     */
+    private void putConfig(String clientId, int secondLimit, int hourLimit) {
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        if (secondLimit > 0) {
+            periodLimits.put(RateLimitPeriod.SECOND, secondLimit);
+        }
+        periodLimits.put(RateLimitPeriod.HOUR, hourLimit);
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        clientConfig.setRateLimits(rateLimits);
+        configStore.put(ClientConfigProvider.getConfigKey(clientId), clientConfig);
+    }
+
+    private static RequestDetails request(String clientId, long requestTime) {
+        return new RequestDetails(requestTime, HttpMethod.GET, "/batch", clientId);
+    }
+
+    private static class RecordingCounterStore extends InMemoryCounterStore {
+
+        private final List<List<Evaluation>> evaluationCalls = new ArrayList<>();
+        private Runnable beforeIncrement;
+
+        @Override
+        public int[] evaluateAll(List<Evaluation> evaluations) {
+            evaluationCalls.add(new ArrayList<>(evaluations));
+            return super.evaluateAll(evaluations);
+        }
+
+        @Override
+        public List<Long> increment(List<RedisKeyDetails> redisKeysWithTTL) {
+            if (beforeIncrement != null) {
+                Runnable runnable = beforeIncrement;
+                beforeIncrement = null;
+                runnable.run();
+            }
+            return super.increment(redisKeysWithTTL);
+        }
+    }
+}
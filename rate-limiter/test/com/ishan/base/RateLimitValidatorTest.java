@@ -0,0 +1,153 @@
+package com.ishan.base;
+
+import com.ishan.store.InMemoryCounterStore;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The strategies against an {@link InMemoryCounterStore}, which runs the logic of their scripts. The limits are per
+ * hour, so that the slot of the requests does not end while a test runs.
+ *
+ * @since 18/10/26
+ */
+public class RateLimitValidatorTest {
+
+    private static final int LIMIT = 3;
+
+    private final RateLimitValidator validator = new RateLimitValidator(new InMemoryCounterStore());
+
+    @Test
+    public void fixedWindowAllowsUpToTheLimit() {
+        assertAllowsUpToTheLimit(RateLimitAlgorithm.FIXED_WINDOW);
+    }
+
+    @Test
+    public void slidingWindowAllowsUpToTheLimit() {
+        assertAllowsUpToTheLimit(RateLimitAlgorithm.SLIDING_WINDOW);
+    }
+
+    @Test
+    public void gcraAllowsUpToTheLimit() {
+        assertAllowsUpToTheLimit(RateLimitAlgorithm.GCRA);
+    }
+
+    @Test
+    public void fixedWindowRefundsUnusedPermits() {
+        assertRefundsUnusedPermits(RateLimitAlgorithm.FIXED_WINDOW);
+    }
+
+    @Test
+    public void slidingWindowRefundsUnusedPermits() {
+        assertRefundsUnusedPermits(RateLimitAlgorithm.SLIDING_WINDOW);
+    }
+
+    @Test
+    public void gcraRefundsUnusedPermits() {
+        assertRefundsUnusedPermits(RateLimitAlgorithm.GCRA);
+    }
+
+    @Test
+    public void rejectedRequestsAreNotCounted() {
+        ClientConfig clientConfig = clientConfig("rejected", RateLimitAlgorithm.FIXED_WINDOW);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < LIMIT; i++) {
+            assertFalse(validate(clientConfig, now).getRateLimitReached());
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(validate(clientConfig, now).getRateLimitReached());
+        }
+        PermitReservation reservation = validator.reserve(clientConfig, request(clientConfig, now));
+        assertFalse(reservation.isGranted());
+        validator.refund(reservation, 1);
+        assertTrue(validate(clientConfig, now).getRateLimitReached());
+    }
+
+    @Test
+    public void endpointLimitIsReportedAsItsCause() {
+        ClientConfig clientConfig = clientConfig("endpoint", RateLimitAlgorithm.FIXED_WINDOW);
+        clientConfig.setEndpointVsLimits(Collections.singletonMap("/price", limits(1)));
+        long now = System.currentTimeMillis();
+        RequestDetails price = request(clientConfig, now).endpoint("/price");
+        assertFalse(validator.validateRateLimited(clientConfig, price).getRateLimitReached());
+        RateLimitResponse response = validator.validateRateLimited(clientConfig, price);
+        assertTrue(response.getRateLimitReached());
+        assertEquals(RateLimitViolationCause.ENDPOINT, response.getRateLimitViolationCause());
+        assertEquals(RateLimitPeriod.HOUR, response.getRateLimitPeriod());
+        assertFalse(validate(clientConfig, now).getRateLimitReached());
+    }
+
+    @Test
+    public void costTakesThatManyPermits() {
+        ClientConfig clientConfig = clientConfig("cost", RateLimitAlgorithm.FIXED_WINDOW);
+        long now = System.currentTimeMillis();
+        assertFalse(validator.validateRateLimited(clientConfig, request(clientConfig, now).cost(LIMIT - 1))
+                .getRateLimitReached());
+        assertTrue(validator.validateRateLimited(clientConfig, request(clientConfig, now).cost(2))
+                .getRateLimitReached());
+        assertFalse(validate(clientConfig, now).getRateLimitReached());
+        assertTrue(validate(clientConfig, now).getRateLimitReached());
+    }
+
+    private void assertAllowsUpToTheLimit(RateLimitAlgorithm algorithm) {
+        ClientConfig clientConfig = clientConfig("limit-" + algorithm, algorithm);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < LIMIT; i++) {
+            assertFalse(algorithm + " request " + i, validate(clientConfig, now).getRateLimitReached());
+        }
+        RateLimitResponse response = validate(clientConfig, now);
+        assertTrue(algorithm + " over the limit", response.getRateLimitReached());
+        assertEquals(RateLimitPeriod.HOUR, response.getRateLimitPeriod());
+        assertEquals(RateLimitViolationCause.CLIENT, response.getRateLimitViolationCause());
+    }
+
+    /**
+     * Nothing is rejected before the refunds, as a rejection on a fixed window blocks the key locally until the end of
+     * its slot, see {@link LocalBlocklist}
+     */
+    private void assertRefundsUnusedPermits(RateLimitAlgorithm algorithm) {
+        ClientConfig clientConfig = clientConfig("refund-" + algorithm, algorithm);
+        long now = System.currentTimeMillis();
+        PermitReservation reservation = validator.reserve(clientConfig, request(clientConfig, now).cost(LIMIT));
+        assertTrue(algorithm + " reserved", reservation.isGranted());
+
+        validator.refund(reservation, 2);
+        // Only the permits reserved and not given back yet can be given back
+        validator.refund(reservation, 2);
+        validator.refund(reservation, 1);
+        for (int i = 0; i < LIMIT; i++) {
+            assertFalse(algorithm + " refunded " + i, validate(clientConfig, now).getRateLimitReached());
+        }
+        assertTrue(algorithm + " refund used up", validate(clientConfig, now).getRateLimitReached());
+    }
+
+    private RateLimitResponse validate(ClientConfig clientConfig, long requestTime) {
+        return validator.validateRateLimited(clientConfig, request(clientConfig, requestTime));
+    }
+
+    private static RequestDetails request(ClientConfig clientConfig, long requestTime) {
+        return new RequestDetails(requestTime, HttpMethod.GET, "/other", clientConfig.getClientId());
+    }
+
+    private static ClientConfig clientConfig(String clientId, RateLimitAlgorithm algorithm) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        clientConfig.setAlgorithm(algorithm);
+        clientConfig.setRateLimits(limits(LIMIT));
+        return clientConfig;
+    }
+
+    private static ClientConfig.RateLimits limits(int hourly) {
+        Map<RateLimitPeriod, Integer> periodLimits = new EnumMap<>(RateLimitPeriod.class);
+        periodLimits.put(RateLimitPeriod.HOUR, hourly);
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(periodLimits);
+        return rateLimits;
+    }
+}
@@ -0,0 +1,80 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 18/10/26
+ */
+public class RedisKeyCodecTest {
+
+    @Test
+    public void encodesTheSlotInSecondsAsAVarint() {
+        byte[] prefix = prefix(RateLimitPeriod.HOUR);
+        byte[] key = RedisKeyCodec.encodeKey(prefix, 300_000L);
+        // 300 seconds is 0b10_0101100
+        assertArrayEquals(prefix, Arrays.copyOf(key, prefix.length));
+        assertEquals(prefix.length + 2, key.length);
+        assertEquals((byte) (0x2C | 0x80), key[prefix.length]);
+        assertEquals(2, key[prefix.length + 1]);
+        // The current epoch seconds take 5 bytes
+        assertEquals(prefix.length + 5, RedisKeyCodec.encodeKey(prefix, 1_700_000_000_000L).length);
+    }
+
+    @Test
+    public void decodesThePeriodOfAKey() {
+        for (RateLimitPeriod period : RateLimitPeriod.values()) {
+            for (long slotStart : new long[]{0, 1000, 300_000, 1_700_000_000_000L}) {
+                assertEquals(period, RedisKeyCodec.decodePeriod(RedisKeyCodec.encodeKey(prefix(period), slotStart)));
+            }
+        }
+        assertNull(RedisKeyCodec.decodePeriod(new byte[]{(byte) 0x80}));
+        assertNull(RedisKeyCodec.decodePeriod(new byte[]{100, 1}));
+    }
+
+    @Test
+    public void encodesLongsAsDecimalDigits() {
+        for (long value : new long[]{0, 7, 10, -1, -10, 123456789, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(Long.toString(value),
+                    new String(RedisKeyCodec.encodeLong(value), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void theKeyOfASlotIsEncodedOnce() {
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(Collections.singletonMap(RateLimitPeriod.MINUTE, 10));
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId("codec");
+        clientConfig.setRateLimits(rateLimits);
+        ClientLimitPlan.Limits limits = clientConfig.getLimitPlan().getClientLimits();
+
+        byte[] key = limits.getKey(0, 60_000);
+        assertArrayEquals(RedisKeyCodec.encodeKey(limits.getKeyPrefix(0), 60_000), key);
+        assertSame(key, limits.getKey(0, 60_000));
+        byte[] next = limits.getKey(0, 120_000);
+        assertNotSame(key, next);
+        assertArrayEquals(RedisKeyCodec.encodeKey(limits.getKeyPrefix(0), 120_000), next);
+
+        RequestDetails first = new RequestDetails(120_001, HttpMethod.GET, "/a", "codec");
+        RequestDetails second = new RequestDetails(179_999, HttpMethod.GET, "/a", "codec");
+        assertSame(RateLimitValidator.constructRedisKeys(clientConfig, first).get(0).getKey(),
+                RateLimitValidator.constructRedisKeys(clientConfig, second).get(0).getKey());
+    }
+
+    private static byte[] prefix(RateLimitPeriod period) {
+        byte[] scope = "{client}_".getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = Arrays.copyOf(scope, scope.length + 1);
+        prefix[scope.length] = (byte) period.ordinal();
+        return prefix;
+    }
+}
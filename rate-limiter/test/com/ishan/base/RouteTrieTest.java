@@ -0,0 +1,92 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 18/10/26
+ */
+public class RouteTrieTest {
+
+    @Test
+    public void templates() {
+        assertTrue(RouteTrie.isTemplate("/price/{id}"));
+        assertTrue(RouteTrie.isTemplate("/price/*"));
+        assertTrue(RouteTrie.isTemplate("/catalog/**"));
+        assertFalse(RouteTrie.isTemplate("/price"));
+    }
+
+    @Test
+    public void parameterMatchesOneSegment() {
+        RouteTrie<String> trie = compile("/price/{id}", "/users/*/orders");
+        assertEquals("/price/{id}", trie.match("/price/42"));
+        assertNull(trie.match("/price"));
+        assertNull(trie.match("/price/42/history"));
+        assertEquals("/users/*/orders", trie.match("/users/7/orders"));
+        assertNull(trie.match("/users/7/carts"));
+    }
+
+    @Test
+    public void doubleWildcardMatchesTheRestOrNothing() {
+        RouteTrie<String> trie = compile("/catalog/**");
+        assertEquals("/catalog/**", trie.match("/catalog"));
+        assertEquals("/catalog/**", trie.match("/catalog/books"));
+        assertEquals("/catalog/**", trie.match("/catalog/books/42/reviews"));
+        assertNull(trie.match("/catalogue/books"));
+    }
+
+    @Test
+    public void literalWinsOverParameterWhichWinsOverDoubleWildcard() {
+        RouteTrie<String> trie = compile("/api/**", "/api/{version}/users", "/api/v2/users", "/api/*/users/**");
+        assertEquals("/api/v2/users", trie.match("/api/v2/users"));
+        assertEquals("/api/{version}/users", trie.match("/api/v1/users"));
+        assertEquals("/api/*/users/**", trie.match("/api/v1/users/7"));
+        assertEquals("/api/**", trie.match("/api/v1/orders"));
+    }
+
+    @Test
+    public void backtracksWhenTheLiteralLeadsNowhere() {
+        RouteTrie<String> trie = compile("/a/b/c", "/a/{x}/d");
+        assertEquals("/a/{x}/d", trie.match("/a/b/d"));
+    }
+
+    @Test
+    public void slashesAreIgnored() {
+        RouteTrie<String> trie = compile("price/{id}/");
+        assertEquals("price/{id}/", trie.match("/price/42"));
+        assertEquals("price/{id}/", trie.match("//price//42/"));
+    }
+
+    @Test
+    public void firstOfTheSameTemplatesIsKept() {
+        RouteTrie<String> trie = compile("/price/{id}", "/price/*");
+        assertEquals("/price/{id}", trie.match("/price/42"));
+    }
+
+    @Test
+    public void segmentsWithEqualHashCodes() {
+        // "Aa" and "BB" have the same String.hashCode()
+        RouteTrie<String> trie = compile("/Aa/{id}", "/BB/{id}");
+        assertEquals("/Aa/{id}", trie.match("/Aa/1"));
+        assertEquals("/BB/{id}", trie.match("/BB/1"));
+        assertNull(trie.match("/Ab/1"));
+    }
+
+    /**
+     * @return The trie whose values are the templates themselves
+     */
+    private static RouteTrie<String> compile(String... templates) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String template : templates) {
+            values.putIfAbsent(template, template);
+        }
+        return RouteTrie.compile(values);
+    }
+}
@@ -0,0 +1,169 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The slots against those computed with java.time, around the daylight saving changes and the ends of the months
+ *
+ * @since 18/10/26
+ */
+public class SlotCalculatorTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final ZoneId KOLKATA = ZoneId.of("Asia/Kolkata");
+
+    @Test
+    public void secondsMinutesAndHoursOfAnOffsetOfHalfAnHour() {
+        SlotCalculator calculator = new SlotCalculator(KOLKATA);
+        long time = at(KOLKATA, "2026-05-17T10:42:13.250");
+        assertEquals(at(KOLKATA, "2026-05-17T10:42:13"), calculator.slotStart(RateLimitPeriod.SECOND, time));
+        assertEquals(at(KOLKATA, "2026-05-17T10:42:14"), calculator.slotEnd(RateLimitPeriod.SECOND, time));
+        assertEquals(at(KOLKATA, "2026-05-17T10:42"), calculator.slotStart(RateLimitPeriod.MINUTE, time));
+        assertEquals(at(KOLKATA, "2026-05-17T10:00"), calculator.slotStart(RateLimitPeriod.HOUR, time));
+        assertEquals(at(KOLKATA, "2026-05-17T11:00"), calculator.slotEnd(RateLimitPeriod.HOUR, time));
+    }
+
+    @Test
+    public void daysAcrossTheSpringChange() {
+        // 2026-03-29 is 23 hours long in Berlin
+        SlotCalculator calculator = new SlotCalculator(BERLIN);
+        long time = at(BERLIN, "2026-03-29T12:00");
+        assertEquals(at(BERLIN, "2026-03-29T00:00"), calculator.slotStart(RateLimitPeriod.DAY, time));
+        assertEquals(at(BERLIN, "2026-03-30T00:00"), calculator.slotEnd(RateLimitPeriod.DAY, time));
+        assertEquals(23 * 3600_000L, calculator.slotEnd(RateLimitPeriod.DAY, time)
+                - calculator.slotStart(RateLimitPeriod.DAY, time));
+    }
+
+    @Test
+    public void daysAcrossTheAutumnChange() {
+        // 2026-10-25 is 25 hours long in Berlin, 02:00 to 03:00 comes twice
+        SlotCalculator calculator = new SlotCalculator(BERLIN);
+        long beforeChange = ZonedDateTime.of(LocalDateTime.parse("2026-10-25T02:30"), BERLIN)
+                .withEarlierOffsetAtOverlap().toInstant().toEpochMilli();
+        long afterChange = ZonedDateTime.of(LocalDateTime.parse("2026-10-25T02:30"), BERLIN)
+                .withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+        for (long time : new long[]{beforeChange, afterChange}) {
+            assertEquals(at(BERLIN, "2026-10-25T00:00"), calculator.slotStart(RateLimitPeriod.DAY, time));
+            assertEquals(at(BERLIN, "2026-10-26T00:00"), calculator.slotEnd(RateLimitPeriod.DAY, time));
+        }
+        assertEquals(beforeChange - 1800_000L, calculator.slotStart(RateLimitPeriod.HOUR, beforeChange));
+        assertEquals(afterChange - 1800_000L, calculator.slotStart(RateLimitPeriod.HOUR, afterChange));
+    }
+
+    @Test
+    public void weeksStartOnMonday() {
+        SlotCalculator calculator = new SlotCalculator(NEW_YORK);
+        // Sunday 2026-03-08 is the spring change in New York, its week started on Monday 2026-03-02
+        long time = at(NEW_YORK, "2026-03-08T23:59:59.999");
+        assertEquals(at(NEW_YORK, "2026-03-02T00:00"), calculator.slotStart(RateLimitPeriod.WEEK, time));
+        assertEquals(at(NEW_YORK, "2026-03-09T00:00"), calculator.slotEnd(RateLimitPeriod.WEEK, time));
+        assertEquals(at(NEW_YORK, "2026-03-09T00:00"),
+                calculator.slotStart(RateLimitPeriod.WEEK, at(NEW_YORK, "2026-03-09T00:00")));
+    }
+
+    @Test
+    public void monthEnds() {
+        SlotCalculator calculator = new SlotCalculator(UTC);
+        long lastOfJanuary = at(UTC, "2026-01-31T23:59:59.999");
+        assertEquals(at(UTC, "2026-01-01T00:00"), calculator.slotStart(RateLimitPeriod.MONTH, lastOfJanuary));
+        assertEquals(at(UTC, "2026-02-01T00:00"), calculator.slotEnd(RateLimitPeriod.MONTH, lastOfJanuary));
+
+        long firstOfFebruary = lastOfJanuary + 1;
+        assertEquals(at(UTC, "2026-02-01T00:00"), calculator.slotStart(RateLimitPeriod.MONTH, firstOfFebruary));
+        assertEquals(at(UTC, "2026-03-01T00:00"), calculator.slotEnd(RateLimitPeriod.MONTH, firstOfFebruary));
+
+        long leapDay = at(UTC, "2024-02-29T12:00");
+        assertEquals(at(UTC, "2024-02-01T00:00"), calculator.slotStart(RateLimitPeriod.MONTH, leapDay));
+        assertEquals(at(UTC, "2024-03-01T00:00"), calculator.slotEnd(RateLimitPeriod.MONTH, leapDay));
+
+        long newYearsEve = at(UTC, "2026-12-31T23:59:59.999");
+        assertEquals(at(UTC, "2027-01-01T00:00"), calculator.slotEnd(RateLimitPeriod.MONTH, newYearsEve));
+        // Back to a month which is no longer the cached one
+        assertEquals(at(UTC, "2026-01-01T00:00"), calculator.slotStart(RateLimitPeriod.MONTH, lastOfJanuary));
+    }
+
+    @Test
+    public void monthOfTheAutumnChange() {
+        SlotCalculator calculator = new SlotCalculator(BERLIN);
+        long time = at(BERLIN, "2026-10-31T23:59:59.999");
+        assertEquals(at(BERLIN, "2026-10-01T00:00"), calculator.slotStart(RateLimitPeriod.MONTH, time));
+        assertEquals(at(BERLIN, "2026-11-01T00:00"), calculator.slotEnd(RateLimitPeriod.MONTH, time));
+    }
+
+    @Test
+    public void everyPeriodAroundTheChangesMatchesJavaTime() {
+        for (ZoneId zone : new ZoneId[]{UTC, BERLIN, NEW_YORK, KOLKATA}) {
+            SlotCalculator calculator = new SlotCalculator(zone);
+            for (String day : new String[]{"2026-03-06", "2026-03-27", "2026-10-23", "2026-10-30"}) {
+                long from = at(zone, day + "T00:00");
+                // Three days, in steps which are not a divisor of any period
+                for (long time = from; time < from + 3 * 86_400_000L; time += 7 * 60_000L + 13_001) {
+                    for (RateLimitPeriod period : RateLimitPeriod.values()) {
+                        String message = zone + " " + period + " " + Instant.ofEpochMilli(time);
+                        assertEquals(message, expectedStart(period, time, zone),
+                                calculator.slotStart(period, time));
+                        assertEquals(message, expectedEnd(period, time, zone), calculator.slotEnd(period, time));
+                    }
+                }
+            }
+        }
+    }
+
+    private static long expectedStart(RateLimitPeriod period, long time, ZoneId zone) {
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(zone);
+        switch (period) {
+            case SECOND:
+                return dateTime.truncatedTo(ChronoUnit.SECONDS).toInstant().toEpochMilli();
+            case MINUTE:
+                return dateTime.truncatedTo(ChronoUnit.MINUTES).toInstant().toEpochMilli();
+            case HOUR:
+                return dateTime.truncatedTo(ChronoUnit.HOURS).toInstant().toEpochMilli();
+            case DAY:
+                return startOfDay(dateTime.toLocalDate(), zone);
+            case WEEK:
+                return startOfDay(dateTime.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)),
+                        zone);
+            default:
+                return startOfDay(dateTime.toLocalDate().withDayOfMonth(1), zone);
+        }
+    }
+
+    private static long expectedEnd(RateLimitPeriod period, long time, ZoneId zone) {
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(zone);
+        switch (period) {
+            case SECOND:
+                return expectedStart(period, time, zone) + 1000;
+            case MINUTE:
+                return expectedStart(period, time, zone) + 60_000;
+            case HOUR:
+                return expectedStart(period, time, zone) + 3600_000;
+            case DAY:
+                return startOfDay(dateTime.toLocalDate().plusDays(1), zone);
+            case WEEK:
+                return startOfDay(dateTime.toLocalDate().with(TemporalAdjusters.next(DayOfWeek.MONDAY)), zone);
+            default:
+                return startOfDay(dateTime.toLocalDate().withDayOfMonth(1).plusMonths(1), zone);
+        }
+    }
+
+    private static long startOfDay(LocalDate date, ZoneId zone) {
+        return date.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private static long at(ZoneId zone, String localDateTime) {
+        return ZonedDateTime.of(LocalDateTime.parse(localDateTime), zone).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,74 @@
+package com.ishan.base;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 18/10/26
+ */
+public class SlotExpiryWheelTest {
+
+    private final SlotExpiryWheel<Map<String, Long>> wheel = new SlotExpiryWheel<>(ConcurrentHashMap::new);
+
+    /**
+     * The start of a minute, and so of a second
+     */
+    private final long start = RateLimitPeriod.MINUTE.wrap(System.currentTimeMillis());
+    private final long end = RateLimitPeriod.MINUTE.wrapNext(start);
+
+    @Test
+    public void theEntriesExpiringWithinASlotShareAGeneration() {
+        Map<String, Long> generation = wheel.getGeneration(RateLimitPeriod.MINUTE, end, start);
+        assertSame(generation, wheel.getGeneration(RateLimitPeriod.MINUTE, start + 1, start + 10));
+        assertSame(generation, wheel.getGeneration(RateLimitPeriod.MINUTE, end - 1, start + 20));
+        assertNotSame(generation, wheel.getGeneration(RateLimitPeriod.MINUTE, end + 1, start + 20));
+        assertNotSame(generation, wheel.getGeneration(RateLimitPeriod.SECOND, end, start + 20));
+    }
+
+    @Test
+    public void dropsAGenerationOnceItHasEnded() {
+        wheel.getGeneration(RateLimitPeriod.MINUTE, end, start).put("key", end);
+        assertFalse(wheel.isEmpty());
+        assertEquals(Long.valueOf(end), wheel.find(RateLimitPeriod.MINUTE, end - 1, entries -> entries.get("key")));
+
+        assertNull(wheel.find(RateLimitPeriod.MINUTE, end, entries -> entries.get("key")));
+        assertTrue(wheel.isEmpty());
+        // A new generation for the same time starts empty
+        assertTrue(wheel.getGeneration(RateLimitPeriod.MINUTE, end, start).isEmpty());
+    }
+
+    @Test
+    public void findsInTheLatestGenerationFirst() {
+        long next = RateLimitPeriod.MINUTE.wrapNext(end);
+        wheel.getGeneration(RateLimitPeriod.MINUTE, end, start).put("key", end);
+        wheel.getGeneration(RateLimitPeriod.MINUTE, next, start).put("key", next);
+        wheel.getGeneration(RateLimitPeriod.MINUTE, next, start).put("later", next);
+        assertEquals(Long.valueOf(next), wheel.find(RateLimitPeriod.MINUTE, start, entries -> entries.get("key")));
+        assertNull(wheel.find(RateLimitPeriod.MINUTE, start, entries -> entries.get("other")));
+        assertNull(wheel.find(RateLimitPeriod.SECOND, start, entries -> entries.get("key")));
+    }
+
+    @Test
+    public void eachPeriodExpiresOnItsOwn() {
+        long secondEnd = RateLimitPeriod.SECOND.wrapNext(start);
+        wheel.getGeneration(RateLimitPeriod.SECOND, secondEnd, start).put("second", secondEnd);
+        wheel.getGeneration(RateLimitPeriod.MINUTE, end, start).put("minute", end);
+
+        wheel.advance(secondEnd);
+        assertNull(wheel.find(RateLimitPeriod.SECOND, secondEnd, entries -> entries.get("second")));
+        assertEquals(Long.valueOf(end), wheel.find(RateLimitPeriod.MINUTE, secondEnd,
+                entries -> entries.get("minute")));
+        assertFalse(wheel.isEmpty());
+        wheel.advance(end);
+        assertTrue(wheel.isEmpty());
+    }
+}
@@ -0,0 +1,48 @@
+package com.ishan.bus;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @since 18/10/26
+ */
+public class InMemoryMessageBusTest {
+
+    private static final byte[] CHANNEL = "channel".getBytes(StandardCharsets.UTF_8);
+
+    private final InMemoryMessageBus bus = new InMemoryMessageBus();
+
+    @Test
+    public void deliversToTheSubscribersOfTheChannel() {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        List<String> other = new ArrayList<>();
+        bus.subscribe(CHANNEL, message -> first.add(new String(message, StandardCharsets.UTF_8)));
+        bus.subscribe("channel".getBytes(StandardCharsets.UTF_8),
+                message -> second.add(new String(message, StandardCharsets.UTF_8)));
+        bus.subscribe("other".getBytes(StandardCharsets.UTF_8),
+                message -> other.add(new String(message, StandardCharsets.UTF_8)));
+
+        assertEquals(2, bus.publishAsync(CHANNEL, "hello".getBytes(StandardCharsets.UTF_8)).join().longValue());
+        assertEquals(1, first.size());
+        assertEquals("hello", second.get(0));
+        assertEquals(0, other.size());
+        assertEquals(0, bus.publishAsync("none".getBytes(StandardCharsets.UTF_8), new byte[1]).join().longValue());
+    }
+
+    @Test
+    public void aListenerWhichThrowsOnlyLosesItsMessage() {
+        List<byte[]> received = new ArrayList<>();
+        bus.subscribe(CHANNEL, message -> {
+            throw new IllegalStateException("broken listener");
+        });
+        bus.subscribe(CHANNEL, received::add);
+        bus.publishAsync(CHANNEL, new byte[]{1}).join();
+        assertEquals(1, received.size());
+    }
+}
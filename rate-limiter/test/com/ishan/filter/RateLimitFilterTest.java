@@ -0,0 +1,282 @@
+package com.ishan.filter;
+
+import com.ishan.base.ClientConfig;
+import com.ishan.base.ClientConfigProvider;
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.store.ConfigStores;
+import com.ishan.store.TestConfigStore;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RateLimitFilter#doFilter} with the servlet API stubbed out, the configs and counters kept in the process.
+ * The tests run with ratelimit.degradedMode FAIL_OPEN, and a concurrency limit of 1 request in flight.
+ *
+ * @since 18/10/26
+ */
+public class RateLimitFilterTest {
+
+    private final TestConfigStore store = (TestConfigStore) ConfigStores.getDefault();
+
+    @Test
+    public void limitsAKnownClient() throws Exception {
+        store.put(ClientConfigProvider.getConfigKey("filtered"), clientConfig("filtered", 1));
+        RateLimitFilter filter = filter(false);
+        assertEquals(200, new Exchange("filtered", "GET", "/a").filter(filter).status);
+        assertEquals(429, new Exchange("filtered", "GET", "/a").filter(filter).status);
+    }
+
+    @Test
+    public void refusesAnUnknownClient() throws Exception {
+        assertEquals(403, new Exchange("stranger", "GET", "/a").filter(filter(false)).status);
+    }
+
+    @Test
+    public void appliesTheDegradedModeWhenTheConfigCannotBeLoaded() throws Exception {
+        store.failGets(ClientConfigProvider.getConfigKey("unreachable"));
+        Exchange exchange = new Exchange("unreachable", "GET", "/a").filter(filter(false));
+        assertTrue(exchange.passed);
+        assertEquals(200, exchange.status);
+    }
+
+    @Test
+    public void appliesTheDegradedModeWhenTheConfigCannotBeLoadedAsync() throws Exception {
+        store.failGets(ClientConfigProvider.getConfigKey("unreachableAsync"));
+        RateLimitFilter filter = filter(true);
+        Exchange exchange = new Exchange("unreachableAsync", "GET", "/a").filter(filter);
+        exchange.awaitAsync();
+        assertTrue(exchange.dispatched);
+        assertFalse(exchange.passed);
+
+        // The container dispatches it again
+        exchange.dispatcherType = DispatcherType.ASYNC;
+        exchange.filter(filter);
+        assertTrue(exchange.passed);
+        assertEquals(200, exchange.status);
+    }
+
+    @Test
+    public void refusesAnUnknownClientAsync() throws Exception {
+        Exchange exchange = new Exchange("strangerAsync", "GET", "/a").filter(filter(true));
+        exchange.awaitAsync();
+        assertFalse(exchange.dispatched);
+        assertEquals(403, exchange.status);
+    }
+
+    @Test
+    public void aRequestRefusedForItsConcurrencyTakesNoRatePermits() throws Exception {
+        store.put(ClientConfigProvider.getConfigKey("crowded"), clientConfig("crowded", 2));
+        RateLimitFilter filter = filter(false);
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Exchange slow = new Exchange("crowded", "GET", "/a");
+        slow.onChain = () -> {
+            inFlight.countDown();
+            await(done);
+        };
+        Thread thread = new Thread(() -> {
+            try {
+                slow.filter(filter);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        try {
+            await(inFlight);
+            assertEquals(503, new Exchange("crowded", "GET", "/a").filter(filter).status);
+        } finally {
+            done.countDown();
+            thread.join(10_000);
+        }
+        assertEquals(200, slow.status);
+        // The 503 did not count against the limit of 2
+        assertEquals(200, new Exchange("crowded", "GET", "/a").filter(filter).status);
+        assertEquals(429, new Exchange("crowded", "GET", "/a").filter(filter).status);
+    }
+
+    @Test
+    public void matchesTheNormalizedPathWithinTheApplication() throws Exception {
+        ClientConfig clientConfig = clientConfig("paths", 100);
+        ClientConfig.RateLimits orderLimits = new ClientConfig.RateLimits();
+        orderLimits.setPeriodLimits(Collections.singletonMap(RateLimitPeriod.HOUR, 1));
+        clientConfig.setEndpointVsLimits(Collections.singletonMap("/orders/{id}", orderLimits));
+        store.put(ClientConfigProvider.getConfigKey("paths"), clientConfig);
+        RateLimitFilter filter = filter(false);
+
+        Exchange first = new Exchange("paths", "GET", "/app/orders/1;jsessionid=AB12");
+        first.servletPath = "/orders";
+        first.pathInfo = "/1;jsessionid=AB12";
+        assertEquals(200, first.filter(filter).status);
+
+        // Every one of these is an order, over the limit of the template
+        Exchange dotted = new Exchange("paths", "GET", "/app/orders/2/../3");
+        dotted.servletPath = "/orders/2/../3";
+        assertEquals(429, dotted.filter(filter).status);
+        Exchange slashes = new Exchange("paths", "GET", "/app//orders//4/");
+        slashes.servletPath = "//orders//4/";
+        assertEquals(429, slashes.filter(filter).status);
+        Exchange encoded = new Exchange("paths", "GET", "/app/orders/%35;v=1");
+        encoded.contextPath = "/app";
+        assertEquals(429, encoded.filter(filter).status);
+
+        Exchange user = new Exchange("paths", "GET", "/app/users/1");
+        user.servletPath = "/users/1";
+        assertEquals(200, user.filter(filter).status);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static RateLimitFilter filter(boolean async) {
+        RateLimitFilter filter = new RateLimitFilter();
+        filter.init(proxy(FilterConfig.class, (name, args) -> async && name.equals("getInitParameter")
+                && "async".equals(args[0]) ? "true" : null));
+        return filter;
+    }
+
+    private static ClientConfig clientConfig(String clientId, int hourLimit) {
+        ClientConfig.RateLimits rateLimits = new ClientConfig.RateLimits();
+        rateLimits.setPeriodLimits(Collections.singletonMap(RateLimitPeriod.HOUR, hourLimit));
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        clientConfig.setRateLimits(rateLimits);
+        return clientConfig;
+    }
+
+    /**
+     * A request through the filter, and what became of it
+     */
+    private static class Exchange {
+
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final CountDownLatch asyncDone = new CountDownLatch(1);
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final FilterChain chain;
+
+        volatile DispatcherType dispatcherType = DispatcherType.REQUEST;
+        volatile int status = 200;
+        volatile boolean passed;
+        volatile boolean dispatched;
+        volatile Runnable onChain = () -> {
+        };
+        volatile String contextPath = "";
+        volatile String servletPath = "";
+        volatile String pathInfo;
+
+        Exchange(String clientId, String method, String uri) {
+            response = proxy(HttpServletResponse.class, (name, args) -> {
+                if (name.equals("sendError")) {
+                    status = (Integer) args[0];
+                } else if (name.equals("getStatus")) {
+                    return status;
+                }
+                return null;
+            });
+            AsyncContext asyncContext = proxy(AsyncContext.class, (name, args) -> {
+                switch (name) {
+                    case "getResponse":
+                        return response;
+                    case "dispatch":
+                        dispatched = true;
+                        asyncDone.countDown();
+                        return null;
+                    case "complete":
+                        asyncDone.countDown();
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+            request = proxy(HttpServletRequest.class, (name, args) -> {
+                switch (name) {
+                    case "getHeader":
+                        return "clientId".equals(args[0]) ? clientId : null;
+                    case "getMethod":
+                        return method;
+                    case "getRequestURI":
+                        return uri;
+                    case "getContextPath":
+                        return contextPath;
+                    case "getServletPath":
+                        return servletPath;
+                    case "getPathInfo":
+                        return pathInfo;
+                    case "getDispatcherType":
+                        return dispatcherType;
+                    case "isAsyncSupported":
+                        return true;
+                    case "startAsync":
+                        return asyncContext;
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+            chain = (ServletRequest servletRequest, ServletResponse servletResponse) -> {
+                onChain.run();
+                passed = true;
+            };
+        }
+
+        Exchange filter(RateLimitFilter filter) throws Exception {
+            filter.doFilter(request, response, chain);
+            return this;
+        }
+
+        void awaitAsync() throws InterruptedException {
+            assertTrue("The async request was neither dispatched nor completed",
+                    asyncDone.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private interface Handler {
+        Object invoke(String name, Object[] args);
+    }
+
+    /**
+     * Just enough of the servlet API for the filter. The methods not handled return null, or false and 0 for the
+     * primitives.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object value = handler.invoke(method.getName(), args);
+            if (value == null && method.getReturnType() == boolean.class) {
+                return false;
+            }
+            if (value == null && method.getReturnType() == int.class) {
+                return 0;
+            }
+            return value;
+        });
+    }
+}
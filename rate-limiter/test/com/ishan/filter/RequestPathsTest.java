@@ -0,0 +1,46 @@
+package com.ishan.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 18/10/26
+ */
+public class RequestPathsTest {
+
+    @Test
+    public void aNormalPathIsKept() {
+        String path = "/orders/42/items";
+        assertSame(path, RequestPaths.normalize(path));
+        assertSame(path, RequestPaths.stripParameters(path));
+        assertSame(path, RequestPaths.decode(path));
+        assertEquals("/", RequestPaths.normalize("/"));
+    }
+
+    @Test
+    public void removesTheDotSegmentsAndRepeatedSlashes() {
+        assertEquals("/orders/2", RequestPaths.normalize("/orders//1/../2/"));
+        assertEquals("/orders/1", RequestPaths.normalize("/./orders/./1"));
+        assertEquals("/orders", RequestPaths.normalize("/../../orders"));
+        assertEquals("/", RequestPaths.normalize("/orders/.."));
+        assertEquals("/", RequestPaths.normalize(""));
+        assertEquals("/orders/.hidden/..x", RequestPaths.normalize("orders/.hidden/..x"));
+    }
+
+    @Test
+    public void stripsThePathParameters() {
+        assertEquals("/orders/1", RequestPaths.stripParameters("/orders/1;jsessionid=AB12"));
+        assertEquals("/orders/1/items", RequestPaths.stripParameters("/orders;v=2/1;x;y/items"));
+        assertEquals("/", RequestPaths.stripParameters("/;a"));
+    }
+
+    @Test
+    public void decodesThePercentEscapes() {
+        assertEquals("/orders/1 2", RequestPaths.decode("/orders/1%202"));
+        assertEquals("/caf\u00e9", RequestPaths.decode("/caf%C3%A9"));
+        assertEquals("/a+b", RequestPaths.decode("/a+b"));
+        assertEquals("/100%/x%2", RequestPaths.decode("/100%/x%2"));
+    }
+}
@@ -0,0 +1,159 @@
+package com.ishan.redis;
+
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @since 18/10/26
+ */
+public class CircuitBreakerTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long SLOW_CALL_MILLIS = 200;
+    private static final long OPEN_MILLIS = 50;
+
+    private final CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, SLOW_CALL_MILLIS, OPEN_MILLIS);
+
+    @Test
+    public void opensAfterTheFailuresInARow() {
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            failCall(breaker);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // A success starts the count again
+        assertEquals("ok", breaker.execute(() -> "ok"));
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            failCall(breaker);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failCall(breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void refusesWhileOpen() {
+        open();
+        try {
+            breaker.execute(() -> "refused");
+            fail("The call went through an open breaker");
+        } catch (RedisUnavailableException e) {
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+        assertTrue(breaker.executeAsync(() -> CompletableFuture.completedFuture("refused"))
+                .isCompletedExceptionally());
+    }
+
+    @Test
+    public void slowCallsCountAsFailures() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            breaker.onSuccess(CircuitBreaker.Permission.CALL, (SLOW_CALL_MILLIS + 1) * 1_000_000);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void otherFailuresAreIgnored() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            try {
+                breaker.execute(() -> {
+                    throw new JedisDataException("WRONGTYPE");
+                });
+                fail("The failure of the call was not thrown");
+            } catch (JedisDataException e) {
+                // Says nothing about the health of redis
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void probeClosesTheHalfOpenBreaker() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS * 2);
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        CompletableFuture<String> result = breaker.executeAsync(() -> probe);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // A single probe at a time
+        assertTrue(breaker.executeAsync(() -> CompletableFuture.completedFuture("refused"))
+                .isCompletedExceptionally());
+        probe.complete("ok");
+        assertEquals("ok", result.join());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failedProbeOpensTheBreakerAgain() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS * 2);
+        failCall(breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void ignoredProbeLetsAnotherThrough() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS * 2);
+        assertEquals(CircuitBreaker.Permission.PROBE, breaker.tryAcquire());
+        breaker.onIgnored(CircuitBreaker.Permission.PROBE);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permission.PROBE, breaker.tryAcquire());
+    }
+
+    @Test
+    public void callsMadeBeforeTheBreakerOpenedDoNotCloseIt() throws InterruptedException {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> slowResult = breaker.executeAsync(() -> slow);
+        open();
+        Thread.sleep(OPEN_MILLIS * 2);
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        breaker.executeAsync(() -> probe);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        slow.complete("late");
+        assertEquals("late", slowResult.join());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        probe.complete("ok");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void callsMadeBeforeTheBreakerOpenedDoNotOpenItAgain() throws InterruptedException {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        breaker.executeAsync(() -> slow);
+        open();
+        Thread.sleep(OPEN_MILLIS * 2);
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        breaker.executeAsync(() -> probe);
+
+        slow.completeExceptionally(new JedisConnectionException("Read timed out"));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        probe.complete("ok");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private void open() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            failCall(breaker);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static void failCall(CircuitBreaker breaker) {
+        try {
+            breaker.execute(() -> {
+                throw new JedisConnectionException("Connection refused");
+            });
+            fail("The failure of the call was not thrown");
+        } catch (RedisUnavailableException e) {
+            // Counted against redis
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.ishan.redis;
+
+import com.ishan.base.RateLimitAlgorithm;
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RedisKeyDetails;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.JedisClusterCRC16;
+import redis.embedded.RedisServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RedisClusterCounterStore} against nodes which stand in for a redis cluster: each answers CLUSTER SLOTS with
+ * the node the test says serves every slot, replies MOVED or ASK as the test says, and hands every other command to
+ * one embedded redis server. The embedded server predates the cluster mode, so the nodes share its keys.
+ *
+ * @since 18/10/26
+ */
+public class RedisClusterCounterStoreTest {
+
+    private static final long HOUR = 3_600_000;
+
+    private static RedisServer redisServer;
+    private static int redisPort;
+
+    private final List<FakeClusterNode> nodes = new ArrayList<>();
+
+    @BeforeClass
+    public static void startRedis() throws IOException {
+        redisPort = freePort();
+        redisServer = RedisServer.builder().port(redisPort).setting("save \"\"").build();
+        redisServer.start();
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redisServer.stop();
+    }
+
+    @After
+    public void closeNodes() throws IOException {
+        for (FakeClusterNode node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void incrementsAndReadsOnTheNodeServingTheSlot() throws IOException {
+        FakeClusterNode node = node();
+        node.servingNode = node;
+        RedisClusterCounterStore store = store(node);
+        List<RedisKeyDetails> redisKeys = redisKeys("served", 2);
+
+        assertEquals(Arrays.asList(2L, 2L), store.increment(redisKeys));
+        assertEquals(Arrays.asList(4L, 4L), store.increment(redisKeys));
+        assertEquals(Arrays.asList(4L, 4L), store.read(redisKeys));
+        // The expiry is sent with the first increment of the slot only
+        assertEquals(2, node.count("EXPIRE"));
+        try (Jedis jedis = new Jedis("127.0.0.1", redisPort)) {
+            assertTrue(jedis.ttl(redisKeys.get(0).getKey()) > 0);
+        }
+    }
+
+    @Test
+    public void followsAMovedSlot() throws IOException {
+        FakeClusterNode from = node();
+        FakeClusterNode to = node();
+        from.servingNode = from;
+        RedisClusterCounterStore store = store(from);
+        List<RedisKeyDetails> redisKeys = redisKeys("moved", 1);
+        assertEquals(Arrays.asList(1L, 1L), store.increment(redisKeys));
+
+        from.servingNode = to;
+        to.servingNode = to;
+        from.redirect = (command, key, asking) -> key == null ? null : moved(key, to);
+        assertEquals(Arrays.asList(2L, 2L), store.increment(redisKeys));
+        assertEquals(0, store.evaluate(RateLimitAlgorithm.FIXED_WINDOW.getStrategy(), redisKeys,
+                System.currentTimeMillis()));
+        assertEquals(Arrays.asList(3L, 3L), store.read(redisKeys));
+        // Sent to the new node straight away once it is known
+        assertEquals(2, from.count("INCRBY"));
+        assertEquals(0, from.count("EVALSHA") + from.count("EVAL") + from.count("MGET"));
+        assertEquals(1, to.count("MGET"));
+    }
+
+    @Test
+    public void sendsOnlyTheRefusedCommandsToTheImportingNode() throws IOException {
+        FakeClusterNode from = node();
+        FakeClusterNode to = node();
+        from.servingNode = from;
+        to.servingNode = from;
+        List<RedisKeyDetails> redisKeys = redisKeys("migrating", 1);
+        byte[] imported = redisKeys.get(1).getKey();
+        // The second key is already on the importing node, which only takes it after ASKING
+        from.redirect = (command, key, asking) -> Arrays.equals(key, imported) ? ask(key, to) : null;
+        to.redirect = (command, key, asking) -> key == null || asking ? null : moved(key, from);
+
+        assertEquals(Arrays.asList(1L, 1L), store(from).increment(redisKeys));
+        assertEquals(1, from.count("INCRBY"));
+        assertEquals(1, to.count("INCRBY"));
+        try (Jedis jedis = new Jedis("127.0.0.1", redisPort)) {
+            assertTrue(jedis.ttl(imported) > 0);
+        }
+    }
+
+    @Test
+    public void givesUpAfterTooManyRedirections() throws IOException {
+        FakeClusterNode first = node();
+        FakeClusterNode second = node();
+        first.servingNode = first;
+        second.servingNode = first;
+        first.redirect = (command, key, asking) -> key == null ? null : moved(key, second);
+        second.redirect = (command, key, asking) -> key == null ? null : moved(key, first);
+        List<RedisKeyDetails> redisKeys = redisKeys("bouncing", 1);
+        try {
+            store(first).increment(redisKeys);
+            fail("The redirections did not end");
+        } catch (RedisUnavailableException e) {
+            try (Jedis jedis = new Jedis("127.0.0.1", redisPort)) {
+                assertFalse(jedis.exists(redisKeys.get(0).getKey()));
+            }
+        }
+    }
+
+    private FakeClusterNode node() throws IOException {
+        FakeClusterNode node = new FakeClusterNode();
+        nodes.add(node);
+        return node;
+    }
+
+    private static RedisClusterCounterStore store(FakeClusterNode seed) {
+        return new RedisClusterCounterStore(Collections.singletonList("127.0.0.1:" + seed.getPort()));
+    }
+
+    /**
+     * The keys of the current hour of a client, for a limit of the client and one of an endpoint
+     */
+    private static List<RedisKeyDetails> redisKeys(String clientId, long increment) {
+        long slotStart = RateLimitPeriod.HOUR.wrap(System.currentTimeMillis());
+        List<RedisKeyDetails> redisKeys = new ArrayList<>(2);
+        for (String scope : new String[]{"", "/endpoint_"}) {
+            RedisKeyDetails redisKey = new RedisKeyDetails(HOUR);
+            redisKey.setClientId(clientId);
+            redisKey.setPeriod(RateLimitPeriod.HOUR);
+            redisKey.setLimit(10);
+            redisKey.setIncrement(increment);
+            byte[] prefix = ("{" + clientId + "}_" + scope).getBytes(StandardCharsets.UTF_8);
+            byte[] keyPrefix = Arrays.copyOf(prefix, prefix.length + 1);
+            keyPrefix[prefix.length] = (byte) RateLimitPeriod.HOUR.ordinal();
+            redisKey.generateRedisKey(keyPrefix, slotStart);
+            redisKeys.add(redisKey);
+        }
+        return redisKeys;
+    }
+
+    private static String moved(byte[] key, FakeClusterNode node) {
+        return "MOVED " + JedisClusterCRC16.getSlot(key) + " 127.0.0.1:" + node.getPort();
+    }
+
+    private static String ask(byte[] key, FakeClusterNode node) {
+        return "ASK " + JedisClusterCRC16.getSlot(key) + " 127.0.0.1:" + node.getPort();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private interface Redirect {
+        /**
+         * @param key    The first key of the command, null for a command without keys
+         * @param asking Whether the command follows ASKING
+         * @return The error to reply, e.g. MOVED 1 host:port, null to run the command
+         */
+        String redirect(String command, byte[] key, boolean asking);
+    }
+
+    /**
+     * A node of the cluster, which answers on a port of its own
+     */
+    private static class FakeClusterNode implements Closeable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final List<String> commands = new CopyOnWriteArrayList<>();
+
+        /**
+         * The node CLUSTER SLOTS gives for every slot
+         */
+        volatile FakeClusterNode servingNode;
+        volatile Redirect redirect = (command, key, asking) -> null;
+
+        FakeClusterNode() throws IOException {
+            Thread acceptor = new Thread(this::accept, "fake-cluster-node-" + getPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * @return How many commands of the name were run, not redirected
+         */
+        int count(String command) {
+            return Collections.frequency(commands, command);
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket client = serverSocket.accept();
+                    Thread connection = new Thread(() -> serve(client), "fake-cluster-connection");
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket client) {
+            try (Socket clientSocket = client; Socket redisSocket = new Socket("127.0.0.1", redisPort)) {
+                InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+                OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+                InputStream redisIn = new BufferedInputStream(redisSocket.getInputStream());
+                OutputStream redisOut = new BufferedOutputStream(redisSocket.getOutputStream());
+                boolean asking = false;
+                List<byte[]> args;
+                while ((args = readCommand(in)) != null) {
+                    String command = new String(args.get(0), StandardCharsets.US_ASCII).toUpperCase();
+                    if (command.equals("CLUSTER")) {
+                        writeSlots(out);
+                    } else if (command.equals("ASKING")) {
+                        asking = true;
+                        out.write("+OK\r\n".getBytes(StandardCharsets.US_ASCII));
+                    } else {
+                        String error = redirect.redirect(command, getKey(command, args), asking);
+                        asking = false;
+                        if (error != null) {
+                            out.write(("-" + error + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                        } else {
+                            commands.add(command);
+                            writeCommand(redisOut, args);
+                            redisOut.flush();
+                            copyReply(redisIn, out);
+                        }
+                    }
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // The client went away
+            }
+        }
+
+        private void writeSlots(OutputStream out) throws IOException {
+            String reply = "*1\r\n*3\r\n:0\r\n:16383\r\n*2\r\n$9\r\n127.0.0.1\r\n:" + servingNode.getPort() + "\r\n";
+            out.write(reply.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private static byte[] getKey(String command, List<byte[]> args) {
+            switch (command) {
+                case "EVAL":
+                case "EVALSHA":
+                    return args.size() > 3 && !"0".equals(new String(args.get(2), StandardCharsets.US_ASCII))
+                            ? args.get(3) : null;
+                case "SCRIPT":
+                case "PING":
+                case "AUTH":
+                case "SELECT":
+                case "QUIT":
+                    return null;
+                default:
+                    return args.size() > 1 ? args.get(1) : null;
+            }
+        }
+
+        /**
+         * @return The arguments of the next command, an array of bulk strings, null at the end of the stream
+         */
+        private static List<byte[]> readCommand(InputStream in) throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                return null;
+            }
+            int count = Integer.parseInt(readLine(in));
+            List<byte[]> args = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                in.read();
+                byte[] arg = new byte[Integer.parseInt(readLine(in))];
+                readFully(in, arg);
+                readLine(in);
+                args.add(arg);
+            }
+            return args;
+        }
+
+        private static void writeCommand(OutputStream out, List<byte[]> args) throws IOException {
+            out.write(("*" + args.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (byte[] arg : args) {
+                out.write(("$" + arg.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(arg);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        /**
+         * Copies one reply, with everything nested in it
+         */
+        private static void copyReply(InputStream in, OutputStream out) throws IOException {
+            int type = in.read();
+            String line = readLine(in);
+            out.write(type);
+            out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            if (type == '$' && Integer.parseInt(line) >= 0) {
+                byte[] bulk = new byte[Integer.parseInt(line) + 2];
+                readFully(in, bulk);
+                out.write(bulk);
+            } else if (type == '*') {
+                for (int i = 0; i < Integer.parseInt(line); i++) {
+                    copyReply(in, out);
+                }
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) {
+                    throw new IOException("The stream ended within a line");
+                }
+                line.write(b);
+            }
+            in.read();
+            return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        }
+
+        private static void readFully(InputStream in, byte[] bytes) throws IOException {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    throw new IOException("The stream ended within a bulk string");
+                }
+                read += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ishan.redis;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RedisCommandBatcher} against an embedded redis server
+ *
+ * @since 18/10/26
+ */
+public class RedisCommandBatcherTest {
+
+    private static RedisServer redisServer;
+    private static JedisPool jedisPool;
+
+    private final Set<Pipeline> pipelines = Collections.synchronizedSet(new HashSet<>());
+
+    @BeforeClass
+    public static void startRedis() throws IOException {
+        int port = freePort();
+        redisServer = RedisServer.builder().port(port).setting("save \"\"").build();
+        redisServer.start();
+        jedisPool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", port);
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        jedisPool.close();
+        redisServer.stop();
+    }
+
+    @Test
+    public void sendsTheCallsOfAWindowAsOnePipeline() {
+        // A window long enough that only a full batch is flushed before the end of the test
+        RedisCommandBatcher batcher = new RedisCommandBatcher(jedisPool, TimeUnit.SECONDS.toMicros(60), 50, 1,
+                60_000);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(batcher.submit(new IncrCall("window")));
+        }
+        Set<Long> counters = new HashSet<>();
+        for (CompletableFuture<Long> future : futures) {
+            counters.add(future.join());
+        }
+        // Every caller got its own reply
+        assertEquals(50, counters.size());
+        assertTrue(counters.contains(1L) && counters.contains(50L));
+        assertEquals(1, pipelines.size());
+    }
+
+    @Test
+    public void splitsTheCallsIntoBatchesOfTheMaxSize() {
+        RedisCommandBatcher batcher = new RedisCommandBatcher(jedisPool, TimeUnit.MILLISECONDS.toMicros(200), 50, 1,
+                60_000);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            futures.add(batcher.submit(new IncrCall("split")));
+        }
+        futures.forEach(CompletableFuture::join);
+        assertEquals(3, pipelines.size());
+    }
+
+    @Test
+    public void theErrorOfACallOnlyFailsThatCall() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.set("notACounter", "text");
+        }
+        RedisCommandBatcher batcher = new RedisCommandBatcher(jedisPool, TimeUnit.SECONDS.toMicros(60), 2, 1, 60_000);
+        CompletableFuture<Long> failed = batcher.submit(new IncrCall("notACounter"));
+        CompletableFuture<Long> counted = batcher.submit(new IncrCall("counted"));
+        assertEquals(1L, counted.join().longValue());
+        assertFailedWith(JedisDataException.class, failed);
+        assertEquals(1, pipelines.size());
+    }
+
+    @Test
+    public void failsTheCallsWhichWaitedTooLong() throws InterruptedException {
+        RedisCommandBatcher batcher = new RedisCommandBatcher(jedisPool, 0, 1, 1, 50);
+        CountDownLatch preparing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IncrCall slow = new IncrCall("slow") {
+            @Override
+            void prepare(Jedis jedis) {
+                preparing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        CompletableFuture<Long> first = batcher.submit(slow);
+        assertTrue(preparing.await(10, TimeUnit.SECONDS));
+        // Queued behind the slow call, for longer than the max wait
+        CompletableFuture<Long> second = batcher.submit(new IncrCall("slow"));
+        Thread.sleep(100);
+        release.countDown();
+        assertEquals(1L, first.join().longValue());
+        assertFailedWith(JedisConnectionException.class, second);
+    }
+
+    @Test
+    public void failsEveryCallOfABatchWhichCouldNotBeSent() throws IOException {
+        JedisPool unreachable = new JedisPool(new JedisPoolConfig(), "127.0.0.1", freePort());
+        try {
+            RedisCommandBatcher batcher = new RedisCommandBatcher(unreachable, TimeUnit.SECONDS.toMicros(60), 2, 1,
+                    60_000);
+            CompletableFuture<Long> first = batcher.submit(new IncrCall("unsent"));
+            CompletableFuture<Long> second = batcher.submit(new IncrCall("unsent"));
+            assertFailedWith(JedisConnectionException.class, first);
+            assertFailedWith(JedisConnectionException.class, second);
+        } finally {
+            unreachable.close();
+        }
+    }
+
+    private static void assertFailedWith(Class<? extends Exception> type, CompletableFuture<?> future) {
+        try {
+            future.join();
+            fail("The call did not fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * INCR of one key, which records the pipeline it was queued in
+     */
+    private class IncrCall extends BatchedCall<Long> {
+
+        private final String key;
+        private Response<Long> counter;
+
+        private IncrCall(String key) {
+            this.key = key;
+        }
+
+        @Override
+        void queue(Pipeline pipeline) {
+            pipelines.add(pipeline);
+            counter = pipeline.incr(key);
+        }
+
+        @Override
+        Long read() {
+            return counter.get();
+        }
+
+        @Override
+        Long execute(Jedis jedis) {
+            return jedis.incr(key);
+        }
+    }
+}
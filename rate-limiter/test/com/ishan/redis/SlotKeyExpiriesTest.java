@@ -0,0 +1,61 @@
+package com.ishan.redis;
+
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RedisKeyDetails;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 18/10/26
+ */
+public class SlotKeyExpiriesTest {
+
+    private final SlotKeyExpiries keyExpiries = new SlotKeyExpiries();
+
+    @Test
+    public void theExpiryIsSentUntilItIsSet() {
+        long slotStart = RateLimitPeriod.HOUR.wrap(System.currentTimeMillis());
+        RedisKeyDetails redisKey = redisKey("client", RateLimitPeriod.HOUR, slotStart);
+        assertTrue(keyExpiries.needsExpire(redisKey));
+        // Not set until the reply has been read
+        assertTrue(keyExpiries.needsExpire(redisKey));
+        keyExpiries.expireSet(redisKey);
+        assertFalse(keyExpiries.needsExpire(redisKey));
+        assertFalse(keyExpiries.needsExpire(redisKey("client", RateLimitPeriod.HOUR, slotStart)));
+
+        assertTrue(keyExpiries.needsExpire(redisKey("other", RateLimitPeriod.HOUR, slotStart)));
+        long nextSlot = RateLimitPeriod.HOUR.wrapNext(slotStart);
+        assertTrue(keyExpiries.needsExpire(redisKey("client", RateLimitPeriod.HOUR, nextSlot)));
+    }
+
+    @Test
+    public void theKeysOfASlotAreForgottenOnceItHasEnded() {
+        long slotStart = RateLimitPeriod.SECOND.wrap(System.currentTimeMillis() - 2000);
+        RedisKeyDetails redisKey = redisKey("ended", RateLimitPeriod.SECOND, slotStart);
+        keyExpiries.expireSet(redisKey);
+        assertTrue(keyExpiries.needsExpire(redisKey));
+    }
+
+    @Test
+    public void aKeyWhoseCounterIsItsIncrementWasCreatedByIt() {
+        long slotStart = RateLimitPeriod.HOUR.wrap(System.currentTimeMillis());
+        RedisKeyDetails redisKey = redisKey("created", RateLimitPeriod.HOUR, slotStart);
+        redisKey.setIncrement(3);
+        assertTrue(SlotKeyExpiries.isCreatedWithoutExpire(redisKey, 3));
+        assertFalse(SlotKeyExpiries.isCreatedWithoutExpire(redisKey, 6));
+    }
+
+    private static RedisKeyDetails redisKey(String clientId, RateLimitPeriod period, long slotStart) {
+        RedisKeyDetails redisKey = new RedisKeyDetails(1000);
+        redisKey.setClientId(clientId);
+        redisKey.setPeriod(period);
+        redisKey.setIncrement(1);
+        byte[] prefix = ("{" + clientId + "}_").getBytes(StandardCharsets.UTF_8);
+        redisKey.generateRedisKey(prefix, slotStart);
+        return redisKey;
+    }
+}
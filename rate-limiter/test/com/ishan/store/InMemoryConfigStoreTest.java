@@ -0,0 +1,58 @@
+package com.ishan.store;
+
+import com.ishan.base.ClientConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 18/10/26
+ */
+public class InMemoryConfigStoreTest {
+
+    private final InMemoryConfigStore store = new InMemoryConfigStore();
+
+    @Test
+    public void getsWhatWasPut() {
+        ClientConfig clientConfig = clientConfig("a");
+        store.put("config:a", clientConfig);
+        assertSame(clientConfig, store.get("config:a"));
+        assertNull(store.get("config:b"));
+        store.remove("config:a");
+        assertNull(store.get("config:a"));
+    }
+
+    @Test
+    public void scansTheMatchingKeys() {
+        store.put("config:a", clientConfig("a"));
+        store.put("config:b", clientConfig("b"));
+        store.put("config:ab", clientConfig("ab"));
+        store.put("other.a", clientConfig("other"));
+        assertEquals(Collections.singletonList("config:ab"), scan("config:a?", 10));
+        assertEquals(3, scan("config:*", 10).size());
+        // Every other character stands for itself
+        assertEquals(Collections.singletonList("other.a"), scan("other.*", 10));
+        assertEquals(Collections.emptyList(), scan("other?b", 10));
+        assertEquals(2, scan("*", 2).size());
+    }
+
+    private List<String> scan(String match, int maxConfigs) {
+        List<String> keys = new ArrayList<>();
+        int found = store.scan(match, 1, maxConfigs, (key, clientConfig) -> keys.add(key));
+        assertEquals(keys.size(), found);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static ClientConfig clientConfig(String clientId) {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setClientId(clientId);
+        return clientConfig;
+    }
+}
@@ -0,0 +1,164 @@
+package com.ishan.store;
+
+import com.ishan.base.RateLimitPeriod;
+import com.ishan.base.RedisKeyDetails;
+import com.ishan.strategy.FixedWindowStrategy;
+import com.ishan.strategy.RateLimitStrategy;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @since 18/10/26
+ */
+public class InMemoryCounterStoreTest {
+
+    private static final long HOUR_MILLIS = 3600_000L;
+
+    private final InMemoryCounterStore store = new InMemoryCounterStore(4);
+    private final RateLimitStrategy fixedWindow = new FixedWindowStrategy();
+
+    @Test
+    public void incrementsAndReads() {
+        RedisKeyDetails first = key("{a}x", RateLimitPeriod.HOUR, 10, HOUR_MILLIS, 2);
+        RedisKeyDetails second = key("{a}y", RateLimitPeriod.HOUR, 10, HOUR_MILLIS, 3);
+        assertEquals(Arrays.asList(2L, 3L), store.increment(Arrays.asList(first, second)));
+        assertEquals(Arrays.asList(4L, 6L), store.increment(Arrays.asList(first, second)));
+        assertEquals(Arrays.asList(4L, 6L, 0L), store.read(Arrays.asList(first, second,
+                key("{a}z", RateLimitPeriod.HOUR, 10, HOUR_MILLIS, 1))));
+    }
+
+    @Test
+    public void negativeIncrementsGiveBack() {
+        RedisKeyDetails taken = key("{refund}x", RateLimitPeriod.HOUR, 10, HOUR_MILLIS, 5);
+        store.increment(Collections.singletonList(taken));
+        store.increment(Collections.singletonList(key("{refund}x", RateLimitPeriod.HOUR, 10, HOUR_MILLIS, -2)));
+        assertEquals(Collections.singletonList(3L), store.read(Collections.singletonList(taken)));
+    }
+
+    @Test
+    public void countersExpireWithTheirTtl() throws InterruptedException {
+        RedisKeyDetails shortLived = key("{ttl}x", RateLimitPeriod.SECOND, 10, 50, 1);
+        store.increment(Collections.singletonList(shortLived));
+        assertEquals(Collections.singletonList(1L), store.read(Collections.singletonList(shortLived)));
+        Thread.sleep(100);
+        assertEquals(Collections.singletonList(0L), store.read(Collections.singletonList(shortLived)));
+        // Starts again with a ttl of its own
+        assertEquals(Collections.singletonList(1L), store.increment(Collections.singletonList(shortLived)));
+    }
+
+    @Test
+    public void manyKeysOfOneClient() {
+        // Enough to grow the table of the segment several times
+        List<RedisKeyDetails> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add(key("{many}" + i, RateLimitPeriod.HOUR, 10, HOUR_MILLIS, i % 7 + 1));
+        }
+        store.increment(keys);
+        List<Long> counters = store.read(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i % 7 + 1, counters.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void evaluatesAtomicallyUnderConcurrency() throws Exception {
+        int limit = 100;
+        int threads = 8;
+        int attemptsPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> admitted = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                admitted.add(executor.submit(() -> {
+                    start.await();
+                    int allowed = 0;
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        List<RedisKeyDetails> redisKeys = Arrays.asList(
+                                key("{atomic}second", RateLimitPeriod.HOUR, limit, HOUR_MILLIS, 1),
+                                key("{atomic}hour", RateLimitPeriod.HOUR, limit * 2, HOUR_MILLIS, 1));
+                        if (store.evaluate(fixedWindow, redisKeys, System.currentTimeMillis()) == 0) {
+                            allowed++;
+                        }
+                    }
+                    return allowed;
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> future : admitted) {
+                total += future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(limit, total);
+        } finally {
+            executor.shutdownNow();
+        }
+        // The rejected requests were counted on neither limit
+        assertEquals(Arrays.asList((long) limit, (long) limit), store.read(Arrays.asList(
+                key("{atomic}second", RateLimitPeriod.HOUR, limit, HOUR_MILLIS, 1),
+                key("{atomic}hour", RateLimitPeriod.HOUR, limit * 2, HOUR_MILLIS, 1))));
+    }
+
+    @Test
+    public void evaluatesTheRequestsOfABatchInOrder() {
+        List<RedisKeyDetails> redisKeys = Collections.singletonList(
+                key("{batch}x", RateLimitPeriod.HOUR, 2, HOUR_MILLIS, 1));
+        long now = System.currentTimeMillis();
+        Evaluation evaluation = new Evaluation(fixedWindow, redisKeys, now);
+        int[] verdicts = store.evaluateAll(Arrays.asList(evaluation, evaluation, evaluation));
+        assertEquals(0, verdicts[0]);
+        assertEquals(0, verdicts[1]);
+        assertEquals(1, verdicts[2]);
+    }
+
+    @Test
+    public void keysOfARequestShareTheirHashTag() {
+        List<RedisKeyDetails> redisKeys = new ArrayList<>();
+        // With 4 segments some of these are bound to fall in different ones
+        for (int i = 0; i < 16; i++) {
+            redisKeys.add(key("{client" + i + "}x", RateLimitPeriod.HOUR, 10, HOUR_MILLIS, 1));
+        }
+        try {
+            store.evaluate(fixedWindow, redisKeys, System.currentTimeMillis());
+            fail("The keys of different clients were evaluated together");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("hash tag"));
+        }
+    }
+
+    @Test
+    public void asyncCallsAreCompleteWhenReturned() {
+        RedisKeyDetails redisKey = key("{async}x", RateLimitPeriod.HOUR, 1, HOUR_MILLIS, 1);
+        long now = System.currentTimeMillis();
+        assertEquals(0, store.evaluateAsync(fixedWindow, Collections.singletonList(redisKey), now).getNow(-1)
+                .intValue());
+        assertEquals(1, store.evaluateAsync(fixedWindow, Collections.singletonList(redisKey), now).getNow(-1)
+                .intValue());
+        assertEquals(Collections.singletonList(2L),
+                store.incrementAsync(Collections.singletonList(redisKey)).getNow(null));
+    }
+
+    private static RedisKeyDetails key(String prefix, RateLimitPeriod period, long limit, long ttl, long increment) {
+        RedisKeyDetails redisKey = new RedisKeyDetails(ttl);
+        redisKey.setPeriod(period);
+        redisKey.setLimit(limit);
+        redisKey.setIncrement(increment);
+        // The slot is only a part of the key, the counters expire by their ttl
+        redisKey.generateRedisKey(prefix.getBytes(StandardCharsets.UTF_8), 0);
+        return redisKey;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ishan.store;
+
+import com.ishan.base.ClientConfig;
+import com.ishan.redis.RedisUnavailableException;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The config store of the tests: an {@link InMemoryConfigStore} whose next read of a key can be held, after the
+ * config was read and before it is returned, to change the config while it is being loaded, and whose reads of a key
+ * can fail as if redis were unavailable.
+ *
+ * @since 18/10/26
+ */
+public class TestConfigStore extends InMemoryConfigStore {
+
+    private final ConcurrentMap<String, Pause> keyVsPause = new ConcurrentHashMap<>();
+    private final Set<String> failingKeys = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public ClientConfig get(String key) {
+        if (failingKeys.contains(key)) {
+            throw new RedisUnavailableException("Failing " + key);
+        }
+        ClientConfig clientConfig = super.get(key);
+        Pause pause = keyVsPause.remove(key);
+        if (pause != null) {
+            pause.reading.countDown();
+            try {
+                pause.resumed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return clientConfig;
+    }
+
+    /**
+     * Holds the next read of the key until {@link Pause#resume()}
+     */
+    public Pause pauseNextGet(String key) {
+        Pause pause = new Pause();
+        keyVsPause.put(key, pause);
+        return pause;
+    }
+
+    /**
+     * Fails the reads of the key from now on
+     */
+    public void failGets(String key) {
+        failingKeys.add(key);
+    }
+
+    public static class Pause {
+
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private final CountDownLatch resumed = new CountDownLatch(1);
+
+        /**
+         * Waits for the read to have got the config
+         */
+        public void awaitRead() throws InterruptedException {
+            reading.await();
+        }
+
+        public void resume() {
+            resumed.countDown();
+        }
+    }
+}